@@ -11,11 +11,29 @@ const AdminPanel = () => {
     const [editingUser, setEditingUser] = useState(null);
     const [grades, setGrades] = useState([]);
     const [subjects, setSubjects] = useState([]);
+    const [nextAfterId, setNextAfterId] = useState(null);
+    const [filters, setFilters] = useState({ role: '', gradeId: '', namePrefix: '', active: '' });
+
+    const buildFilterParams = () => {
+        const params = new URLSearchParams();
+        Object.entries(filters).forEach(([key, value]) => {
+            if (value !== '') {
+                params.append(key, value);
+            }
+        });
+        return params;
+    };
 
-    const fetchUsers = async () => {
+    // Список грузится страницами; afterId - id последнего пользователя предыдущей страницы
+    const fetchUsers = async (afterId = null) => {
         setLoading(true);
         try {
-            const response = await fetch('/api/admin/users', {
+            const params = buildFilterParams();
+            if (afterId) {
+                params.append('afterId', afterId);
+            }
+
+            const response = await fetch(`/api/admin/users?${params.toString()}`, {
                 headers: {
                     'Authorization': `${user.token}`
                 }
@@ -26,7 +44,8 @@ const AdminPanel = () => {
             }
 
             const data = await response.json();
-            setUsers(data);
+            setUsers(afterId ? prev => [...prev, ...data.items] : data.items);
+            setNextAfterId(data.nextAfterId);
         } catch (err) {
             setError(err.message || 'Ошибка загрузки данных');
         } finally {
@@ -69,10 +88,41 @@ const AdminPanel = () => {
     };
 
     useEffect(() => {
-        fetchUsers();
         fetchGradesAndSubjects();
     }, [user.token]);
 
+    useEffect(() => {
+        fetchUsers();
+    }, [user.token, filters]);
+
+    const handleFilterChange = (e) => {
+        const { name, value } = e.target;
+        setFilters(prev => ({ ...prev, [name]: value }));
+    };
+
+    const handleExport = async () => {
+        try {
+            const response = await fetch(`/api/admin/users/export?${buildFilterParams().toString()}`, {
+                headers: {
+                    'Authorization': user.token
+                }
+            });
+
+            if (!response.ok) {
+                throw new Error('Ошибка выгрузки пользователей');
+            }
+
+            const blob = await response.blob();
+            const link = document.createElement('a');
+            link.href = URL.createObjectURL(blob);
+            link.download = 'users.ndjson';
+            link.click();
+            URL.revokeObjectURL(link.href);
+        } catch (err) {
+            setError(err.message || 'Ошибка выгрузки пользователей');
+        }
+    };
+
     const handleCreateUser = () => {
         setEditingUser(null);
         setShowForm(true);
@@ -86,9 +136,9 @@ const AdminPanel = () => {
             fullName: userData.fullName,
             email: userData.email,
             role: userData.role,
-            gradeName: userData.grade ? userData.grade.fullName : null,
-            subjectNames: userData.subjects ? userData.subjects.map(s => s.name) : [],
-            teachingGradeNames: userData.teachingGrades ? userData.teachingGrades.map(g => g.fullName) : [], // Добавьте эту строку
+            gradeName: userData.gradeName,
+            subjectNames: userData.subjectNames || [],
+            teachingGradeNames: userData.teachingGradeNames || [],
             active: userData.active
         };
 
@@ -191,7 +241,36 @@ const AdminPanel = () => {
 
             <div style={{ marginBottom: '1rem', display: 'flex', justifyContent: 'space-between', alignItems: 'center' }}>
                 <h3>Управление пользователями</h3>
-                <button onClick={handleCreateUser}>Добавить пользователя</button>
+                <div style={{ display: 'flex', gap: '0.5rem' }}>
+                    <button className="secondary" onClick={handleExport}>Выгрузить</button>
+                    <button onClick={handleCreateUser}>Добавить пользователя</button>
+                </div>
+            </div>
+
+            <div style={{ marginBottom: '1rem', display: 'flex', gap: '0.5rem' }}>
+                <input
+                    name="namePrefix"
+                    placeholder="Имя или логин"
+                    value={filters.namePrefix}
+                    onChange={handleFilterChange}
+                />
+                <select name="role" value={filters.role} onChange={handleFilterChange}>
+                    <option value="">Все роли</option>
+                    <option value="STUDENT">Ученики</option>
+                    <option value="TEACHER">Учителя</option>
+                    <option value="ADMIN">Администраторы</option>
+                </select>
+                <select name="gradeId" value={filters.gradeId} onChange={handleFilterChange}>
+                    <option value="">Все классы</option>
+                    {grades.map(g => (
+                        <option key={g.id} value={g.id}>{g.fullName}</option>
+                    ))}
+                </select>
+                <select name="active" value={filters.active} onChange={handleFilterChange}>
+                    <option value="">Любой статус</option>
+                    <option value="true">Активные</option>
+                    <option value="false">Неактивные</option>
+                </select>
             </div>
 
             {showForm && (
@@ -226,9 +305,8 @@ const AdminPanel = () => {
                         <td>{u.email}</td>
                         <td>{u.role}</td>
                         <td>
-                            {u.role === 'STUDENT' && u.grade ? u.grade.fullName : null}
-                            {u.role === 'TEACHER' && u.subjects ?
-                                u.subjects.map(s => s.name).join(', ') : null}
+                            {u.role === 'STUDENT' ? u.gradeName : null}
+                            {u.role === 'TEACHER' ? u.subjectNames.join(', ') : null}
                         </td>
                         <td>{u.active ? 'Активен' : 'Неактивен'}</td>
                         <td style={{ display: 'flex', gap: '0.5rem' }}>
@@ -252,6 +330,14 @@ const AdminPanel = () => {
                 ))}
                 </tbody>
             </table>
+
+            {nextAfterId && (
+                <div style={{ marginTop: '1rem', textAlign: 'center' }}>
+                    <button className="secondary" onClick={() => fetchUsers(nextAfterId)} disabled={loading}>
+                        {loading ? 'Загрузка...' : 'Показать еще'}
+                    </button>
+                </div>
+            )}
         </div>
     );
 };
@@ -43,9 +43,73 @@ const TestResult = () => {
         }
     }, [resultId, result]);
 
+    // Ответы приняты, но еще проверяются в фоне: опрашиваем результат, пока проверка не закончится
+    useEffect(() => {
+        if (!result?.pending) return;
+
+        let cancelled = false;
+        let timer = null;
+        let delay = 1000;
+        const poll = async () => {
+            try {
+                const response = await TestService.getResultById(result.id);
+                const data = response.data || response;
+                if (cancelled) return;
+                if (data.pending) {
+                    delay = Math.min(delay * 1.5, 5000);
+                    timer = setTimeout(poll, delay);
+                } else {
+                    setResult(data);
+                }
+            } catch (err) {
+                if (!cancelled) {
+                    timer = setTimeout(poll, 5000);
+                }
+            }
+        };
+        timer = setTimeout(poll, delay);
+
+        return () => {
+            cancelled = true;
+            clearTimeout(timer);
+        };
+    }, [result?.id, result?.pending]);
+
     if (loading) return <div>Загрузка результата...</div>;
     if (error) return <div className="error-message">{error}</div>;
     if (!result) return <div>Результат не найден</div>;
+    if (result.gradingFailed) {
+        return (
+            <div>
+                <h2>Результат тестирования</h2>
+                <div style={{
+                    backgroundColor: 'white',
+                    padding: '2rem',
+                    borderRadius: '8px',
+                    boxShadow: '0 0 10px rgba(0,0,0,0.1)'
+                }}>
+                    <h3 style={{ marginBottom: '1rem' }}>{result.testTitle || "Тест"}</h3>
+                    <p>{result.message}</p>
+                </div>
+            </div>
+        );
+    }
+    if (result.pending) {
+        return (
+            <div>
+                <h2>Результат тестирования</h2>
+                <div style={{
+                    backgroundColor: 'white',
+                    padding: '2rem',
+                    borderRadius: '8px',
+                    boxShadow: '0 0 10px rgba(0,0,0,0.1)'
+                }}>
+                    <h3 style={{ marginBottom: '1rem' }}>{result.testTitle || "Тест"}</h3>
+                    <p>Ответы приняты и проверяются. Результат появится на этой странице автоматически.</p>
+                </div>
+            </div>
+        );
+    }
 
     // Calculate time spent if startedAt and completedAt are available
     const calculateTimeSpent = () => {
@@ -1,7 +1,36 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { useParams, useNavigate } from 'react-router-dom';
 import TestService from '../services/TestService';
 
+// Задержка автосохранения: быстрые изменения одного ответа отправляются одним запросом
+const AUTOSAVE_DELAY_MS = 500;
+
+// Ответ в формате API (StudentAnswerRequest)
+const toAnswerRequest = (question, answer) => {
+    if (question.type === 'TEXT_ANSWER') {
+        return {
+            questionId: question.id,
+            textAnswer: answer,
+            selectedAnswerIds: []
+        };
+    }
+    return {
+        questionId: question.id,
+        selectedAnswerIds: Array.isArray(answer) ? answer : answer !== null && answer !== undefined ? [answer] : []
+    };
+};
+
+// Сохраненный на сервере ответ в формате состояния страницы
+const fromAnswerRequest = (question, saved) => {
+    const selected = saved.selectedAnswerIds || [];
+    if (question.type === 'TEXT_ANSWER') {
+        return saved.textAnswer || '';
+    } else if (question.type === 'MULTIPLE_CHOICE') {
+        return selected;
+    }
+    return selected.length > 0 ? selected[0] : null;
+};
+
 const TestTaking = () => {
     const { testId } = useParams();
     const navigate = useNavigate();
@@ -17,6 +46,19 @@ const TestTaking = () => {
     const [submitting, setSubmitting] = useState(false);
     const [timeExpired, setTimeExpired] = useState(false);
 
+    // Автосохранение: актуальные ответы и таймеры по вопросам
+    const answersRef = useRef({});
+    const autosaveTimers = useRef({});
+
+    useEffect(() => {
+        answersRef.current = answers;
+    }, [answers]);
+
+    useEffect(() => {
+        const timers = autosaveTimers.current;
+        return () => Object.values(timers).forEach(clearTimeout);
+    }, []);
+
     // Загрузка теста и начало прохождения
     useEffect(() => {
         const startTestSession = async () => {
@@ -102,6 +144,20 @@ const TestTaking = () => {
                         initialAnswers[question.id] = null;
                     }
                 });
+
+                // Восстанавливаем автосохраненные ответы (например, после перезагрузки страницы)
+                try {
+                    const savedResponse = await TestService.getSavedAnswers(resultData.id);
+                    const savedAnswers = savedResponse.data || savedResponse;
+                    (Array.isArray(savedAnswers) ? savedAnswers : []).forEach(saved => {
+                        const question = cleanQuestions.find(q => q.id === saved.questionId);
+                        if (question) {
+                            initialAnswers[question.id] = fromAnswerRequest(question, saved);
+                        }
+                    });
+                } catch (err) {
+                    console.error('Error loading saved answers:', err);
+                }
                 setAnswers(initialAnswers);
             } catch (err) {
                 console.error('Error in startTestSession:', err);
@@ -134,10 +190,31 @@ const TestTaking = () => {
         return () => clearInterval(timer);
     }, [timeLeft]);
 
+    // Отправка последнего ответа на вопрос; при завершении теста все ответы отправляются заново
+    const autosaveAnswer = async (questionId) => {
+        delete autosaveTimers.current[questionId];
+        const question = questions.find(q => q.id === questionId);
+        if (!question || !testResult) return;
+
+        const answer = answersRef.current[questionId];
+        try {
+            await TestService.saveAnswer(testResult.id, toAnswerRequest(question, answer));
+        } catch (err) {
+            console.error('Error autosaving answer:', err);
+        }
+    };
+
+    const scheduleAutosave = (questionId) => {
+        clearTimeout(autosaveTimers.current[questionId]);
+        autosaveTimers.current[questionId] = setTimeout(() => autosaveAnswer(questionId), AUTOSAVE_DELAY_MS);
+    };
+
     // Обработчик ответа на вопрос
     const handleAnswerChange = (questionId, value, isMultiple = false, isText = false) => {
         if (timeExpired) return; // Не позволяем менять ответы после истечения времени
 
+        scheduleAutosave(questionId);
+
         if (isText) {
             // Для текстовых ответов
             setAnswers(prev => ({
@@ -212,25 +289,12 @@ const TestTaking = () => {
                 }
             }
 
-            // Формируем данные для отправки
+            // Отправляем все ответы: автосохранение подтверждает только прием, а не запись в базу
+            Object.values(autosaveTimers.current).forEach(clearTimeout);
+            autosaveTimers.current = {};
             const submissionData = {
                 testResultId: testResult.id,
-                answers: Object.entries(answers).map(([questionId, answer]) => {
-                    const question = questions.find(q => q.id === parseInt(questionId));
-
-                    if (question.type === 'TEXT_ANSWER') {
-                        return {
-                            questionId: parseInt(questionId),
-                            textAnswer: answer,
-                            selectedAnswerIds: []
-                        };
-                    } else {
-                        return {
-                            questionId: parseInt(questionId),
-                            selectedAnswerIds: Array.isArray(answer) ? answer : answer !== null ? [answer] : []
-                        };
-                    }
-                })
+                answers: questions.map(question => toAnswerRequest(question, answersRef.current[question.id]))
             };
 
             // Отправляем ответы
@@ -1,5 +1,51 @@
 import api from './api';
 
+// Сколько раз повторять запрос, получивший 429 при массовом старте теста
+const MAX_ADMISSION_RETRIES = 5;
+
+// Повторяет запрос через Retry-After со случайной добавкой до секунды,
+// чтобы отказанные ученики класса не вернулись все одновременно
+function withAdmissionRetry(request, retriesLeft = MAX_ADMISSION_RETRIES) {
+    return request().catch(error => {
+        if (error.status !== 429 || retriesLeft <= 0) {
+            throw error;
+        }
+        const delay = error.retryAfter * 1000 + Math.random() * 1000;
+        return new Promise(resolve => setTimeout(resolve, delay))
+            .then(() => withAdmissionRetry(request, retriesLeft - 1));
+    });
+}
+
+// Сколько раз повторять отправку ответов при сбое сети
+const MAX_SUBMIT_RETRIES = 3;
+
+// Ключ отправки попытки: повтор с тем же ключом сервер не проверяет заново, а возвращает
+// результат первой отправки. Хранится в sessionStorage, чтобы пережить перезагрузку страницы
+function submissionKey(testResultId) {
+    const storageKey = `submissionKey:${testResultId}`;
+    let key = sessionStorage.getItem(storageKey);
+    if (!key) {
+        key = window.crypto && window.crypto.randomUUID
+            ? window.crypto.randomUUID()
+            : `${Date.now()}-${Math.random().toString(36).slice(2)}`;
+        sessionStorage.setItem(storageKey, key);
+    }
+    return key;
+}
+
+// Повторяет запрос, не дошедший до сервера или оставшийся без ответа (нет статуса),
+// с растущей паузой и случайной добавкой; на 503 - через Retry-After
+function withNetworkRetry(request, retriesLeft = MAX_SUBMIT_RETRIES, delay = 1000) {
+    return request().catch(error => {
+        if ((error.status !== undefined && error.status !== 503) || retriesLeft <= 0) {
+            throw error;
+        }
+        const wait = error.status === 503 ? error.retryAfter * 1000 : delay;
+        return new Promise(resolve => setTimeout(resolve, wait + Math.random() * 1000))
+            .then(() => withNetworkRetry(request, retriesLeft - 1, delay * 2));
+    });
+}
+
 class TestService {
     // Test management methods
     getAllTests() {
@@ -11,7 +57,7 @@ class TestService {
     }
 
     getTestQuestions(testId, testResultId) {
-        return api.get(`/tests/${testId}/questions?testResultId=${testResultId}`);
+        return withAdmissionRetry(() => api.get(`/tests/${testId}/questions?testResultId=${testResultId}`));
     }
 
     createTest(testData) {
@@ -71,12 +117,15 @@ class TestService {
                     return response;
                 }
                 // Otherwise start a new test
-                return api.post(`/tests/${testId}/start`);
+                return withAdmissionRetry(() => api.post(`/tests/${testId}/start`));
             })
             .catch(error => {
                 console.error("Error in startTest:", error);
+                if (error.status === 429) {
+                    throw error;
+                }
                 // If the endpoint doesn't exist or returns an error, fallback to original method
-                return api.post(`/tests/${testId}/start`);
+                return withAdmissionRetry(() => api.post(`/tests/${testId}/start`));
             })
             .finally(() => {
                 // Clear the pending request once completed
@@ -89,7 +138,17 @@ class TestService {
         return api.get(`/tests/result/${resultId}`);
     }
     submitTest(submissionData) {
-        return api.post(`/tests/submit`, submissionData);
+        const headers = { 'Idempotency-Key': submissionKey(submissionData.testResultId) };
+        return withNetworkRetry(() => api.post(`/tests/submit`, submissionData, { headers }));
+    }
+
+    // Автосохранение ответа на один вопрос незавершенной попытки
+    saveAnswer(resultId, answer) {
+        return api.put(`/tests/results/${resultId}/answers`, answer);
+    }
+
+    getSavedAnswers(resultId) {
+        return api.get(`/tests/results/${resultId}/answers`);
     }
     reactivateTest(id, clearAttempts = false) {
         return api.post(`/tests/${id}/reactivate?clearAttempts=${clearAttempts}`);
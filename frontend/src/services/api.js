@@ -40,9 +40,16 @@ api.interceptors.response.use(
                 localStorage.removeItem('user');
                 window.location.href = '/login'; // Перенаправление на страницу логина
             }
-            return Promise.reject(
-                new Error(error.response.data.message || 'Ошибка сервера')
+            const serverError = new Error(
+                (error.response.data && error.response.data.message) || 'Ошибка сервера'
             );
+            serverError.status = error.response.status;
+            if (error.response.status === 429 || error.response.status === 503) {
+                // Подсказка сервера, через сколько секунд повторить запрос
+                serverError.retryAfter = Number(error.response.headers['retry-after'])
+                    || (error.response.data && error.response.data.retryAfter) || 1;
+            }
+            return Promise.reject(serverError);
         }
         return Promise.reject(new Error('Ошибка сети или сервера недоступен'));
     }
@@ -2,6 +2,7 @@ package org.ineydlis.schooltest.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ineydlis.schooltest.interceptor.AuthInterceptor;
+import org.ineydlis.schooltest.interceptor.CurrentUserArgumentResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -9,6 +10,7 @@ import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -21,10 +23,12 @@ public class WebConfig implements WebMvcConfigurer {
 
 
     private AuthInterceptor authInterceptor;
+    private CurrentUserArgumentResolver currentUserArgumentResolver;
 
     @Autowired
-    public WebConfig(AuthInterceptor authInterceptor) {
+    public WebConfig(AuthInterceptor authInterceptor, CurrentUserArgumentResolver currentUserArgumentResolver) {
         this.authInterceptor = authInterceptor;
+        this.currentUserArgumentResolver = currentUserArgumentResolver;
     }
 
     @Override
@@ -32,6 +36,11 @@ public class WebConfig implements WebMvcConfigurer {
         registry.addInterceptor(authInterceptor);
     }
 
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(currentUserArgumentResolver);
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
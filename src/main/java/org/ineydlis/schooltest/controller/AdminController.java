@@ -1,6 +1,11 @@
 package org.ineydlis.schooltest.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import org.ineydlis.schooltest.dto.AdminUserDto;
 import org.ineydlis.schooltest.dto.UserDto;
+import org.ineydlis.schooltest.dto.UserFilter;
+import org.ineydlis.schooltest.dto.UserImportReport;
+import org.ineydlis.schooltest.dto.UserPageDto;
 import org.ineydlis.schooltest.model.Grade;
 import org.ineydlis.schooltest.model.Subject;
 import org.ineydlis.schooltest.model.User;
@@ -8,13 +13,26 @@ import org.ineydlis.schooltest.model.UserRole;
 import org.ineydlis.schooltest.repository.GradeRepository;
 import org.ineydlis.schooltest.repository.SubjectRepository;
 import org.ineydlis.schooltest.repository.UserRepository;
+import org.ineydlis.schooltest.service.AdminUserQueryService;
+import org.ineydlis.schooltest.service.AnswerAutosaveService;
+import org.ineydlis.schooltest.service.AttemptExpiryService;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.ExamAdmissionService;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.SubmissionGradingService;
+import org.ineydlis.schooltest.service.UserImportService;
+import org.ineydlis.schooltest.util.BadRequestException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -35,14 +53,66 @@ public class AdminController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private UserImportService userImportService;
+
+    @Autowired
+    private AdminUserQueryService adminUserQueryService;
+
+    @Autowired
+    private ExamSnapshotCache examSnapshotCache;
+
+    @Autowired
+    private GraderRegistry graderRegistry;
+
+    @Autowired
+    private SubmissionGradingService submissionGradingService;
+
+    @Autowired
+    private AttemptExpiryService attemptExpiryService;
+
+    @Autowired
+    private AnswerAutosaveService answerAutosaveService;
+
+    @Autowired
+    private ExamAdmissionService examAdmissionService;
+
+    // Постраничный список: следующая страница запрашивается с afterId = nextAfterId предыдущей
     @GetMapping("/users")
-    public ResponseEntity<List<User>> getAllUsers() {
-        return ResponseEntity.ok(userRepository.findAll());
+    public ResponseEntity<UserPageDto> getUsers(@RequestParam(required = false) UserRole role,
+                                                @RequestParam(required = false) Long gradeId,
+                                                @RequestParam(required = false) String namePrefix,
+                                                @RequestParam(required = false) Boolean active,
+                                                @RequestParam(required = false) Long afterId,
+                                                @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(adminUserQueryService.findPage(
+                buildFilter(role, gradeId, namePrefix, active), afterId, limit));
+    }
+
+    // Полная выгрузка с теми же фильтрами, по одному JSON-объекту в строке
+    @GetMapping(value = "/users/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(required = false) UserRole role,
+                                                             @RequestParam(required = false) Long gradeId,
+                                                             @RequestParam(required = false) String namePrefix,
+                                                             @RequestParam(required = false) Boolean active) {
+        UserFilter filter = buildFilter(role, gradeId, namePrefix, active);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"users.ndjson\"")
+                .body(out -> adminUserQueryService.export(filter, out));
+    }
+
+    private UserFilter buildFilter(UserRole role, Long gradeId, String namePrefix, Boolean active) {
+        UserFilter filter = new UserFilter();
+        filter.setRole(role);
+        filter.setGradeId(gradeId);
+        filter.setNamePrefix(namePrefix);
+        filter.setActive(active);
+        return filter;
     }
 
     // Modify AdminController.java - createUser method
     @PostMapping("/users")
-    public ResponseEntity<User> createUser(@RequestBody UserDto userDto) {
+    public ResponseEntity<AdminUserDto> createUser(@RequestBody UserDto userDto) {
         User user = new User();
         user.setUsername(userDto.getUsername());
         user.setPassword(authService.encodePassword(userDto.getPassword()));
@@ -82,7 +152,22 @@ public class AdminController {
             }
         }
 
-        return ResponseEntity.ok(userRepository.save(user));
+        return ResponseEntity.ok(AdminUserDto.fromEntity(userRepository.save(user)));
+    }
+
+    // Массовый импорт: тело в формате CSV (text/csv) или NDJSON (application/x-ndjson)
+    @PostMapping(value = "/users/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<UserImportReport> importUsers(HttpServletRequest request) throws IOException {
+        String contentType = request.getContentType() != null ? request.getContentType() : "";
+        UserImportService.Format format;
+        if (contentType.startsWith("text/csv")) {
+            format = UserImportService.Format.CSV;
+        } else if (contentType.startsWith("application/x-ndjson")) {
+            format = UserImportService.Format.NDJSON;
+        } else {
+            throw new BadRequestException("Неизвестный формат импорта: " + contentType);
+        }
+        return ResponseEntity.ok(userImportService.importUsers(request.getInputStream(), format));
     }
 
     @PutMapping("/users/{id}")
@@ -93,6 +178,10 @@ public class AdminController {
         }
 
         User user = userOpt.get();
+        UserRole previousRole = user.getRole();
+        Long previousGradeId = user.getGrade() != null ? user.getGrade().getId() : null;
+        boolean wasActive = user.isActive();
+
         user.setFullName(userDto.getFullName());
         user.setEmail(userDto.getEmail());
         user.setRole(userDto.getRole());
@@ -139,7 +228,18 @@ public class AdminController {
             }
         }
 
-        return ResponseEntity.ok(userRepository.save(user));
+        User savedUser = userRepository.save(user);
+
+        // Роль и класс зашиты в токен, поэтому при их смене сессии отзываются
+        Long gradeId = savedUser.getGrade() != null ? savedUser.getGrade().getId() : null;
+        boolean passwordChanged = userDto.getPassword() != null && !userDto.getPassword().isEmpty();
+        if (previousRole != savedUser.getRole() || !Objects.equals(previousGradeId, gradeId)
+                || (wasActive && !savedUser.isActive()) || passwordChanged) {
+            authService.revokeUserSessions(savedUser.getId());
+        } else {
+            authService.evictUser(savedUser.getId());
+        }
+        return ResponseEntity.ok(AdminUserDto.fromEntity(savedUser));
     }
 
     @DeleteMapping("/users/{id}")
@@ -148,6 +248,52 @@ public class AdminController {
             return ResponseEntity.notFound().build();
         }
         userRepository.deleteById(id);
+        authService.revokeUserSessions(id);
         return ResponseEntity.ok().build();
     }
-}
\ No newline at end of file
+
+    @GetMapping("/auth-cache")
+    public ResponseEntity<Map<String, Object>> getAuthCacheStats() {
+        return ResponseEntity.ok(authService.getPrincipalCacheStats());
+    }
+
+    @GetMapping("/login-pool")
+    public ResponseEntity<Map<String, Object>> getLoginPoolStats() {
+        return ResponseEntity.ok(authService.getPasswordHashingStats());
+    }
+
+    @GetMapping("/last-login-buffer")
+    public ResponseEntity<Map<String, Object>> getLastLoginBufferStats() {
+        return ResponseEntity.ok(authService.getLastLoginStats());
+    }
+
+    @GetMapping("/exam-cache")
+    public ResponseEntity<Map<String, Object>> getExamCacheStats() {
+        return ResponseEntity.ok(examSnapshotCache.getStats());
+    }
+
+    @GetMapping("/grading")
+    public ResponseEntity<Map<String, Object>> getGradingStats() {
+        return ResponseEntity.ok(graderRegistry.getStats());
+    }
+
+    @GetMapping("/grading-queue")
+    public ResponseEntity<Map<String, Object>> getGradingQueueStats() {
+        return ResponseEntity.ok(submissionGradingService.getStats());
+    }
+
+    @GetMapping("/attempt-expiry")
+    public ResponseEntity<Map<String, Object>> getAttemptExpiryStats() {
+        return ResponseEntity.ok(attemptExpiryService.getStats());
+    }
+
+    @GetMapping("/autosave")
+    public ResponseEntity<Map<String, Object>> getAutosaveStats() {
+        return ResponseEntity.ok(answerAutosaveService.getStats());
+    }
+
+    @GetMapping("/admission")
+    public ResponseEntity<Map<String, Object>> getAdmissionStats() {
+        return ResponseEntity.ok(examAdmissionService.getStats());
+    }
+}
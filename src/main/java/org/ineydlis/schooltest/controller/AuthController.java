@@ -3,7 +3,9 @@ package org.ineydlis.schooltest.controller;
 import org.ineydlis.schooltest.dto.LoginRequest;
 import org.ineydlis.schooltest.dto.LoginResponse;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -27,6 +29,20 @@ public class AuthController {
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(body);
     }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<Map<String, Object>> handleTooManyRequests(TooManyRequestsException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 429);
+        body.put("retryAfter", ex.getRetryAfterSeconds());
+        return ResponseEntity
+                .status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
     @PostMapping("/login")
     public ResponseEntity<LoginResponse> login(@RequestBody LoginRequest request) {
         LoginResponse response = authService.login(request);
@@ -1,24 +1,18 @@
 package org.ineydlis.schooltest.controller;
 
-import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.interceptor.CurrentUser;
 import org.ineydlis.schooltest.model.UserRole;
-import org.ineydlis.schooltest.service.AuthService;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Optional;
 
 @Controller
 public class MainController {
 
-    @Autowired
-    private AuthService authService;
-
     @GetMapping("/")
     public String index() {
         return "redirect:/app";
@@ -30,29 +24,18 @@ public class MainController {
     }
 
     @GetMapping("/api/user/dashboard")
-    public ResponseEntity<Map<String, Object>> getDashboard(
-            @RequestHeader("Authorization") String token) {
-
-        Optional<User> userOpt = authService.findByToken(token.replace("Bearer ", ""));
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(403).body(Map.of(
-                    "status", 403,
-                    "message", "Требуется авторизация"
-            ));
-        }
-
-        User user = userOpt.get();
+    public ResponseEntity<Map<String, Object>> getDashboard(@CurrentUser AuthPrincipal user) {
         Map<String, Object> response = new HashMap<>();
-        response.put("username", user.getUsername());
-        response.put("fullName", user.getFullName());
-        response.put("role", user.getRole().name());
+        response.put("username", user.username());
+        response.put("fullName", user.fullName());
+        response.put("role", user.role().name());
 
         // Add role-specific dashboard data
-        if (user.getRole() == UserRole.STUDENT) {
+        if (user.role() == UserRole.STUDENT) {
             response.put("dashboardType", "student");
-        } else if (user.getRole() == UserRole.TEACHER) {
+        } else if (user.role() == UserRole.TEACHER) {
             response.put("dashboardType", "teacher");
-        } else if (user.getRole() == UserRole.ADMIN) {
+        } else if (user.role() == UserRole.ADMIN) {
             response.put("dashboardType", "admin");
         }
 
@@ -3,6 +3,8 @@ package org.ineydlis.schooltest.controller;
 import lombok.RequiredArgsConstructor;
 import org.ineydlis.schooltest.dto.StatisticViewDto;
 import org.ineydlis.schooltest.dto.TestResultDetailsDto;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.interceptor.CurrentUser;
 import org.ineydlis.schooltest.service.StatisticsService;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -37,9 +39,9 @@ public class StatisticsController {
      */
     @GetMapping("/test-result/{testResultId}")
     public ResponseEntity<TestResultDetailsDto> getTestResultDetails(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long testResultId) {
-        return ResponseEntity.ok(statisticsService.getTestResultDetails(token, testResultId));
+        return ResponseEntity.ok(statisticsService.getTestResultDetails(currentUser, testResultId));
     }
 
     /**
@@ -47,9 +49,9 @@ public class StatisticsController {
      */
     @GetMapping("/test/{testId}")
     public ResponseEntity<StatisticViewDto> getTestStatistics(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long testId) {
-        return ResponseEntity.ok(statisticsService.getTestStatistics(token, testId));
+        return ResponseEntity.ok(statisticsService.getTestStatistics(currentUser, testId));
     }
 
     /**
@@ -57,9 +59,9 @@ public class StatisticsController {
      */
     @GetMapping("/grade/{gradeId}")
     public ResponseEntity<StatisticViewDto> getGradeStatistics(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long gradeId) {
-        return ResponseEntity.ok(statisticsService.getGradeStatistics(token, gradeId));
+        return ResponseEntity.ok(statisticsService.getGradeStatistics(currentUser, gradeId));
     }
 
     /**
@@ -67,9 +69,9 @@ public class StatisticsController {
      */
     @GetMapping("/subject/{subjectId}")
     public ResponseEntity<StatisticViewDto> getSubjectStatistics(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long subjectId) {
-        return ResponseEntity.ok(statisticsService.getSubjectStatistics(token, subjectId));
+        return ResponseEntity.ok(statisticsService.getSubjectStatistics(currentUser, subjectId));
     }
 
     /**
@@ -77,10 +79,10 @@ public class StatisticsController {
      */
     @GetMapping("/student/{studentId}/subject/{subjectId}")
     public ResponseEntity<StatisticViewDto> getStudentSubjectStatistics(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long studentId,
             @PathVariable Long subjectId) {
-        return ResponseEntity.ok(statisticsService.getStudentSubjectStatistics(token, studentId, subjectId));
+        return ResponseEntity.ok(statisticsService.getStudentSubjectStatistics(currentUser, studentId, subjectId));
     }
 
     /**
@@ -88,9 +90,9 @@ public class StatisticsController {
      */
     @GetMapping("/student/{studentId}/performance")
     public ResponseEntity<Map<String, StatisticViewDto>> getStudentOverallPerformance(
-            @RequestHeader("Authorization") String token,
+            @CurrentUser AuthPrincipal currentUser,
             @PathVariable Long studentId) {
-        return ResponseEntity.ok(statisticsService.getStudentOverallPerformance(token, studentId));
+        return ResponseEntity.ok(statisticsService.getStudentOverallPerformance(currentUser, studentId));
     }
 
     /**
@@ -98,7 +100,7 @@ public class StatisticsController {
      */
     @GetMapping("/school/top-students")
     public ResponseEntity<StatisticViewDto> getTopStudentsInSchool(
-            @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(statisticsService.getTopStudentsInSchool(token));
+            @CurrentUser AuthPrincipal currentUser) {
+        return ResponseEntity.ok(statisticsService.getTopStudentsInSchool(currentUser));
     }
 }
\ No newline at end of file
@@ -1,44 +1,35 @@
 package org.ineydlis.schooltest.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
 import org.ineydlis.schooltest.dto.TeacherSubjectsAndGradesDTO;
-import org.ineydlis.schooltest.model.User;
-import org.ineydlis.schooltest.repository.UserRepository;
-import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.interceptor.CurrentUser;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.ArrayList;
-
 @RestController
 @RequestMapping("/api/teacher")
 @RequiredArgsConstructor
 public class TeacherApiController {
 
-    private final AuthService authService;
-    private final UserRepository userRepository;
+    private final SubjectRepository subjectRepository;
+    private final GradeRepository gradeRepository;
 
     @GetMapping("/subjects-and-grades")
     public ResponseEntity<TeacherSubjectsAndGradesDTO> getTeacherSubjectsAndGrades(
-            @RequestHeader("Authorization") String token) {
-        // Get the current authenticated user
-        User currentUser = authService.getCurrentUser(token);
-
-        // Fetch the latest user data from the database
-        User teacher = userRepository.findById(currentUser.getId())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-
+            @CurrentUser AuthPrincipal currentUser) {
         TeacherSubjectsAndGradesDTO result = new TeacherSubjectsAndGradesDTO();
 
         // Get the subjects the teacher has access to
-        result.setSubjects(new ArrayList<>(teacher.getSubjects()));
+        result.setSubjects(subjectRepository.findAllById(currentUser.subjectIdList()));
 
         // Get the grades the teacher has access to
-        result.setGrades(new ArrayList<>(teacher.getTeachingGrades()));
+        result.setGrades(gradeRepository.findAllById(currentUser.teachingGradeIdList()));
 
         return ResponseEntity.ok(result);
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,25 @@
 package org.ineydlis.schooltest.controller;
 
 import org.ineydlis.schooltest.dto.*;
-import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.interceptor.CurrentUser;
 import org.ineydlis.schooltest.model.UserRole;
-import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.AnswerAutosaveService;
+import org.ineydlis.schooltest.service.ExamAdmissionService;
+import org.ineydlis.schooltest.service.SubmissionGradingService;
 import org.ineydlis.schooltest.service.TestService;
+import org.ineydlis.schooltest.util.ServiceUnavailableException;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/tests")
@@ -24,7 +29,39 @@ public class TestController {
     private TestService testService;
 
     @Autowired
-    private AuthService authService;
+    private SubmissionGradingService submissionGradingService;
+
+    @Autowired
+    private AnswerAutosaveService answerAutosaveService;
+
+    @Autowired
+    private ExamAdmissionService examAdmissionService;
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<Map<String, Object>> handleTooManyRequests(TooManyRequestsException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 429);
+        body.put("retryAfter", ex.getRetryAfterSeconds());
+        return ResponseEntity
+                .status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> handleServiceUnavailable(ServiceUnavailableException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 503);
+        body.put("retryAfter", ex.getRetryAfterSeconds());
+        return ResponseEntity
+                .status(503)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
 
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, Object>> handleException(RuntimeException ex) {
@@ -42,29 +79,26 @@ public class TestController {
     @PostMapping
     public ResponseEntity<TestDto> createTest(
             @RequestBody TestCreateRequest request,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.TEACHER && currentUser.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на создание тестов");
         }
 
-        TestDto createdTest = testService.createTest(request, currentUser.getId());
+        TestDto createdTest = testService.createTest(request, currentUser);
         return ResponseEntity.status(HttpStatus.CREATED).body(createdTest);
     }
 
     // Get all tests (for admins)
     @GetMapping
-    public ResponseEntity<List<TestDto>> getAllTests(@RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
+    public ResponseEntity<List<TestDto>> getAllTests(@CurrentUser AuthPrincipal currentUser) {
         List<TestDto> tests;
 
-        if (currentUser.getRole() == UserRole.ADMIN) {
+        if (currentUser.role() == UserRole.ADMIN) {
             tests = testService.getAllTests();
-        } else if (currentUser.getRole() == UserRole.TEACHER) {
-            tests = testService.getTestsByTeacher(currentUser.getId());
-        } else if (currentUser.getRole() == UserRole.STUDENT) {
-            tests = testService.getTestsForStudent(currentUser.getId());
+        } else if (currentUser.role() == UserRole.TEACHER) {
+            tests = testService.getTestsByTeacher(currentUser.id());
+        } else if (currentUser.role() == UserRole.STUDENT) {
+            tests = testService.getTestsForStudent(currentUser);
         } else {
             throw new RuntimeException("Неизвестная роль пользователя");
         }
@@ -74,38 +108,32 @@ public class TestController {
     @GetMapping("/result/{resultId}")
     public ResponseEntity<TestResultDetailsDto> getTestResultDetails(
             @PathVariable Long resultId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() == UserRole.STUDENT) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() == UserRole.STUDENT) {
             throw new RuntimeException("У вас нет прав на просмотр деталей результата теста");
         }
 
         // Получаем детали результата теста, включая ответы студента
-        TestResultDetailsDto resultDetails = testService.getTestResultDetails(resultId, currentUser.getId());
+        TestResultDetailsDto resultDetails = testService.getTestResultDetails(resultId, currentUser);
         return ResponseEntity.ok(resultDetails);
     }
     @DeleteMapping("/{testId}/permanent")
     public ResponseEntity<?> permanentlyDeleteTest(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        testService.permanentlyDeleteTest(testId, currentUser.getId());
+            @CurrentUser AuthPrincipal currentUser) {
+        testService.permanentlyDeleteTest(testId, currentUser);
         return ResponseEntity.ok().build();
     }
     @PostMapping("/{testId}/reactivate")
     public ResponseEntity<TestDto> reactivateTest(
             @PathVariable Long testId,
             @RequestParam(required = false, defaultValue = "false") boolean clearAttempts,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.TEACHER && currentUser.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на активацию тестов");
         }
 
-        TestDto reactivatedTest = testService.reactivateTest(testId, currentUser.getId(), clearAttempts);
+        TestDto reactivatedTest = testService.reactivateTest(testId, currentUser, clearAttempts);
         return ResponseEntity.ok(reactivatedTest);
     }
     // Get test by ID with questions
@@ -113,10 +141,8 @@ public class TestController {
     public ResponseEntity<TestDto> getTestById(
             @PathVariable Long testId,
             @RequestParam(required = false, defaultValue = "false") boolean includeAnswers,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        TestDto test = testService.getTestWithQuestions(testId, currentUser.getId(), includeAnswers);
+            @CurrentUser AuthPrincipal currentUser) {
+        TestDto test = testService.getTestWithQuestions(testId, currentUser, includeAnswers);
         return ResponseEntity.ok(test);
     }
 
@@ -125,14 +151,12 @@ public class TestController {
     public ResponseEntity<TestDto> updateTest(
             @PathVariable Long testId,
             @RequestBody TestCreateRequest request,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.TEACHER && currentUser.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на редактирование тестов");
         }
 
-        TestDto updatedTest = testService.updateTest(testId, request, currentUser.getId());
+        TestDto updatedTest = testService.updateTest(testId, request, currentUser);
         return ResponseEntity.ok(updatedTest);
     }
 
@@ -140,14 +164,12 @@ public class TestController {
     @DeleteMapping("/{testId}")
     public ResponseEntity<Void> deleteTest(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.TEACHER && currentUser.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на удаление тестов");
         }
 
-        testService.deleteTest(testId, currentUser.getId());
+        testService.deleteTest(testId, currentUser);
         return ResponseEntity.noContent().build();
     }
 
@@ -156,28 +178,25 @@ public class TestController {
     public ResponseEntity<List<QuestionDto>> getTestQuestions(
             @PathVariable Long testId,
             @RequestParam Long testResultId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.STUDENT) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут получать вопросы для прохождения теста");
         }
 
+        examAdmissionService.admit(testId);
         List<QuestionDto> questions = testService.getTestQuestions(
-                testId, testResultId, currentUser.getId());
+                testId, testResultId, currentUser.id());
         return ResponseEntity.ok(questions);
     }
     @GetMapping("/{testId}/in-progress")
     public ResponseEntity<TestResultDto> getInProgressTest(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.STUDENT) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут получить информацию о незавершенном тесте");
         }
 
-        TestResultDto testResult = testService.getInProgressTest(testId, currentUser.getId());
+        TestResultDto testResult = testService.getInProgressTest(testId, currentUser);
         return ResponseEntity.ok(testResult);
     }
 
@@ -185,14 +204,13 @@ public class TestController {
     @PostMapping("/{testId}/start")
     public ResponseEntity<TestResultDto> startTest(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.STUDENT) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут начинать тесты");
         }
 
-        TestResultDto testResult = testService.startTest(testId, currentUser.getId());
+        examAdmissionService.admit(testId);
+        TestResultDto testResult = testService.startTest(testId, currentUser);
         return ResponseEntity.ok(testResult);
     }
 
@@ -200,52 +218,80 @@ public class TestController {
     @PostMapping("/submit")
     public ResponseEntity<TestResultDto> submitTest(
             @RequestBody TestSubmissionRequest request,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.STUDENT) {
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут отправлять ответы на тест");
         }
 
-        TestResultDto result = testService.submitTest(request, currentUser.getId());
-        return ResponseEntity.ok(result);
+        // Повтор с тем же ключом получает результат первой отправки
+        if (idempotencyKey != null) {
+            request.setIdempotencyKey(idempotencyKey);
+        }
+        // 202, если ответы приняты и проверяются в фоне: итог - через /results/{id} или /results/{id}/events
+        TestResultDto result = submissionGradingService.submit(request, currentUser.id());
+        return ResponseEntity.status(result.isPending() ? HttpStatus.ACCEPTED : HttpStatus.OK).body(result);
     }
 
     // Get test results for a student
     @GetMapping("/results")
     public ResponseEntity<List<TestResultDto>> getStudentResults(
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.STUDENT) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
             throw new RuntimeException("Это API предназначено только для учеников");
         }
 
-        List<TestResultDto> results = testService.getStudentResults(currentUser.getId());
+        List<TestResultDto> results = testService.getStudentResults(currentUser);
         return ResponseEntity.ok(results);
     }
     // Get specific test result by ID
     @GetMapping("/results/{resultId}")
     public ResponseEntity<TestResultDto> getTestResultById(
             @PathVariable Long resultId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        TestResultDto result = testService.getTestResultById(resultId, currentUser.getId());
+            @CurrentUser AuthPrincipal currentUser) {
+        TestResultDto result = testService.getTestResultById(resultId, currentUser);
         return ResponseEntity.ok(result);
     }
+
+    // Server-sent events: одно событие "result" с проверенной попыткой
+    @GetMapping(value = "/results/{resultId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeToTestResult(
+            @PathVariable Long resultId,
+            @CurrentUser AuthPrincipal currentUser) {
+        return submissionGradingService.subscribe(resultId, currentUser);
+    }
+
+    // Автосохранение ответа на один вопрос незавершенной попытки; запись в базу отложенная
+    @PutMapping("/results/{resultId}/answers")
+    public ResponseEntity<Void> saveAnswer(
+            @PathVariable Long resultId,
+            @RequestBody StudentAnswerRequest answer,
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.STUDENT) {
+            throw new RuntimeException("Только ученики могут отправлять ответы на тест");
+        }
+        answerAutosaveService.save(resultId, answer, currentUser.id());
+        return ResponseEntity.accepted().build();
+    }
+
+    // Автосохраненные ответы - для восстановления страницы теста после перезагрузки
+    @GetMapping("/results/{resultId}/answers")
+    public ResponseEntity<List<StudentAnswerRequest>> getSavedAnswers(
+            @PathVariable Long resultId,
+            @CurrentUser AuthPrincipal currentUser) {
+        return ResponseEntity.ok(answerAutosaveService.getSavedAnswers(resultId, currentUser.id()));
+    }
+
     // Get test results for a specific test (for teachers and admins)
     @GetMapping("/{testId}/results")
     public ResponseEntity<List<TestResultDto>> getTestResults(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
-        User currentUser = authService.getCurrentUser(token);
-
-        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            @CurrentUser AuthPrincipal currentUser) {
+        if (currentUser.role() != UserRole.TEACHER && currentUser.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на просмотр результатов теста");
         }
 
-        List<TestResultDto> results = testService.getTestResults(testId, currentUser.getId());
+        List<TestResultDto> results = testService.getTestResults(testId, currentUser);
         return ResponseEntity.ok(results);
     }
 }
@@ -0,0 +1,61 @@
+package org.ineydlis.schooltest.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Строка списка пользователей в панели администратора (без пароля и вложенных сущностей)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AdminUserDto {
+    private Long id;
+    private String username;
+    private String fullName;
+    private String email;
+    private UserRole role;
+    private String gradeName;
+    @Builder.Default
+    private List<String> subjectNames = new ArrayList<>();
+    @Builder.Default
+    private List<String> teachingGradeNames = new ArrayList<>();
+    private boolean active;
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime lastLogin;
+
+    // Только что сохраненный пользователь: класс и предметы уже загружены при сохранении.
+    // Порядок имен тот же, что в постраничном списке
+    public static AdminUserDto fromEntity(User user) {
+        return AdminUserDto.builder()
+                .id(user.getId())
+                .username(user.getUsername())
+                .fullName(user.getFullName())
+                .email(user.getEmail())
+                .role(user.getRole())
+                .gradeName(user.getGrade() != null ? user.getGrade().getFullName() : null)
+                .subjectNames(user.getSubjects().stream()
+                        .map(Subject::getName)
+                        .sorted()
+                        .collect(Collectors.toCollection(ArrayList::new)))
+                .teachingGradeNames(user.getTeachingGrades().stream()
+                        .sorted(Comparator.comparing(Grade::getNumber).thenComparing(Grade::getLetter))
+                        .map(Grade::getFullName)
+                        .collect(Collectors.toCollection(ArrayList::new)))
+                .active(user.isActive())
+                .lastLogin(user.getLastLogin())
+                .build();
+    }
+}
@@ -0,0 +1,128 @@
+package org.ineydlis.schooltest.dto;
+
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Компактное неизменяемое представление авторизованного пользователя.
+ * Хранится в кэше и в запросе вместо сущности User (без пароля и связей).
+ * Идентификаторы предметов и классов учителя - отсортированные массивы long.
+ */
+public record AuthPrincipal(Long id,
+                            String username,
+                            String fullName,
+                            UserRole role,
+                            Long gradeId,
+                            boolean active,
+                            long[] subjectIds,
+                            long[] teachingGradeIds) {
+
+    public AuthPrincipal {
+        subjectIds = sortedCopy(subjectIds);
+        teachingGradeIds = sortedCopy(teachingGradeIds);
+    }
+
+    public boolean hasSubject(Long subjectId) {
+        return subjectId != null && Arrays.binarySearch(subjectIds, subjectId) >= 0;
+    }
+
+    public boolean teachesGrade(Long gradeId) {
+        return gradeId != null && Arrays.binarySearch(teachingGradeIds, gradeId) >= 0;
+    }
+
+    @Override
+    public long[] subjectIds() {
+        return subjectIds.clone();
+    }
+
+    @Override
+    public long[] teachingGradeIds() {
+        return teachingGradeIds.clone();
+    }
+
+    public List<Long> subjectIdList() {
+        return Arrays.stream(subjectIds).boxed().toList();
+    }
+
+    public List<Long> teachingGradeIdList() {
+        return Arrays.stream(teachingGradeIds).boxed().toList();
+    }
+
+    /**
+     * Собирает принципала из строки проекции UserRepository.findPrincipalRow
+     * [id, username, fullName, role, gradeId, active] и id предметов и классов учителя.
+     */
+    public static AuthPrincipal fromRow(Object[] row, List<Long> subjectIds, List<Long> teachingGradeIds) {
+        return new AuthPrincipal(
+                (Long) row[0],
+                (String) row[1],
+                (String) row[2],
+                (UserRole) row[3],
+                (Long) row[4],
+                (Boolean) row[5],
+                subjectIds.stream().mapToLong(Long::longValue).distinct().toArray(),
+                teachingGradeIds.stream().mapToLong(Long::longValue).distinct().toArray());
+    }
+
+    public static AuthPrincipal of(User user) {
+        return new AuthPrincipal(
+                user.getId(),
+                user.getUsername(),
+                user.getFullName(),
+                user.getRole(),
+                user.getGrade() != null ? user.getGrade().getId() : null,
+                user.isActive(),
+                user.getSubjects() != null
+                        ? user.getSubjects().stream().mapToLong(Subject::getId).toArray() : new long[0],
+                user.getTeachingGrades() != null
+                        ? user.getTeachingGrades().stream().mapToLong(Grade::getId).toArray() : new long[0]);
+    }
+
+    // Сгенерированные equals/hashCode сравнивали бы массивы по ссылке
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AuthPrincipal other)) {
+            return false;
+        }
+        return active == other.active
+                && Objects.equals(id, other.id)
+                && Objects.equals(username, other.username)
+                && Objects.equals(fullName, other.fullName)
+                && role == other.role
+                && Objects.equals(gradeId, other.gradeId)
+                && Arrays.equals(subjectIds, other.subjectIds)
+                && Arrays.equals(teachingGradeIds, other.teachingGradeIds);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(id, username, fullName, role, gradeId, active);
+        result = 31 * result + Arrays.hashCode(subjectIds);
+        return 31 * result + Arrays.hashCode(teachingGradeIds);
+    }
+
+    @Override
+    public String toString() {
+        return "AuthPrincipal[id=" + id + ", username=" + username + ", role=" + role + ", gradeId=" + gradeId
+                + ", active=" + active + ", subjectIds=" + Arrays.toString(subjectIds)
+                + ", teachingGradeIds=" + Arrays.toString(teachingGradeIds) + "]";
+    }
+
+    private static long[] sortedCopy(long[] ids) {
+        if (ids == null) {
+            return new long[0];
+        }
+        long[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+}
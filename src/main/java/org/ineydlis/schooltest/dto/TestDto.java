@@ -54,13 +54,9 @@ public class TestDto {
                 .availableGrades(test.getAvailableGrades().stream()
                         .map(grade -> grade.getFullName())
                         .collect(Collectors.toSet()))
-                .questionCount(test.getQuestions().size())
-                .totalPoints(test.getQuestions().stream()
-                        .mapToInt(q -> q.getPoints())
-                        .sum())
-                .maxScore(test.getQuestions().stream() // Same as totalPoints
-                        .mapToInt(q -> q.getPoints())
-                        .sum())
+                .questionCount(test.getQuestionCount() != null ? test.getQuestionCount() : 0)
+                .totalPoints(test.getTotalPoints() != null ? test.getTotalPoints() : 0)
+                .maxScore(test.getTotalPoints() != null ? test.getTotalPoints() : 0) // Same as totalPoints
                 .maxAttempts(test.getMaxAttempts())
                 .bestScore(null) // Значение по умолчанию или из другого источника
                 .remainingAttempts(null) // Значение по умолчанию или из другого источника
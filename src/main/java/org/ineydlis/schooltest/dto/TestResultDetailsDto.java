@@ -46,8 +46,9 @@ public class TestResultDetailsDto {
         dto.setStartedAt(testResult.getStartedAt());
         dto.setCompletedAt(testResult.getCompletedAt());
         dto.setCompleted(testResult.isCompleted());
-        dto.setScore(testResult.getScore());
-        dto.setMaxScore(testResult.getMaxScore());
+        // Балла нет у открытой попытки и у попытки, которую не удалось проверить
+        dto.setScore(testResult.getScore() != null ? testResult.getScore() : 0);
+        dto.setMaxScore(testResult.getMaxScore() != null ? testResult.getMaxScore() : 0);
         dto.setAttemptNumber(testResult.getAttemptNumber());
 
         // Преобразуем студенческие ответы
@@ -63,20 +64,11 @@ public class TestResultDetailsDto {
         dto.setCorrectAnswersCount(correctCount);
         dto.setTotalQuestionsCount(testResult.getStudentAnswers().size());
 
-        if (dto.getTotalQuestionsCount() > 0) {
+        if (dto.getTotalQuestionsCount() > 0 && dto.getMaxScore() > 0) {
             dto.setPercentageCorrect(Math.round(((double) dto.getScore() / dto.getMaxScore()) * 100 * 100.0) / 100.0);
         }
 
-        List<Long> selectedQuestionIds = testResult.getSelectedQuestionIds();
-        boolean hasSelectedQuestions = selectedQuestionIds != null && !selectedQuestionIds.isEmpty();
-
-
-        List<StudentAnswerDto> studentAnswers = testResult.getStudentAnswers().stream()
-                .filter(answer -> !hasSelectedQuestions || selectedQuestionIds.contains(answer.getQuestion().getId()))
-                .map(StudentAnswerDto::fromEntity)
-                .collect(Collectors.toList());
-
-        dto.setStudentAnswers(studentAnswers);
+        // Ответы сохраняются только на выданные вопросы, отдельная фильтрация по выборке не нужна
         return dto;
     }
 }
\ No newline at end of file
@@ -23,6 +23,8 @@ public class TestResultDto {
     private LocalDateTime completedAt;
     private Integer attemptNumber;
     private boolean completed;
+    private boolean pending;   // Ответы приняты и ждут проверки
+    private boolean gradingFailed; // Ответы приняты, но проверить их не удалось
     private Integer score;
     private Integer maxScore;  // Maximum possible score for this attempt
     private double percentage; // Added for convenience
@@ -40,15 +42,21 @@ public class TestResultDto {
                 .completedAt(result.getCompletedAt())
                 .attemptNumber(result.getAttemptNumber())
                 .completed(result.isCompleted())
+                .pending(result.getPendingSubmission() != null)
+                .gradingFailed(result.getGradingError() != null)
                 .score(result.getScore())
                 .maxScore(result.getMaxScore());
 
         // Calculate percentage if possible
-        if (result.isCompleted() && result.getMaxScore() > 0) {
+        if (result.isCompleted() && result.getScore() != null && result.getMaxScore() != null && result.getMaxScore() > 0) {
             double percentage = (double) result.getScore() / result.getMaxScore() * 100;
             builder.percentage(Math.round(percentage * 10) / 10.0); // Round to 1 decimal place
         }
 
+        if (result.getGradingError() != null) {
+            builder.message("Ответы не удалось проверить. Обратитесь к учителю.");
+        }
+
         return builder.build();
     }
 }
@@ -12,4 +12,10 @@ import java.util.List;
 public class TestSubmissionRequest {
     private Long testResultId;
     private List<StudentAnswerRequest> answers;
+    // Из заголовка Idempotency-Key; null - отправка без ключа
+    private String idempotencyKey;
+
+    public TestSubmissionRequest(Long testResultId, List<StudentAnswerRequest> answers) {
+        this(testResultId, answers, null);
+    }
 }
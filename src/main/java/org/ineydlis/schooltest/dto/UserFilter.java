@@ -0,0 +1,13 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.Data;
+import org.ineydlis.schooltest.model.UserRole;
+
+// Необязательные фильтры списка пользователей; null означает "без фильтра"
+@Data
+public class UserFilter {
+    private UserRole role;
+    private Long gradeId;
+    private String namePrefix;
+    private Boolean active;
+}
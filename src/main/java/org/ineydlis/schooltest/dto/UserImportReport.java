@@ -0,0 +1,28 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserImportReport {
+    private int total;
+    private int imported;
+    private long durationMillis;
+    private List<RowError> errors = new ArrayList<>();
+
+    // Номер строки во входном файле (начиная с 1) и причина, по которой она не импортирована
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowError {
+        private int line;
+        private String username;
+        private String message;
+    }
+}
@@ -0,0 +1,16 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Страница списка пользователей; nextAfterId передается в следующий запрос, null - страниц больше нет
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPageDto {
+    private List<AdminUserDto> items;
+    private Long nextAfterId;
+}
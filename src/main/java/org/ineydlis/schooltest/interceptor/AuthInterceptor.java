@@ -1,7 +1,7 @@
 package org.ineydlis.schooltest.interceptor;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
 import org.ineydlis.schooltest.service.AuthService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -15,6 +15,8 @@ import java.util.Map;
 @Component
 public class AuthInterceptor implements HandlerInterceptor {
 
+    public static final String USER_ATTRIBUTE = "user";
+
    private AuthService authService;
    private ObjectMapper objectMapper;
 
@@ -36,11 +38,11 @@ public class AuthInterceptor implements HandlerInterceptor {
 
         if (token != null && !token.isEmpty()) {
             // Находим пользователя по токену
-            User user = authService.findByToken(token).orElse(null);
+            AuthPrincipal user = authService.findByToken(token).orElse(null);
 
-            if (user != null && user.isActive()) {
+            if (user != null && user.active()) {
                 // Устанавливаем атрибут пользователя, чтобы получить доступ в контроллере
-                request.setAttribute("user", user);
+                request.setAttribute(USER_ATTRIBUTE, user);
                 return true;
             }
         }
@@ -0,0 +1,15 @@
+package org.ineydlis.schooltest.interceptor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Параметр контроллера, в который подставляется пользователь,
+ * уже найденный {@link AuthInterceptor} для текущего запроса.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CurrentUser {
+}
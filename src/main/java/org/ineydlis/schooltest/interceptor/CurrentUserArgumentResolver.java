@@ -0,0 +1,31 @@
+package org.ineydlis.schooltest.interceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.springframework.core.MethodParameter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+@Component
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && AuthPrincipal.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+        Object user = request != null ? request.getAttribute(AuthInterceptor.USER_ATTRIBUTE) : null;
+        if (user == null) {
+            throw new RuntimeException("Требуется авторизация");
+        }
+        return user;
+    }
+}
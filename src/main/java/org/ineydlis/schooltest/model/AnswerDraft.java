@@ -0,0 +1,75 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Промежуточный (автосохраненный) ответ на вопрос незавершенной попытки: по одной строке на вопрос.
+// Пишется пакетами через AnswerAutosaveService, при завершении попытки проверяется и удаляется
+@Entity
+@Table(name = "answer_drafts", uniqueConstraints = @UniqueConstraint(
+        name = "uk_answer_drafts_attempt_question", columnNames = {"test_result_id", "question_id"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnswerDraft {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "test_result_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private TestResult testResult;
+
+    // Без внешнего ключа: вопрос могут удалить при редактировании теста, такой ответ просто не учитывается
+    @Column(name = "question_id", nullable = false)
+    private Long questionId;
+
+    @Column(columnDefinition = "TEXT")
+    private String textAnswer;
+
+    // id выбранных вариантов через запятую
+    @Column(name = "selected_answer_ids", columnDefinition = "TEXT")
+    private String selectedAnswerIds;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+
+    public static String joinIds(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for (Long id : ids) {
+            if (id != null) {
+                if (!joined.isEmpty()) {
+                    joined.append(',');
+                }
+                joined.append(id);
+            }
+        }
+        return joined.isEmpty() ? null : joined.toString();
+    }
+
+    public static List<Long> splitIds(String joined) {
+        List<Long> ids = new ArrayList<>();
+        if (joined != null && !joined.isEmpty()) {
+            for (String id : joined.split(",")) {
+                ids.add(Long.valueOf(id));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,38 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Отозванная сессия. Если tokenId не задан, отзываются все токены пользователя,
+ * выданные до revokedAt (деактивация, удаление, смена роли). Запись с principalOnly
+ * токены не отзывает, а только сбрасывает пользователя из кэша принципалов на всех узлах.
+ */
+@Entity
+@Table(name = "session_revocations")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionRevocation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    private String tokenId;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    // Время в миллисекундах, как в самом токене
+    @Column(nullable = false)
+    private Long revokedAt;
+
+    // После этого момента запись не нужна: все затронутые токены уже истекли
+    @Column(nullable = false)
+    private Long expiresAt;
+
+    // NULL у записей, созданных до появления колонки, - обычный отзыв
+    private Boolean principalOnly;
+}
@@ -3,9 +3,16 @@ package org.ineydlis.schooltest.model;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @Entity
@@ -14,14 +21,20 @@ import java.util.Set;
 @NoArgsConstructor
 @AllArgsConstructor
 public class StudentAnswer {
+    // Id из последовательности пачками по 50: при IDENTITY Hibernate не может вставлять строки пакетом
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "student_answers_seq")
+    @SequenceGenerator(name = "student_answers_seq", sequenceName = "student_answers_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "question_id", nullable = false)
     private Question question;
 
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "test_result_id", nullable = false)
     private TestResult testResult;
@@ -30,14 +43,10 @@ public class StudentAnswer {
     @Column(columnDefinition = "TEXT")
     private String textAnswer;
 
-    // For SINGLE_CHOICE and MULTIPLE_CHOICE types
-    @ManyToMany(fetch = FetchType.EAGER)
-    @JoinTable(
-            name = "student_answer_choices",
-            joinColumns = @JoinColumn(name = "student_answer_id"),
-            inverseJoinColumns = @JoinColumn(name = "answer_id")
-    )
-    private Set<Answer> selectedAnswers = new HashSet<>();
+    // For SINGLE_CHOICE and MULTIPLE_CHOICE types: выбранные варианты битовой маской
+    // по вариантам вопроса в порядке id (бит i - i-й вариант); null - ничего не выбрано
+    @Column(name = "selected_mask")
+    private Long selectedMask;
 
     private boolean isCorrect = false;
 
@@ -45,4 +54,65 @@ public class StudentAnswer {
     @Column(name = "partial_ratio")
     private Double partialRatio;
 
+    // Больше вариантов у вопроса маска не вмещает
+    public static final int MAX_CHOICES = Long.SIZE;
+
+    /**
+     * Выбранные варианты из маски; варианты вопроса уже загружены для правильных ответов,
+     * поэтому чтение не идет в базу. Набор только для чтения - выбор задается setSelectedAnswers.
+     */
+    public Set<Answer> getSelectedAnswers() {
+        if (selectedMask == null) {
+            return Set.of();
+        }
+        List<Answer> options = orderedOptions();
+        Set<Answer> selected = new HashSet<>();
+        for (int i = 0; i < options.size() && i < MAX_CHOICES; i++) {
+            if ((selectedMask & (1L << i)) != 0) {
+                selected.add(options.get(i));
+            }
+        }
+        return Collections.unmodifiableSet(selected);
+    }
+
+    public void setSelectedAnswers(Collection<Answer> answers) {
+        long[] answerIds = new long[answers.size()];
+        int i = 0;
+        for (Answer answer : answers) {
+            answerIds[i++] = answer.getId();
+        }
+        setSelectedAnswerIds(answerIds);
+    }
+
+    // Вопрос должен быть задан до выбора: маска строится по его вариантам
+    public void setSelectedAnswerIds(long[] answerIds) {
+        List<Answer> options = orderedOptions();
+        long mask = 0;
+        for (long answerId : answerIds) {
+            int position = positionOf(options, answerId);
+            if (position < 0) {
+                throw new IllegalStateException("Вариант ответа " + answerId + " не найден в вопросе " + question.getId());
+            }
+            if (position >= MAX_CHOICES) {
+                throw new IllegalStateException("У вопроса " + question.getId() + " больше " + MAX_CHOICES + " вариантов");
+            }
+            mask |= 1L << position;
+        }
+        selectedMask = mask != 0 ? mask : null;
+    }
+
+    private List<Answer> orderedOptions() {
+        List<Answer> options = new ArrayList<>(question.getAnswers());
+        options.sort(Comparator.comparing(Answer::getId));
+        return options;
+    }
+
+    private static int positionOf(List<Answer> options, long answerId) {
+        for (int i = 0; i < options.size(); i++) {
+            if (options.get(i).getId() == answerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
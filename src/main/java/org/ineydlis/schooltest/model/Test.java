@@ -4,7 +4,9 @@ package org.ineydlis.schooltest.model;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -14,6 +16,17 @@ import java.util.Set;
 
 @Entity
 @Table(name = "tests")
+// Планы загрузки по сценариям; по умолчанию все связи ленивые
+@NamedEntityGraph(name = "Test.catalog", attributeNodes = {
+        @NamedAttributeNode("subject"),
+        @NamedAttributeNode("creator"),
+        @NamedAttributeNode("availableGrades")
+})
+@NamedEntityGraph(name = "Test.withQuestions", attributeNodes = {
+        @NamedAttributeNode("subject"),
+        @NamedAttributeNode("creator"),
+        @NamedAttributeNode("questions")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -27,11 +40,15 @@ public class Test {
 
     private String description;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "subject_id", nullable = false)
     private Subject subject;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "creator_id", nullable = false)
     private User creator;
 
@@ -52,7 +69,15 @@ public class Test {
     @Column
     private Integer questionsToShow;
 
+    // Денормализованные агрегаты по вопросам: списки тестов не загружают вопросы.
+    // Пересчитываются через recalculateQuestionStats при создании и изменении теста
+    private Integer questionCount = 0;
+
+    private Integer totalPoints = 0;
+
     // Grades that can access this test
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
             name = "test_grades",
@@ -61,7 +86,16 @@ public class Test {
     )
     private Set<Grade> availableGrades = new HashSet<>();
 
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     @OneToMany(mappedBy = "test", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Question> questions = new ArrayList<>();
+
+    public void recalculateQuestionStats() {
+        questionCount = questions.size();
+        totalPoints = questions.stream()
+                .mapToInt(q -> q.getPoints() != null ? q.getPoints() : 0)
+                .sum();
+    }
 }
 
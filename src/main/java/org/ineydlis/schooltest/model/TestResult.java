@@ -4,14 +4,45 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "test_results")
+// Индекс для поиска открытых просроченных попыток (AttemptExpiryService) и не более одной
+// открытой попытки на тест и ученика (см. openAttempt)
+@Table(name = "test_results",
+        indexes = @Index(name = "idx_test_results_open_deadline", columnList = "completed, deadline"),
+        uniqueConstraints = @UniqueConstraint(name = "uk_test_results_open_attempt",
+                columnNames = {"test_id", "student_id", "open_attempt"}))
+// Планы загрузки по сценариям; по умолчанию все связи ленивые
+@NamedEntityGraph(name = "TestResult.summary", attributeNodes = {
+        @NamedAttributeNode(value = "test", subgraph = "test"),
+        @NamedAttributeNode(value = "student", subgraph = "student")
+}, subgraphs = {
+        @NamedSubgraph(name = "test", attributeNodes = @NamedAttributeNode("subject")),
+        @NamedSubgraph(name = "student", attributeNodes = @NamedAttributeNode("grade"))
+})
+@NamedEntityGraph(name = "TestResult.grading", attributeNodes = {
+        @NamedAttributeNode(value = "test", subgraph = "test"),
+        @NamedAttributeNode("student")
+}, subgraphs = @NamedSubgraph(name = "test", attributeNodes = {
+        @NamedAttributeNode("subject"),
+        @NamedAttributeNode("questions")
+}))
+@NamedEntityGraph(name = "TestResult.attempt", attributeNodes = @NamedAttributeNode("test"))
+@NamedEntityGraph(name = "TestResult.details", attributeNodes = {
+        @NamedAttributeNode("test"),
+        @NamedAttributeNode(value = "student", subgraph = "student"),
+        @NamedAttributeNode(value = "studentAnswers", subgraph = "answers")
+}, subgraphs = {
+        @NamedSubgraph(name = "student", attributeNodes = @NamedAttributeNode("grade")),
+        @NamedSubgraph(name = "answers", attributeNodes = @NamedAttributeNode("question"))
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -20,11 +51,15 @@ public class TestResult {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "test_id", nullable = false)
     private Test test;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "student_id", nullable = false)
     private User student;
 
@@ -35,21 +70,68 @@ public class TestResult {
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     private LocalDateTime completedAt;
 
+    // startedAt + ограничение времени теста; по нему находятся брошенные попытки
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime deadline;
+
     @Column(nullable = false)
     private boolean completed = false;
 
+    // TRUE, пока попытка открыта, и NULL после завершения. NULL в уникальном индексе не совпадают
+    // друг с другом, поэтому uk_test_results_open_attempt работает как частичный индекс по открытым
+    // попыткам - одинаково в PostgreSQL и H2. Заполняется из completed перед каждой записью
+    @Column(name = "open_attempt")
+    private Boolean openAttempt = Boolean.TRUE;
+
     private Integer score;
 
     private Integer maxScore;
 
     @Column(nullable = false)
     private Integer attemptNumber = 1;
+
+    // Ответы, принятые без проверки (JSON списка StudentAnswerRequest); очищается после проверки
+    @ToString.Exclude
+    @Column(columnDefinition = "TEXT")
+    private String pendingSubmission;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime submittedAt;
+
+    // Неудачные фоновые проверки принятых ответов; после предела попытка закрывается без балла
+    private Integer gradingFailures;
+
+    // Причина, по которой принятые ответы так и не удалось проверить
+    @Column(length = 500)
+    private String gradingError;
+
+    // Ключ идемпотентности отправки ответов (заголовок Idempotency-Key): повтор с тем же ключом
+    // получает уже записанный результат, а не ошибку "тест уже завершен"
+    @ToString.Exclude
+    @Column(length = 64)
+    private String submissionKey;
+
+    // Зерно выборки вопросов при ограничении questionsToShow: выданные вопросы каждый раз
+    // восстанавливаются по нему (QuestionSampler), а не хранятся списком
+    private Long questionSeed;
+
+    // Выбранные вопросы попыток, начатых до появления questionSeed; новые попытки сюда не пишут
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     @ElementCollection
     @CollectionTable(name = "test_result_selected_questions",
             joinColumns = @JoinColumn(name = "test_result_id"))
     @Column(name = "question_id")
     private List<Long> selectedQuestionIds = new ArrayList<>();
 
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     @OneToMany(mappedBy = "testResult", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<StudentAnswer> studentAnswers = new ArrayList<>();
+
+    @PrePersist
+    @PreUpdate
+    void syncOpenAttempt() {
+        openAttempt = completed ? null : Boolean.TRUE;
+    }
 }
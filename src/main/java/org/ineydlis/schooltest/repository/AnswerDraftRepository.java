@@ -0,0 +1,30 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.AnswerDraft;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface AnswerDraftRepository extends JpaRepository<AnswerDraft, Long> {
+
+    @Query("SELECT d FROM AnswerDraft d WHERE d.testResult.id = :testResultId ORDER BY d.questionId")
+    List<AnswerDraft> findByTestResultId(@Param("testResultId") Long testResultId);
+
+    @Query("SELECT d FROM AnswerDraft d WHERE d.testResult.id IN :testResultIds ORDER BY d.testResult.id, d.questionId")
+    List<AnswerDraft> findByTestResultIdIn(@Param("testResultIds") Collection<Long> testResultIds);
+
+    // Один DELETE на попытку вместо удаления строк по одной
+    @Modifying
+    @Query("DELETE FROM AnswerDraft d WHERE d.testResult.id = :testResultId")
+    int deleteByTestResultId(@Param("testResultId") Long testResultId);
+
+    @Modifying
+    @Query("DELETE FROM AnswerDraft d WHERE d.testResult.id IN :testResultIds")
+    int deleteByTestResultIdIn(@Param("testResultIds") Collection<Long> testResultIds);
+}
@@ -0,0 +1,19 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.SessionRevocation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface SessionRevocationRepository extends JpaRepository<SessionRevocation, Long> {
+    List<SessionRevocation> findByExpiresAtGreaterThan(Long now);
+
+    @Modifying
+    @Query("DELETE FROM SessionRevocation r WHERE r.expiresAt < :now")
+    int deleteExpired(@Param("now") Long now);
+}
@@ -1,34 +1,68 @@
 // src/main/java/org/ineydlis/schooltest/repository/TestRepository.java
 package org.ineydlis.schooltest.repository;
 
-import org.ineydlis.schooltest.model.Grade;
 import org.ineydlis.schooltest.model.Subject;
 import org.ineydlis.schooltest.model.Test;
-import org.ineydlis.schooltest.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Optional;
 
 @Repository
 public interface TestRepository extends JpaRepository<Test, Long> {
-    List<Test> findByCreator(User creator);
+    // Списки тестов: предмет, автор и классы одной выборкой
+    @EntityGraph("Test.catalog")
+    @Query("SELECT t FROM Test t ORDER BY t.id")
+    List<Test> findAllForCatalog();
 
-    List<Test> findBySubjectIn(List<Subject> subjects);
+    @EntityGraph("Test.catalog")
+    List<Test> findByCreatorIdOrderByIdAsc(Long creatorId);
+
+    @EntityGraph("Test.catalog")
+    Optional<Test> findCatalogById(Long id);
 
-    @Query("SELECT t FROM Test t JOIN t.availableGrades g WHERE g = :grade AND t.isActive = true")
-    List<Test> findByAvailableGradesAndActive(@Param("grade") Grade grade);
+    // Тест вместе с вопросами; ответы вопросов догружаются пакетно (hibernate.default_batch_fetch_size)
+    @EntityGraph("Test.withQuestions")
+    Optional<Test> findWithQuestionsById(Long id);
+
+    List<Test> findBySubjectIn(List<Subject> subjects);
 
     List<Test> findByIsActiveTrue();
 
-    // Corrected query in TestRepository
-    @Query("SELECT t FROM Test t JOIN t.availableGrades g WHERE t.subject IN :subjects AND g.id = :gradeId")
-    List<Test> findBySubjectInAndGradeId(@Param("subjects") Set<Subject> subjects, @Param("gradeId") Long gradeId);
+    @Query("SELECT COUNT(t) > 0 FROM Test t JOIN t.availableGrades g WHERE t.subject.id IN :subjectIds AND g.id = :gradeId")
+    boolean existsBySubjectIdInAndGradeId(@Param("subjectIds") Collection<Long> subjectIds, @Param("gradeId") Long gradeId);
 
     List<Test> findBySubjectId(Long subjectId);
+
+    // Каталог ученика одной выборкой: поля теста без загрузки сущностей и вопросов.
+    // Строка: [id, title, description, subjectId, subjectName, creatorId, creatorName, createdAt,
+    //          updatedAt, timeLimit, maxAttempts, questionsToShow, questionCount, totalPoints]
+    @Query("SELECT t.id, t.title, t.description, s.id, s.name, c.id, c.fullName, t.createdAt, t.updatedAt, " +
+            "t.timeLimit, t.maxAttempts, t.questionsToShow, t.questionCount, t.totalPoints " +
+            "FROM Test t JOIN t.availableGrades g JOIN t.subject s JOIN t.creator c " +
+            "WHERE g.id = :gradeId AND t.isActive = true " +
+            "ORDER BY t.id")
+    List<Object[]> findStudentCatalogRows(@Param("gradeId") Long gradeId);
+
+    // Пары [testId, имя класса] для набора тестов
+    @Query("SELECT t.id, g.fullName FROM Test t JOIN t.availableGrades g WHERE t.id IN :testIds")
+    List<Object[]> findGradeNamesByTestIds(@Param("testIds") Collection<Long> testIds);
+
+    // Заполняет questionCount и totalPoints у тестов, созданных до появления этих колонок
+    @Modifying
+    @Transactional
+    @Query("UPDATE Test t SET " +
+            "t.questionCount = (SELECT COUNT(q) FROM Question q WHERE q.test = t), " +
+            "t.totalPoints = (SELECT COALESCE(SUM(q.points), 0) FROM Question q WHERE q.test = t) " +
+            "WHERE t.questionCount IS NULL OR t.totalPoints IS NULL")
+    int backfillQuestionStats();
 }
 
 
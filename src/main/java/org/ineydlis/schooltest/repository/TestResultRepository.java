@@ -4,14 +4,18 @@ import jakarta.persistence.LockModeType;
 import org.ineydlis.schooltest.model.Test;
 import org.ineydlis.schooltest.model.TestResult;
 import org.ineydlis.schooltest.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -34,12 +38,15 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
     // Method to find all results for a given test and student
     List<TestResult> findByTestAndStudent(Test test, User student);
 
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Query("SELECT tr FROM TestResult tr WHERE tr.test = :test AND tr.student = :student AND tr.completed = :completed")
-    List<TestResult> findByTestAndStudentAndCompletedForUpdate(
-            @Param("test") Test test,
-            @Param("student") User student,
-            @Param("completed") boolean completed);
+    // Открытая попытка ученика по тесту; единственна благодаря uk_test_results_open_attempt
+    @EntityGraph("TestResult.summary")
+    @Query("SELECT tr FROM TestResult tr WHERE tr.test.id = :testId AND tr.student.id = :studentId " +
+            "AND tr.completed = false")
+    Optional<TestResult> findOpenAttempt(@Param("testId") Long testId, @Param("studentId") Long studentId);
+
+    @Query("SELECT COUNT(tr) FROM TestResult tr WHERE tr.test.id = :testId AND tr.student.id = :studentId " +
+            "AND tr.completed = true")
+    long countCompletedAttempts(@Param("testId") Long testId, @Param("studentId") Long studentId);
 
     @Query("SELECT tr FROM TestResult tr WHERE tr.student.id = :studentId AND tr.test.subject.id = :subjectId AND tr.completed = true")
     List<TestResult> findByStudentIdAndTestSubjectId(Long studentId, Long subjectId);
@@ -97,9 +104,88 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
     List<TestResult> findBySuccessPercentageGreaterThanEqual(@Param("percentage") Integer percentage);
 
     // Найти все результаты по ID теста
+    @EntityGraph("TestResult.summary")
     @Query("SELECT tr FROM TestResult tr WHERE tr.test.id = :testId")
     List<TestResult> findByTestId(@Param("testId") Long testId);
 
+    @EntityGraph("TestResult.summary")
     @Query("SELECT tr FROM TestResult tr WHERE tr.student.id = :studentId")
     List<TestResult> findByStudentId(@Param("studentId") Long studentId);
+
+    // Результат с тестом, предметом и учеником - для TestResultDto и проверок доступа
+    @EntityGraph("TestResult.summary")
+    Optional<TestResult> findSummaryById(Long id);
+
+    // Результат с вопросами теста - для выдачи вопросов и проверки ответов
+    @EntityGraph("TestResult.grading")
+    Optional<TestResult> findForGradingById(Long id);
+
+    // Попытка с тестом, без вопросов - для выдачи вопросов из снимка
+    @EntityGraph("TestResult.attempt")
+    Optional<TestResult> findAttemptById(Long id);
+
+    // Группа результатов с вопросами тестов - для совместной проверки
+    @EntityGraph("TestResult.grading")
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id IN :ids")
+    List<TestResult> findForGradingByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Группа результатов с тестом и учеником - для приема и записи итогов группы
+    @EntityGraph("TestResult.summary")
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id IN :ids")
+    List<TestResult> findSummaryByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Результат с ответами ученика и их вопросами - для детального просмотра
+    @EntityGraph("TestResult.details")
+    Optional<TestResult> findDetailsById(Long id);
+
+    // Блокировка строки попытки без связей: проверку одной попытки не начнут параллельно
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id = :id")
+    Optional<TestResult> lockById(@Param("id") Long id);
+
+    // Блокировка группы попыток в порядке id, чтобы параллельные группы не взаимоблокировались
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id IN :ids ORDER BY tr.id")
+    List<TestResult> lockAllById(@Param("ids") Collection<Long> ids);
+
+    // Открытые попытки, срок которых истек до cutoff; попытки с принятыми ответами проверяет SubmissionGradingService
+    @Query("SELECT tr.id FROM TestResult tr WHERE tr.completed = false AND tr.deadline < :cutoff " +
+            "AND tr.pendingSubmission IS NULL ORDER BY tr.deadline")
+    List<Long> findExpiredAttemptIds(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    // Заполняет deadline у открытых попыток, начатых до появления колонки
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE test_results tr SET deadline = tr.started_at + t.time_limit * INTERVAL '1 minute' " +
+            "FROM tests t WHERE t.id = tr.test_id AND tr.deadline IS NULL AND tr.completed = false",
+            nativeQuery = true)
+    int backfillDeadlines();
+
+    // До появления uk_test_results_open_attempt у ученика могло остаться несколько открытых попыток
+    // по одному тесту: все, кроме последней, закрываются с нулевым баллом
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE test_results tr SET completed = true, completed_at = now(), score = 0 " +
+            "WHERE tr.completed = false AND tr.open_attempt IS NULL AND EXISTS (SELECT 1 FROM test_results newer " +
+            "WHERE newer.test_id = tr.test_id AND newer.student_id = tr.student_id AND newer.completed = false " +
+            "AND (newer.started_at > tr.started_at OR (newer.started_at = tr.started_at AND newer.id > tr.id)))",
+            nativeQuery = true)
+    int closeDuplicateOpenAttempts();
+
+    // Отметка открытых попыток, начатых до появления колонки open_attempt
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE test_results SET open_attempt = true WHERE completed = false AND open_attempt IS NULL",
+            nativeQuery = true)
+    int backfillOpenAttempts();
+
+    // Попытки с принятыми, но еще не проверенными ответами - в порядке отправки
+    @Query("SELECT tr.id FROM TestResult tr WHERE tr.pendingSubmission IS NOT NULL AND tr.completed = false " +
+            "ORDER BY tr.submittedAt")
+    List<Long> findPendingSubmissionIds();
+
+    // Баллы всех завершенных попыток ученика: [testId, score, maxScore]
+    @Query("SELECT tr.test.id, tr.score, tr.maxScore FROM TestResult tr " +
+            "WHERE tr.student.id = :studentId AND tr.completed = true")
+    List<Object[]> findCompletedScoresByStudentId(@Param("studentId") Long studentId);
 }
@@ -2,7 +2,10 @@ package org.ineydlis.schooltest.repository;
 
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -10,9 +13,24 @@ import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
+    // Вход: класс и предметы нужны для ответа LoginResponse
+    @EntityGraph(attributePaths = {"grade", "subjects"})
     Optional<User> findByUsername(String username);
-    Optional<User> findByToken(String token);
     boolean existsByUsername(String username);
+    @EntityGraph(attributePaths = "grade")
     List<User> findByGradeId(Long gradeId);
+    @EntityGraph(attributePaths = "grade")
     List<User> findByRole(UserRole role);
+
+    // Проекция для авторизации без загрузки сущностей, см. AuthPrincipal.fromRow. Предметы
+    // и классы учителя - отдельными выборками, чтобы не получать их декартово произведение
+    @Query("SELECT u.id, u.username, u.fullName, u.role, g.id, u.active FROM User u " +
+            "LEFT JOIN u.grade g WHERE u.id = :id")
+    List<Object[]> findPrincipalRow(@Param("id") Long id);
+
+    @Query("SELECT s.id FROM User u JOIN u.subjects s WHERE u.id = :id")
+    List<Long> findSubjectIds(@Param("id") Long id);
+
+    @Query("SELECT tg.id FROM User u JOIN u.teachingGrades tg WHERE u.id = :id")
+    List<Long> findTeachingGradeIds(@Param("id") Long id);
 }
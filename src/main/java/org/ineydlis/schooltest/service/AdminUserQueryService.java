@@ -0,0 +1,153 @@
+package org.ineydlis.schooltest.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.AdminUserDto;
+import org.ineydlis.schooltest.dto.UserFilter;
+import org.ineydlis.schooltest.dto.UserPageDto;
+import org.ineydlis.schooltest.model.UserRole;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Список пользователей для панели администратора.
+ * <p>
+ * Выборка идет проекцией по колонкам с keyset-пагинацией по id (WHERE id > ? ORDER BY id LIMIT ?):
+ * стоимость страницы не растет с номером страницы, пароли и связи-сущности не загружаются.
+ * Предметы и классы учителей страницы подтягиваются двумя запросами на всю страницу.
+ */
+@Service
+public class AdminUserQueryService {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+    private static final int EXPORT_CHUNK = 500;
+
+    private static final String SELECT_USERS =
+            "SELECT u.id, u.username, u.full_name, u.email, u.role, g.full_name AS grade_name, u.active, u.last_login " +
+            "FROM users u LEFT JOIN school_grades g ON g.id = u.grade_id WHERE u.id > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    public AdminUserQueryService(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    public UserPageDto findPage(UserFilter filter, Long afterId, Integer limit) {
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+
+        // Берем на одну строку больше, чтобы узнать, есть ли следующая страница
+        List<AdminUserDto> users = query(filter, afterId != null ? afterId : 0L, pageSize + 1);
+        Long nextAfterId = null;
+        if (users.size() > pageSize) {
+            users = users.subList(0, pageSize);
+            nextAfterId = users.get(pageSize - 1).getId();
+        }
+        return new UserPageDto(users, nextAfterId);
+    }
+
+    // Полная выгрузка в NDJSON: по одной JSON-строке на пользователя, читается порциями
+    public void export(UserFilter filter, OutputStream out) throws IOException {
+        long afterId = 0;
+        while (true) {
+            List<AdminUserDto> chunk = query(filter, afterId, EXPORT_CHUNK);
+            for (AdminUserDto user : chunk) {
+                out.write(objectMapper.writeValueAsBytes(user));
+                out.write('\n');
+            }
+            out.flush();
+            if (chunk.size() < EXPORT_CHUNK) {
+                return;
+            }
+            afterId = chunk.get(chunk.size() - 1).getId();
+        }
+    }
+
+    private List<AdminUserDto> query(UserFilter filter, long afterId, int limit) {
+        StringBuilder sql = new StringBuilder(SELECT_USERS);
+        List<Object> args = new ArrayList<>();
+        args.add(afterId);
+
+        if (filter.getRole() != null) {
+            sql.append(" AND u.role = ?");
+            args.add(filter.getRole().name());
+        }
+        if (filter.getGradeId() != null) {
+            sql.append(" AND u.grade_id = ?");
+            args.add(filter.getGradeId());
+        }
+        if (filter.getActive() != null) {
+            sql.append(" AND u.active = ?");
+            args.add(filter.getActive());
+        }
+        if (filter.getNamePrefix() != null && !filter.getNamePrefix().isBlank()) {
+            sql.append(" AND (lower(u.full_name) LIKE ? OR lower(u.username) LIKE ?)");
+            String pattern = escapeLike(filter.getNamePrefix().trim().toLowerCase()) + "%";
+            args.add(pattern);
+            args.add(pattern);
+        }
+        sql.append(" ORDER BY u.id LIMIT ?");
+        args.add(limit);
+
+        List<AdminUserDto> users = jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Timestamp lastLogin = rs.getTimestamp("last_login");
+            return AdminUserDto.builder()
+                    .id(rs.getLong("id"))
+                    .username(rs.getString("username"))
+                    .fullName(rs.getString("full_name"))
+                    .email(rs.getString("email"))
+                    .role(UserRole.valueOf(rs.getString("role")))
+                    .gradeName(rs.getString("grade_name"))
+                    .active(rs.getBoolean("active"))
+                    .lastLogin(lastLogin != null ? lastLogin.toLocalDateTime() : null)
+                    .build();
+        }, args.toArray());
+
+        attachTeacherLinks(users);
+        return users;
+    }
+
+    private void attachTeacherLinks(List<AdminUserDto> users) {
+        Map<Long, AdminUserDto> teachers = new LinkedHashMap<>();
+        for (AdminUserDto user : users) {
+            if (user.getRole() == UserRole.TEACHER) {
+                teachers.put(user.getId(), user);
+            }
+        }
+        if (teachers.isEmpty()) {
+            return;
+        }
+
+        String placeholders = String.join(",", Collections.nCopies(teachers.size(), "?"));
+        Object[] ids = teachers.keySet().toArray();
+
+        loadNames("SELECT ts.user_id, s.name FROM teacher_subjects ts " +
+                        "JOIN school_subjects s ON s.id = ts.subject_id WHERE ts.user_id IN (" + placeholders + ") " +
+                        "ORDER BY s.name",
+                ids, (userId, name) -> teachers.get(userId).getSubjectNames().add(name));
+        loadNames("SELECT tg.user_id, g.full_name FROM teacher_teaching_grade tg " +
+                        "JOIN school_grades g ON g.id = tg.grade_id WHERE tg.user_id IN (" + placeholders + ") " +
+                        "ORDER BY g.number, g.letter",
+                ids, (userId, name) -> teachers.get(userId).getTeachingGradeNames().add(name));
+    }
+
+    private void loadNames(String sql, Object[] ids, BiConsumer<Long, String> consumer) {
+        jdbcTemplate.query(sql, (RowCallbackHandler) rs -> consumer.accept(rs.getLong(1), rs.getString(2)), ids);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,230 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.annotation.PreDestroy;
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.AnswerDraft;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Автосохранение ответов по мере прохождения теста.
+ * <p>
+ * Страница теста отправляет ответ на каждый вопрос сразу после изменения. Запись в базу
+ * отложенная: повторные ответы на один вопрос схлопываются в последний, а накопленное
+ * сбрасывается пакетным upsert в answer_drafts по таймеру, перед отправкой попытки и при
+ * остановке приложения. Upsert пишет только в открытую попытку без принятых ответов.
+ * Строка попытки при этом блокируется на чтение (FOR SHARE): завершение попытки держит ее
+ * блокировку на запись до коммита, так что upsert либо успевает до него и его черновик
+ * попадает в проверку, либо дожидается коммита и видит попытку уже завершенной.
+ * <p>
+ * Владелец попытки и ее вопросы проверяются при первом сохранении и запоминаются,
+ * так что само сохранение не обращается к базе. Поэтому успешное сохранение означает прием,
+ * а не запись: при падении узла теряются ответы за последний интервал сброса, а отправка
+ * попытки на другой узел их не видит. Страница теста при отправке передает все ответы целиком,
+ * и они важнее сохраненных.
+ */
+@Service
+public class AnswerAutosaveService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnswerAutosaveService.class);
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO answer_drafts (test_result_id, question_id, text_answer, selected_answer_ids, updated_at) " +
+            "SELECT ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM test_results " +
+            "WHERE id = ? AND completed = false AND pending_submission IS NULL FOR SHARE) " +
+            "ON CONFLICT (test_result_id, question_id) DO UPDATE SET text_answer = EXCLUDED.text_answer, " +
+            "selected_answer_ids = EXCLUDED.selected_answer_ids, updated_at = EXCLUDED.updated_at";
+
+    // Проверенная попытка забывается, если по ней долго ничего не сохраняли
+    private static final long ATTEMPT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(30);
+
+    private static final int DRAIN_LOCK_STRIPES = 64;
+
+    private final TestService testService;
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    // Попытка -> вопрос -> последний ответ. Внутренние карты изменяются только внутри compute
+    private final ConcurrentHashMap<Long, Map<Long, Draft>> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Attempt> attempts = new ConcurrentHashMap<>();
+    // Сброс одной попытки идет под ее блокировкой: flush(id) дожидается сброса по таймеру,
+    // который уже забрал ответы из буфера, но еще не записал их
+    private final Object[] drainLocks = new Object[DRAIN_LOCK_STRIPES];
+
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public AnswerAutosaveService(TestService testService,
+                                 JdbcTemplate jdbcTemplate,
+                                 @Value("${schooltest.autosave.batch-size:500}") int batchSize) {
+        this.testService = testService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+        for (int i = 0; i < drainLocks.length; i++) {
+            drainLocks[i] = new Object();
+        }
+    }
+
+    public void save(Long testResultId, StudentAnswerRequest answer, Long studentId) {
+        if (answer.getQuestionId() == null) {
+            throw new RuntimeException("Не указан вопрос");
+        }
+        Attempt attempt = attempts.get(testResultId);
+        if (attempt == null) {
+            // Проверка попытки идет в базу, поэтому не внутри computeIfAbsent
+            attempt = new Attempt(studentId, testService.getAnswerableQuestionIds(testResultId, studentId));
+            Attempt existing = attempts.putIfAbsent(testResultId, attempt);
+            attempt = existing != null ? existing : attempt;
+        }
+        if (!attempt.studentId.equals(studentId)) {
+            throw new RuntimeException("У вас нет доступа к этому тесту");
+        }
+        if (!attempt.questionIds.contains(answer.getQuestionId())) {
+            throw new RuntimeException("Вопрос не относится к этой попытке");
+        }
+        attempt.lastUsed = System.nanoTime();
+
+        Draft draft = new Draft(answer.getTextAnswer(), AnswerDraft.joinIds(answer.getSelectedAnswerIds()),
+                LocalDateTime.now());
+        pending.compute(testResultId, (id, drafts) -> {
+            Map<Long, Draft> target = drafts != null ? drafts : new HashMap<>();
+            if (target.put(answer.getQuestionId(), draft) != null) {
+                coalesced.increment();
+            }
+            return target;
+        });
+        saved.increment();
+    }
+
+    /**
+     * Сохраненные ответы попытки: записанные в базу и еще ожидающие сброса.
+     */
+    public List<StudentAnswerRequest> getSavedAnswers(Long testResultId, Long studentId) {
+        Map<Long, StudentAnswerRequest> byQuestion = new LinkedHashMap<>();
+        for (StudentAnswerRequest answer : testService.getSavedAnswers(testResultId, studentId)) {
+            byQuestion.put(answer.getQuestionId(), answer);
+        }
+        Map<Long, Draft> unflushed = new HashMap<>();
+        pending.computeIfPresent(testResultId, (id, drafts) -> {
+            unflushed.putAll(drafts);
+            return drafts;
+        });
+        unflushed.forEach((questionId, draft) -> byQuestion.put(questionId, draft.toRequest(questionId)));
+        return new ArrayList<>(byQuestion.values());
+    }
+
+    @Scheduled(fixedDelayString = "${schooltest.autosave.flush-ms:1000}")
+    public void flush() {
+        long now = System.nanoTime();
+        attempts.entrySet().removeIf(entry -> now - entry.getValue().lastUsed > ATTEMPT_IDLE_NANOS
+                && !pending.containsKey(entry.getKey()));
+
+        for (Long testResultId : pending.keySet()) {
+            drain(testResultId);
+        }
+    }
+
+    // Сброс ответов одной попытки; вызывается перед ее отправкой, чтобы проверка видела все ответы
+    public void flush(Long testResultId) {
+        drain(testResultId);
+        attempts.remove(testResultId);
+    }
+
+    private void drain(Long testResultId) {
+        synchronized (drainLocks[Math.floorMod(testResultId.hashCode(), drainLocks.length)]) {
+            drainLocked(testResultId);
+        }
+    }
+
+    // Забираем ответы попытки целиком: ответ, сохраненный во время сброса, попадет в следующий
+    private void drainLocked(Long testResultId) {
+        Map<Long, Draft> drafts = pending.remove(testResultId);
+        if (drafts == null || drafts.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>(drafts.size());
+        drafts.forEach((questionId, draft) -> batch.add(new Object[]{
+                testResultId, questionId, draft.textAnswer(), draft.selectedAnswerIds(),
+                Timestamp.valueOf(draft.savedAt()), testResultId}));
+        try {
+            // Драйвер может не сообщить число строк (SUCCESS_NO_INFO) - тогда попытка считается открытой
+            boolean anyWritten = false;
+            for (int from = 0; from < batch.size(); from += batchSize) {
+                for (int count : jdbcTemplate.batchUpdate(UPSERT_SQL,
+                        batch.subList(from, Math.min(batch.size(), from + batchSize)))) {
+                    anyWritten |= count != 0;
+                }
+            }
+            if (!anyWritten) {
+                // Попытка уже завершена: дальнейшие сохранения бессмысленны
+                attempts.remove(testResultId);
+            }
+            written.add(batch.size());
+            flushes.increment();
+        } catch (RuntimeException e) {
+            // Возвращаем ответы в буфер, не затирая сохраненные во время сброса
+            pending.compute(testResultId, (id, current) -> {
+                Map<Long, Draft> target = current != null ? current : new HashMap<>();
+                drafts.forEach(target::putIfAbsent);
+                return target;
+            });
+            failed.increment();
+            log.warn("Не удалось сохранить {} ответов попытки {}: {}", drafts.size(), testResultId, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingAttempts", pending.size());
+        stats.put("knownAttempts", attempts.size());
+        stats.put("saved", saved.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("written", written.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private record Draft(String textAnswer, String selectedAnswerIds, LocalDateTime savedAt) {
+
+        StudentAnswerRequest toRequest(Long questionId) {
+            return new StudentAnswerRequest(questionId, textAnswer, AnswerDraft.splitIds(selectedAnswerIds));
+        }
+    }
+
+    private static final class Attempt {
+        private final Long studentId;
+        private final Set<Long> questionIds;
+        private volatile long lastUsed = System.nanoTime();
+
+        private Attempt(Long studentId, Set<Long> questionIds) {
+            this.studentId = studentId;
+            this.questionIds = questionIds;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Скомпилированный ключ ответов теста для проверки попыток.
+ * <p>
+ * Вопросы лежат в массиве, отсортированном по id (поиск двоичный); ключ каждого вопроса
+ * скомпилирован реализацией {@link Grader} для его типа. Проверка ответа не строит коллекций
+ * и линейна по числу выбранных вариантов. Ключ неизменяемый и кэшируется вместе
+ * со снимком теста в {@link ExamSnapshotCache}.
+ */
+public final class AnswerKey {
+
+    private final long[] questionIds;
+    private final GraderRegistry.CompiledQuestion<?>[] questions;
+
+    private AnswerKey(long[] questionIds, GraderRegistry.CompiledQuestion<?>[] questions) {
+        this.questionIds = questionIds;
+        this.questions = questions;
+    }
+
+    public static AnswerKey compile(Test test, GraderRegistry graders) {
+        GraderRegistry.CompiledQuestion<?>[] compiled = test.getQuestions().stream()
+                .map(graders::compile)
+                .sorted(Comparator.comparingLong(GraderRegistry.CompiledQuestion::questionId))
+                .toArray(GraderRegistry.CompiledQuestion<?>[]::new);
+        long[] ids = new long[compiled.length];
+        for (int i = 0; i < compiled.length; i++) {
+            ids[i] = compiled[i].questionId();
+        }
+        return new AnswerKey(ids, compiled);
+    }
+
+    public int size() {
+        return questions.length;
+    }
+
+    // Позиция вопроса в ключе или -1, если такого вопроса в тесте нет
+    public int indexOf(Long questionId) {
+        if (questionId == null) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(questionIds, questionId);
+        return index >= 0 ? index : -1;
+    }
+
+    public long questionId(int index) {
+        return questionIds[index];
+    }
+
+    public QuestionType type(int index) {
+        return questions[index].type();
+    }
+
+    // Какие вопросы учитываются при проверке: выбранные для попытки или, если выбора не было, все
+    public boolean[] scoredQuestions(Collection<Long> selectedQuestionIds) {
+        boolean[] scored = new boolean[questions.length];
+        if (selectedQuestionIds == null || selectedQuestionIds.isEmpty()) {
+            Arrays.fill(scored, true);
+            return scored;
+        }
+        for (Long id : selectedQuestionIds) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                scored[index] = true;
+            }
+        }
+        return scored;
+    }
+
+    public Grader.Outcome grade(int index, String textAnswer, List<Long> selectedAnswerIds) {
+        return questions[index].grade(textAnswer, selectedAnswerIds);
+    }
+}
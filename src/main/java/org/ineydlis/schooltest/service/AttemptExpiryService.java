@@ -0,0 +1,108 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Закрытие брошенных попыток по сроку.
+ * <p>
+ * Раньше истекшая попытка замечалась только при отправке ответов или при новом запуске теста,
+ * а брошенные оставались открытыми навсегда. Периодический обход выбирает открытые попытки
+ * с истекшим сроком по индексу (completed, deadline) порциями по batch-size и закрывает каждую
+ * порцию в своей транзакции. Срок берется с запасом grace-seconds: ответы, отправленные в последний
+ * момент, успевают дойти. Если порция не закрылась целиком, попытки повторяются по одной,
+ * а сбойные пропускаются до следующего обхода.
+ */
+@Service
+public class AttemptExpiryService {
+
+    private static final Logger log = LoggerFactory.getLogger(AttemptExpiryService.class);
+
+    private final TestService testService;
+    private final TestResultRepository testResultRepository;
+    private final long graceSeconds;
+    private final int batchSize;
+
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long lastSweepMillis;
+    private volatile LocalDateTime lastSweepAt;
+
+    public AttemptExpiryService(TestService testService,
+                                TestResultRepository testResultRepository,
+                                @Value("${schooltest.attempts.expiry.grace-seconds:120}") long graceSeconds,
+                                @Value("${schooltest.attempts.expiry.batch-size:200}") int batchSize) {
+        this.testService = testService;
+        this.testResultRepository = testResultRepository;
+        this.graceSeconds = graceSeconds;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${schooltest.attempts.expiry.sweep-ms:60000}")
+    public void sweep() {
+        long start = System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime cutoff = now.minusSeconds(graceSeconds);
+        Set<Long> skipped = new HashSet<>();
+
+        while (true) {
+            List<Long> ids = testResultRepository.findExpiredAttemptIds(cutoff, PageRequest.of(0, batchSize));
+            List<Long> batch = ids.stream().filter(id -> !skipped.contains(id)).toList();
+            if (batch.isEmpty()) {
+                break;
+            }
+            expire(batch, cutoff, skipped);
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+
+        sweeps.increment();
+        lastSweepMillis = (System.nanoTime() - start) / 1_000_000;
+        lastSweepAt = now;
+    }
+
+    private void expire(List<Long> batch, LocalDateTime cutoff, Set<Long> skipped) {
+        try {
+            expired.add(testService.expireAttempts(batch, cutoff));
+            return;
+        } catch (Exception e) {
+            log.warn("Не удалось закрыть порцию из {} просроченных попыток, закрываем по одной", batch.size(), e);
+        }
+        for (Long id : batch) {
+            try {
+                expired.add(testService.expireAttempts(List.of(id), cutoff));
+            } catch (Exception e) {
+                failed.increment();
+                skipped.add(id);
+                log.error("Не удалось закрыть просроченную попытку {}", id, e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("graceSeconds", graceSeconds);
+        stats.put("batchSize", batchSize);
+        stats.put("sweeps", sweeps.sum());
+        stats.put("expired", expired.sum());
+        stats.put("failed", failed.sum());
+        stats.put("lastSweepMillis", lastSweepMillis);
+        stats.put("lastSweepAt", lastSweepAt);
+        return stats;
+    }
+}
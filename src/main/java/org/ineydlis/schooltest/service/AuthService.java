@@ -1,5 +1,6 @@
 package org.ineydlis.schooltest.service;
 
+import org.ineydlis.schooltest.dto.AuthPrincipal;
 import org.ineydlis.schooltest.dto.LoginRequest;
 import org.ineydlis.schooltest.dto.LoginResponse;
 import org.ineydlis.schooltest.dto.UserDto;
@@ -14,12 +15,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,21 +35,45 @@ public class AuthService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
-    @Transactional
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private SessionTokenService sessionTokenService;
+
+    @Autowired
+    private SessionRevocationList revocationList;
+
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private LastLoginRecorder lastLoginRecorder;
+
+    // Без общей транзакции: соединение с базой не удерживается, пока пароль проверяется в пуле BCrypt
     public LoginResponse login(LoginRequest request) {
         Optional<User> userOpt = userRepository.findByUsername(request.getUsername());
-
-        if (userOpt.isEmpty() || !passwordEncoder.matches(request.getPassword(), userOpt.get().getPassword())) {
+        if (userOpt.isEmpty()) {
             throw new RuntimeException("Неверное имя пользователя или пароль");
         }
 
         User user = userOpt.get();
+        PasswordHashingService.VerificationResult verification =
+                passwordHashingService.verify(request.getPassword(), user.getPassword());
+        if (!verification.matches()) {
+            throw new RuntimeException("Неверное имя пользователя или пароль");
+        }
 
-        // Генерируем уникальный токен
-        String token = UUID.randomUUID().toString();
-        user.setToken(token);
-        user.setLastLogin(LocalDateTime.now());
-        userRepository.save(user);
+        // Хэш с устаревшей стоимостью прозрачно пересчитывается при успешном входе
+        if (verification.upgradedHash() != null) {
+            user.setPassword(verification.upgradedHash());
+            userRepository.save(user);
+        }
+
+        // Выдаем подписанный токен; он проверяется без обращения к базе
+        String token = sessionTokenService.issue(user);
+        // Время входа пишется в базу пакетом, а не отдельным UPDATE на каждый вход
+        lastLoginRecorder.record(user.getId(), LocalDateTime.now());
 
         // Создаем базовый ответ
         LoginResponse.LoginResponseBuilder responseBuilder = LoginResponse.builder()
@@ -76,29 +104,90 @@ public class AuthService {
         return responseBuilder.build();
     }
 
-    public Optional<User> findByToken(String token) {
-        return userRepository.findByToken(token);
+    public Optional<AuthPrincipal> findByToken(String token) {
+        Optional<SessionTokenService.Claims> claims = sessionTokenService.verify(token);
+        if (claims.isEmpty() || revocationList.isRevoked(claims.get())) {
+            return Optional.empty();
+        }
+        return findPrincipal(claims.get().userId());
     }
 
-    @Transactional
-    public void logout(String token) {
-        Optional<User> userOpt = userRepository.findByToken(token);
+    private Optional<AuthPrincipal> findPrincipal(Long userId) {
+        Optional<AuthPrincipal> cached = principalCache.get(userId);
+        if (cached.isPresent()) {
+            return cached;
+        }
 
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            user.setToken(null);
-            userRepository.save(user);
+        long generation = principalCache.generation();
+        List<Object[]> rows = userRepository.findPrincipalRow(userId);
+        if (rows.isEmpty()) {
+            return Optional.empty();
         }
+        Object[] row = rows.get(0);
+        // У учеников - подавляющего большинства запросов - предметов и классов нет: одна выборка
+        boolean student = row[3] == UserRole.STUDENT;
+        AuthPrincipal principal = AuthPrincipal.fromRow(row,
+                student ? List.of() : userRepository.findSubjectIds(userId),
+                student ? List.of() : userRepository.findTeachingGradeIds(userId));
+        principalCache.put(principal, generation);
+        return Optional.of(principal);
+    }
+
+    @Transactional
+    public void logout(String token) {
+        sessionTokenService.verify(token).ifPresent(revocationList::revokeToken);
     }
 
-    public User getCurrentUser(String token) {
-        Optional<User> userOpt = findByToken(token.replace("Bearer ", ""));
+    public AuthPrincipal getCurrentUser(String token) {
+        Optional<AuthPrincipal> userOpt = findByToken(token.replace("Bearer ", ""));
         if (userOpt.isEmpty()) {
             throw new RuntimeException("Требуется авторизация");
         }
         return userOpt.get();
     }
 
+    // Данные пользователя изменились, но выданные токены остаются в силе;
+    // остальные узлы сбросят кэш по записи в session_revocations
+    @Transactional
+    public void evictUser(Long userId) {
+        revocationList.evictPrincipal(userId);
+        invalidateAfterCommit(userId);
+    }
+
+    // Роль, класс или активность изменились: все выданные токены пользователя отзываются
+    @Transactional
+    public void revokeUserSessions(Long userId) {
+        revocationList.revokeUser(userId);
+        invalidateAfterCommit(userId);
+    }
+
+    // Сброс до коммита бесполезен: параллельный запрос прочитает из базы еще старые данные
+    // и вернет их в кэш на весь TTL. Вне транзакции изменения уже записаны
+    private void invalidateAfterCommit(Long userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            principalCache.invalidate(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                principalCache.invalidate(userId);
+            }
+        });
+    }
+
+    public Map<String, Object> getPrincipalCacheStats() {
+        return principalCache.getStats();
+    }
+
+    public Map<String, Object> getPasswordHashingStats() {
+        return passwordHashingService.getStats();
+    }
+
+    public Map<String, Object> getLastLoginStats() {
+        return lastLoginRecorder.getStats();
+    }
+
     public String encodePassword(String rawPassword) {
         return passwordEncoder.encode(rawPassword);
     }
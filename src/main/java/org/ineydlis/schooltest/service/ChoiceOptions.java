@@ -0,0 +1,88 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+
+import java.util.List;
+
+/**
+ * Варианты ответа вопроса с выбором в примитивных массивах - общая часть ключей
+ * SINGLE_CHOICE и MULTIPLE_CHOICE.
+ */
+public final class ChoiceOptions {
+
+    final int points;
+    final long[] answerIds;
+    final boolean[] correct;
+    final int correctCount;
+
+    ChoiceOptions(Question question) {
+        this.points = question.getPoints() != null ? question.getPoints() : 0;
+        List<Answer> answers = question.getAnswers();
+        this.answerIds = new long[answers.size()];
+        this.correct = new boolean[answers.size()];
+        int correctAnswers = 0;
+        for (int i = 0; i < answers.size(); i++) {
+            Answer answer = answers.get(i);
+            answerIds[i] = answer.getId();
+            correct[i] = answer.isCorrect();
+            if (answer.isCorrect()) {
+                correctAnswers++;
+            }
+        }
+        this.correctCount = correctAnswers;
+    }
+
+    /**
+     * Отмечает выбранные варианты по позиции: повторы и id из других вопросов отбрасываются.
+     * Возвращает число отмеченных вариантов.
+     */
+    int pick(List<Long> selectedAnswerIds, boolean[] picked) {
+        int count = 0;
+        for (Long answerId : selectedAnswerIds) {
+            if (answerId == null) {
+                continue;
+            }
+            int position = positionOf(answerId);
+            if (position >= 0 && !picked[position]) {
+                picked[position] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int correctPicked(boolean[] picked) {
+        int count = 0;
+        for (int i = 0; i < picked.length; i++) {
+            if (picked[i] && correct[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    long[] collect(boolean[] picked, int count) {
+        if (count == 0) {
+            return Grader.Outcome.NO_SELECTION;
+        }
+        long[] selected = new long[count];
+        int next = 0;
+        for (int i = 0; i < picked.length; i++) {
+            if (picked[i]) {
+                selected[next++] = answerIds[i];
+            }
+        }
+        return selected;
+    }
+
+    // Вариантов у вопроса немного, линейный проход дешевле хеш-таблицы
+    private int positionOf(long answerId) {
+        for (int i = 0; i < answerIds.length; i++) {
+            if (answerIds[i] == answerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
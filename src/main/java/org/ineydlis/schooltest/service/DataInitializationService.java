@@ -7,8 +7,11 @@ import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
 import org.ineydlis.schooltest.repository.GradeRepository;
 import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.repository.TestRepository;
+import org.ineydlis.schooltest.repository.TestResultRepository;
 import org.ineydlis.schooltest.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -36,6 +39,15 @@ public class DataInitializationService {
     private UserRepository userRepository;
     @Autowired
     private PasswordEncoder passwordEncoder;
+    @Autowired
+    private TestRepository testRepository;
+    @Autowired
+    private TestResultRepository testResultRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Таблицы, id которых выдаются последовательностью <таблица>_seq с шагом 50
+    private static final List<String> SEQUENCE_TABLES = List.of("questions", "answers", "student_answers");
 
     @PostConstruct
     @Transactional
@@ -43,6 +55,40 @@ public class DataInitializationService {
         initializeGrades();
         initializeSubjects();
         initializeAdmin();
+        testRepository.backfillQuestionStats();
+        testResultRepository.backfillDeadlines();
+        testResultRepository.closeDuplicateOpenAttempts();
+        testResultRepository.backfillOpenAttempts();
+        alignSequences();
+        backfillSelectedMasks();
+    }
+
+    // Последовательность, созданная при переходе с IDENTITY, начинается с 1: переносим ее
+    // за уже занятые id. Hibernate берет из нее верхнюю границу очередной пачки из 50 id,
+    // поэтому последовательность, ушедшая вперед, не трогается
+    private void alignSequences() {
+        for (String table : SEQUENCE_TABLES) {
+            String sequence = table + "_seq";
+            jdbcTemplate.query("SELECT setval('" + sequence + "', (SELECT COALESCE(MAX(id), 0) + 50 FROM " + table + "), false) " +
+                    "WHERE (SELECT last_value FROM " + sequence + ") <= (SELECT COALESCE(MAX(id), 0) FROM " + table + ")",
+                    resultSet -> { });
+        }
+    }
+
+    // Выбранные варианты раньше лежали в student_answer_choices; переносим их в selected_mask
+    // (бит - позиция варианта среди вариантов вопроса по id). Старая таблица больше не пишется
+    private void backfillSelectedMasks() {
+        Boolean legacyTable = jdbcTemplate.queryForObject(
+                "SELECT to_regclass('student_answer_choices') IS NOT NULL", Boolean.class);
+        if (!Boolean.TRUE.equals(legacyTable)) {
+            return;
+        }
+        jdbcTemplate.update("UPDATE student_answers sa SET selected_mask = m.mask FROM (" +
+                "SELECT c.student_answer_id, SUM(CAST(1 AS BIGINT) << CAST(a.pos AS INT)) AS mask " +
+                "FROM student_answer_choices c JOIN (" +
+                "SELECT id, ROW_NUMBER() OVER (PARTITION BY question_id ORDER BY id) - 1 AS pos FROM answers) a " +
+                "ON a.id = c.answer_id WHERE a.pos < 64 GROUP BY c.student_answer_id) m " +
+                "WHERE sa.id = m.student_answer_id AND sa.selected_mask IS NULL");
     }
     private void initializeAdmin() {
         if (userRepository.count() == 0) {
@@ -0,0 +1,154 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Допуск к началу теста и выдаче вопросов.
+ * <p>
+ * По команде учителя весь класс за пару секунд запускает тест и запрашивает вопросы,
+ * и каждый запрос занимает соединение из пула. Перед этими запросами стоит ведро токенов
+ * своего теста: burst запросов проходят сразу, дальше - rate-per-second в секунду.
+ * Запрос без токена ждет своей очереди, если ждать не дольше max-wait-ms и ждущих
+ * по тесту меньше queue-capacity; иначе сразу получает 429 с подсказкой, через сколько
+ * секунд повторить. Ждущий запрос держит поток Tomcat, но не соединение с базой.
+ */
+@Service
+public class ExamAdmissionService {
+
+    private final boolean enabled;
+    private final double ratePerSecond;
+    private final int burst;
+    private final long maxWaitNanos;
+    private final int queueCapacity;
+
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitedMillis = new LongAdder();
+
+    public ExamAdmissionService(@Value("${schooltest.admission.enabled:true}") boolean enabled,
+                                @Value("${schooltest.admission.rate-per-second:50}") double ratePerSecond,
+                                @Value("${schooltest.admission.burst:50}") int burst,
+                                @Value("${schooltest.admission.max-wait-ms:2000}") long maxWaitMillis,
+                                @Value("${schooltest.admission.queue-capacity:50}") int queueCapacity) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate-per-second и burst должны быть положительными");
+        }
+        this.enabled = enabled;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Пропускает запрос к тесту: сразу, после ожидания своей очереди или исключением 429.
+     */
+    public void admit(Long testId) {
+        if (!enabled) {
+            return;
+        }
+        Bucket bucket = buckets.computeIfAbsent(testId, id -> new Bucket(burst));
+        long waitNanos = bucket.reserve(System.nanoTime());
+        if (waitNanos < 0) {
+            rejected.increment();
+            // -waitNanos - сколько пришлось бы ждать; повторять есть смысл, когда ожидание уложится в max-wait
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(-waitNanos - maxWaitNanos) + 1);
+            throw new TooManyRequestsException("Тест сейчас запускают многие ученики, повторите попытку через "
+                    + retryAfter + " с", retryAfter);
+        }
+        if (waitNanos == 0) {
+            admitted.increment();
+            return;
+        }
+
+        delayed.increment();
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ожидание допуска к тесту прервано");
+        } finally {
+            bucket.leave();
+        }
+        waitedMillis.add(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        admitted.increment();
+    }
+
+    // Ведра полностью восстановившихся тестов без ждущих больше не нужны
+    @Scheduled(fixedDelayString = "${schooltest.admission.cleanup-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.entrySet().removeIf(entry -> entry.getValue().isIdle(now));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ratePerSecond", ratePerSecond);
+        stats.put("burst", burst);
+        stats.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("activeTests", buckets.size());
+        stats.put("admitted", admitted.sum());
+        stats.put("delayed", delayed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("waitedMillis", waitedMillis.sum());
+        return stats;
+    }
+
+    /**
+     * Ведро токенов одного теста. Токены могут уйти в минус: это места в очереди,
+     * уже обещанные ждущим запросам, так что каждый следующий ждет дольше предыдущего.
+     */
+    private final class Bucket {
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private int waiting;
+
+        private Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+
+        // Время ожидания в наносекундах; отрицательное - отказ, по модулю - сколько пришлось бы ждать
+        synchronized long reserve(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            long waitNanos = (long) Math.ceil((1 - tokens) / ratePerSecond * 1e9);
+            if (waitNanos > maxWaitNanos || waiting >= queueCapacity) {
+                return -Math.max(1, waitNanos);
+            }
+            tokens -= 1;
+            waiting++;
+            return waitNanos;
+        }
+
+        synchronized void leave() {
+            waiting--;
+        }
+
+        synchronized boolean isIdle(long now) {
+            refill(now);
+            return waiting == 0 && tokens >= burst;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * ratePerSecond);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.AnswerDto;
+import org.ineydlis.schooltest.dto.QuestionDto;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.Test;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Кэш вопросов теста в том виде, в котором их получает ученик (без правильных ответов),
+ * вместе со скомпилированным ключом ответов для проверки попыток.
+ * <p>
+ * Снимок неизменяемый и версионируется по {@code Test.updatedAt}: если тест изменился,
+ * а запись не успели вытеснить, версия не совпадет и снимок будет собран заново.
+ * Одновременные запросы к одному тесту собирают снимок один раз: в карте лежит future сборки,
+ * а сама сборка (чтение теста из базы и компиляция ключа) идет вне блокировок карты,
+ * поэтому медленная загрузка одного теста не задерживает запросы к другим.
+ */
+@Component
+public class ExamSnapshotCache {
+
+    private final GraderRegistry graders;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<ExamSnapshot>> snapshots = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExamSnapshotCache(GraderRegistry graders) {
+        this.graders = graders;
+    }
+
+    // loader вызывается только при промахе и должен вернуть тест с вопросами и вариантами ответов
+    public ExamSnapshot get(Long testId, LocalDateTime version, Supplier<Test> loader) {
+        while (true) {
+            CompletableFuture<ExamSnapshot> cached = snapshots.get(testId);
+            if (cached != null) {
+                ExamSnapshot snapshot = await(testId, cached);
+                if (snapshot != null && Objects.equals(snapshot.version(), version)) {
+                    hits.increment();
+                    return snapshot;
+                }
+            }
+            // Сборку начинает тот, чей future попал в карту; остальные ждут его
+            CompletableFuture<ExamSnapshot> own = new CompletableFuture<>();
+            boolean claimed = cached != null
+                    ? snapshots.replace(testId, cached, own)
+                    : snapshots.putIfAbsent(testId, own) == null;
+            if (!claimed) {
+                continue;
+            }
+            builds.increment();
+            try {
+                ExamSnapshot snapshot = ExamSnapshot.of(loader.get(), graders);
+                own.complete(snapshot);
+                return snapshot;
+            } catch (Throwable e) {
+                // Неудачная сборка не остается в кэше: следующий запрос соберет снимок заново
+                snapshots.remove(testId, own);
+                own.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    // Снимок из future; null, если сборка другого запроса не удалась и ее нужно повторить
+    private ExamSnapshot await(Long testId, CompletableFuture<ExamSnapshot> future) {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            snapshots.remove(testId, future);
+            return null;
+        }
+    }
+
+    public void evict(Long testId) {
+        if (snapshots.remove(testId) != null) {
+            evictions.increment();
+        }
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", snapshots.size());
+        stats.put("hits", hits.sum());
+        stats.put("builds", builds.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    /**
+     * Вопросы теста в порядке хранения, индекс по id и ключ ответов. Общие для всех запросов объекты
+     * неизменяемы: вопросы - записи с неизменяемыми списками, а ответ клиенту строится из них
+     * копиями QuestionDto (toDto).
+     */
+    public record ExamSnapshot(Long testId, LocalDateTime version,
+                               List<QuestionView> questions, Map<Long, QuestionView> questionsById,
+                               AnswerKey answerKey) {
+
+        static ExamSnapshot of(Test test, GraderRegistry graders) {
+            List<QuestionView> questions = test.getQuestions().stream()
+                    .map(q -> QuestionView.of(QuestionDto.fromEntity(q, false)))
+                    .toList();
+            Map<Long, QuestionView> byId = new LinkedHashMap<>();
+            for (QuestionView question : questions) {
+                byId.put(question.id(), question);
+            }
+            return new ExamSnapshot(test.getId(), test.getUpdatedAt(), questions, Collections.unmodifiableMap(byId),
+                    AnswerKey.compile(test, graders));
+        }
+
+        public static int maxScore(List<QuestionView> questions) {
+            return questions.stream()
+                    .mapToInt(q -> q.points() != null ? q.points() : 0)
+                    .sum();
+        }
+    }
+
+    // Вопрос для ученика; варианты без признака правильности
+    public record QuestionView(Long id, String text, QuestionType type, Integer points, List<OptionView> options) {
+
+        static QuestionView of(QuestionDto question) {
+            List<OptionView> options = question.getAnswers() != null
+                    ? question.getAnswers().stream().map(a -> new OptionView(a.getId(), a.getText())).toList()
+                    : List.of();
+            return new QuestionView(question.getId(), question.getText(), question.getType(), question.getPoints(),
+                    options);
+        }
+
+        // Новый DTO на каждый ответ: изменения вызывающего не попадают в кэш
+        public QuestionDto toDto() {
+            List<AnswerDto> answers = new ArrayList<>(options.size());
+            for (OptionView option : options) {
+                answers.add(AnswerDto.builder().id(option.id()).text(option.text()).build());
+            }
+            return QuestionDto.builder().id(id).text(text).type(type).points(points).answers(answers).build();
+        }
+    }
+
+    public record OptionView(Long id, String text) {
+    }
+}
@@ -0,0 +1,38 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+
+import java.util.List;
+
+/**
+ * Проверка ответов одного типа вопросов.
+ * <p>
+ * Реализация регистрируется как Spring-бин и подхватывается {@link GraderRegistry} по {@link #type()}.
+ * Ключ вопроса компилируется один раз при сборке снимка теста и не должен изменяться:
+ * его разделяют все одновременные проверки. Новый тип вопроса добавляется новой
+ * реализацией без изменений в TestService и в остальных проверках.
+ *
+ * @param <K> скомпилированный ключ вопроса
+ */
+public interface Grader<K> {
+
+    QuestionType type();
+
+    K compile(Question question);
+
+    Outcome grade(K key, String textAnswer, List<Long> selectedAnswerIds);
+
+    /**
+     * Результат проверки одного ответа. selectedAnswerIds - выбранные варианты этого вопроса
+     * без повторов и чужих id; partialRatio заполняется только для частичного балла.
+     */
+    record Outcome(boolean correct, int earnedPoints, Double partialRatio, long[] selectedAnswerIds) {
+
+        static final long[] NO_SELECTION = new long[0];
+
+        static Outcome of(boolean correct, int points, long[] selectedAnswerIds) {
+            return new Outcome(correct, correct ? points : 0, null, selectedAnswerIds);
+        }
+    }
+}
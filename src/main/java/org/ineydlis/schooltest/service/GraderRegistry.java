@@ -0,0 +1,125 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реестр проверок по типам вопросов и конвейер проверки: компилирует ключ вопроса
+ * подходящей реализацией {@link Grader}, считает проверки и выборочно замеряет их время
+ * отдельно по каждому типу.
+ */
+@Component
+public class GraderRegistry {
+
+    // Время замеряется у каждой восьмой проверки: System.nanoTime дороже самой проверки ответа
+    static final int TIMING_SAMPLE_RATE = 8;
+
+    private final Map<QuestionType, Registration<?>> registrations = new EnumMap<>(QuestionType.class);
+
+    public GraderRegistry(List<Grader<?>> graders) {
+        for (Grader<?> grader : graders) {
+            Registration<?> previous = registrations.put(grader.type(), new Registration<>(grader));
+            if (previous != null) {
+                throw new IllegalStateException("Для типа " + grader.type() + " зарегистрировано несколько проверок: "
+                        + previous.grader.getClass().getSimpleName() + ", " + grader.getClass().getSimpleName());
+            }
+        }
+    }
+
+    public CompiledQuestion<?> compile(Question question) {
+        Registration<?> registration = registrations.get(question.getType());
+        if (registration == null) {
+            throw new IllegalStateException("Нет проверки для типа вопроса " + question.getType());
+        }
+        return registration.compile(question);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        registrations.forEach((type, registration) -> stats.put(type.name(), registration.getStats()));
+        return stats;
+    }
+
+    /**
+     * Ключ вопроса вместе с его проверкой. Неизменяемый, разделяется всеми проверками попыток.
+     */
+    public static final class CompiledQuestion<K> {
+        private final long questionId;
+        private final QuestionType type;
+        private final K key;
+        private final Registration<K> registration;
+
+        private CompiledQuestion(long questionId, QuestionType type, K key, Registration<K> registration) {
+            this.questionId = questionId;
+            this.type = type;
+            this.key = key;
+            this.registration = registration;
+        }
+
+        public long questionId() {
+            return questionId;
+        }
+
+        public QuestionType type() {
+            return type;
+        }
+
+        public Grader.Outcome grade(String textAnswer, List<Long> selectedAnswerIds) {
+            registration.graded.increment();
+            if (ThreadLocalRandom.current().nextInt(TIMING_SAMPLE_RATE) != 0) {
+                return registration.grader.grade(key, textAnswer, selectedAnswerIds);
+            }
+            long start = System.nanoTime();
+            try {
+                return registration.grader.grade(key, textAnswer, selectedAnswerIds);
+            } finally {
+                registration.recordTiming(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static final class Registration<K> {
+        private final Grader<K> grader;
+        private final LongAdder compiled = new LongAdder();
+        private final LongAdder graded = new LongAdder();
+        private final LongAdder timed = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        Registration(Grader<K> grader) {
+            this.grader = grader;
+        }
+
+        CompiledQuestion<K> compile(Question question) {
+            compiled.increment();
+            return new CompiledQuestion<>(question.getId(), question.getType(), grader.compile(question), this);
+        }
+
+        void recordTiming(long nanos) {
+            timed.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> getStats() {
+            long sampled = timed.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("grader", grader.getClass().getSimpleName());
+            stats.put("compiled", compiled.sum());
+            stats.put("graded", graded.sum());
+            stats.put("timed", sampled);
+            stats.put("avgMicros", sampled > 0 ? totalNanos.sum() / 1e3 / sampled : 0.0);
+            stats.put("maxMicros", maxNanos.get() / 1e3);
+            return stats;
+        }
+    }
+}
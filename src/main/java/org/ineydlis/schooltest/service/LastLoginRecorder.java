@@ -0,0 +1,108 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отложенная запись времени последнего входа. Повторные входы одного пользователя
+ * схлопываются в одно значение, а накопленное сбрасывается пакетным UPDATE по таймеру
+ * и при остановке приложения.
+ * <p>
+ * lastLogin носит справочный характер: при падении узла теряются только отметки
+ * за последний интервал. UPDATE никогда не уменьшает уже записанное значение,
+ * поэтому порядок сброса с разных узлов не важен.
+ */
+@Component
+public class LastLoginRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(LastLoginRecorder.class);
+
+    private static final String UPDATE_SQL =
+            "UPDATE users SET last_login = ? WHERE id = ? AND (last_login IS NULL OR last_login < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    private final ConcurrentHashMap<Long, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public LastLoginRecorder(JdbcTemplate jdbcTemplate,
+                             @Value("${schooltest.auth.last-login.batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    public void record(Long userId, LocalDateTime loginTime) {
+        keepLatest(userId, loginTime);
+        recorded.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${schooltest.auth.last-login.flush-ms:2000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Забираем записи по одной: вход, случившийся во время сброса, попадет в следующий пакет
+        List<Object[]> batch = new ArrayList<>();
+        for (Long userId : pending.keySet()) {
+            LocalDateTime loginTime = pending.remove(userId);
+            if (loginTime != null) {
+                Timestamp timestamp = Timestamp.valueOf(loginTime);
+                batch.add(new Object[]{timestamp, userId, timestamp});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (int from = 0; from < batch.size(); from += batchSize) {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, batch.subList(from, Math.min(batch.size(), from + batchSize)));
+            }
+            written.add(batch.size());
+            flushes.increment();
+        } catch (RuntimeException e) {
+            // Возвращаем значения в буфер, не затирая более поздние входы
+            for (Object[] row : batch) {
+                keepLatest((Long) row[1], ((Timestamp) row[0]).toLocalDateTime());
+            }
+            log.warn("Не удалось сохранить время входа для {} пользователей: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private void keepLatest(Long userId, LocalDateTime loginTime) {
+        pending.merge(userId, loginTime, (current, next) -> next.isAfter(current) ? next : current);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("recorded", recorded.sum());
+        stats.put("written", written.sum());
+        stats.put("flushes", flushes.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,56 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Частичный балл: доля выбранных правильных вариантов минус половина доли выбранных неправильных.
+ * Знаменатели посчитаны при компиляции ключа.
+ */
+@Component
+public class MultipleChoiceGrader implements Grader<MultipleChoiceGrader.Key> {
+
+    @Override
+    public QuestionType type() {
+        return QuestionType.MULTIPLE_CHOICE;
+    }
+
+    @Override
+    public Key compile(Question question) {
+        ChoiceOptions options = new ChoiceOptions(question);
+        return new Key(options, options.correctCount, options.answerIds.length - options.correctCount);
+    }
+
+    @Override
+    public Outcome grade(Key key, String textAnswer, List<Long> selectedAnswerIds) {
+        ChoiceOptions options = key.options();
+        if (selectedAnswerIds == null || selectedAnswerIds.isEmpty()) {
+            return Outcome.of(false, options.points, Outcome.NO_SELECTION);
+        }
+        boolean[] picked = new boolean[options.answerIds.length];
+        int pickedCount = options.pick(selectedAnswerIds, picked);
+        long[] selected = options.collect(picked, pickedCount);
+
+        if (options.correctCount == 0) {
+            // Правильных вариантов нет: верно, только если ничего не выбрано
+            return Outcome.of(pickedCount == 0, options.points, selected);
+        }
+        int pickedCorrect = options.correctPicked(picked);
+        double correctRatio = pickedCorrect / key.correctDenominator();
+        // Штраф за неверные выборы пропорционален их доле и взят с коэффициентом 0.5,
+        // чтобы небольшая ошибка не обнуляла балл
+        double incorrectPenalty = key.incorrectDenominator() > 0
+                ? (pickedCount - pickedCorrect) / key.incorrectDenominator()
+                : 0;
+        double ratio = Math.max(0, correctRatio - (incorrectPenalty * 0.5));
+        int partialPoints = (int) Math.round(options.points * ratio);
+        return new Outcome(ratio == 1.0, partialPoints, ratio, selected);
+    }
+
+    // Знаменатели частичного балла: число правильных и неправильных вариантов
+    public record Key(ChoiceOptions options, double correctDenominator, double incorrectDenominator) {
+    }
+}
@@ -0,0 +1,128 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.annotation.PreDestroy;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Проверка паролей BCrypt на отдельном ограниченном пуле потоков.
+ * Волна входов в начале урока не занимает все ядра и потоки Tomcat: лишние
+ * запросы сразу получают 429, а не встают в бесконечную очередь.
+ */
+@Service
+public class PasswordHashingService {
+
+    private final PasswordEncoder passwordEncoder;
+    private final int strength;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rehashed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  @Value("${schooltest.auth.bcrypt.strength:10}") int strength,
+                                  @Value("${schooltest.auth.hashing.threads:0}") int threads,
+                                  @Value("${schooltest.auth.hashing.queue-capacity:64}") int queueCapacity,
+                                  @Value("${schooltest.auth.hashing.timeout-ms:5000}") long timeoutMillis) {
+        this.passwordEncoder = passwordEncoder;
+        this.strength = strength;
+        this.timeoutMillis = timeoutMillis;
+
+        // По умолчанию половина ядер: остальное остается обычным запросам
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Проверяет пароль. Если хэш создан с другой стоимостью, возвращает новый хэш
+     * с текущей стоимостью, чтобы вызывающий код сохранил его.
+     */
+    public VerificationResult verify(String rawPassword, String encodedPassword) {
+        Future<VerificationResult> future;
+        try {
+            future = executor.submit(() -> doVerify(rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequestsException("Слишком много одновременных входов, повторите попытку через несколько секунд", 2);
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            throw new TooManyRequestsException("Сервер перегружен, повторите попытку входа позже", 5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Проверка пароля прервана");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Ошибка проверки пароля", e.getCause());
+        }
+    }
+
+    private VerificationResult doVerify(String rawPassword, String encodedPassword) {
+        verified.increment();
+        if (rawPassword == null || encodedPassword == null || !passwordEncoder.matches(rawPassword, encodedPassword)) {
+            return new VerificationResult(false, null);
+        }
+        if (extractCost(encodedPassword) != strength) {
+            rehashed.increment();
+            return new VerificationResult(true, passwordEncoder.encode(rawPassword));
+        }
+        return new VerificationResult(true, null);
+    }
+
+    // Хэш BCrypt имеет вид $2a$10$..., где 10 - стоимость
+    static int extractCost(String encodedPassword) {
+        if (encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$') {
+            return -1;
+        }
+        int end = encodedPassword.indexOf('$', 4);
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, end));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("strength", strength);
+        stats.put("poolSize", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        stats.put("verified", verified.sum());
+        stats.put("rehashed", rehashed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("timedOut", timedOut.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public record VerificationResult(boolean matches, String upgradedHash) {
+    }
+}
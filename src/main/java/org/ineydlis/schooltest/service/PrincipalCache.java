@@ -0,0 +1,122 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный по размеру кэш "id пользователя -> AuthPrincipal" с TTL и LRU-вытеснением.
+ * Вместе с подписанными токенами снимает с базы авторизацию почти всех запросов.
+ * <p>
+ * Хранятся только неизменяемые AuthPrincipal, общие для всех потоков. Запрос, начавший чтение
+ * из базы до сброса записи, мог прочитать старые данные, поэтому put принимает поколение,
+ * полученное до чтения, и ничего не кладет, если с тех пор был сброс.
+ */
+@Component
+public class PrincipalCache {
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Long, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder staleLoads = new LongAdder();
+
+    // Увеличивается при каждом сбросе; сбросы редки (изменения администратором), поэтому
+    // одного счетчика на весь кэш достаточно
+    private long generation;
+
+    public PrincipalCache(@Value("${schooltest.auth.cache.max-size:10000}") int maxSize,
+                          @Value("${schooltest.auth.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        // accessOrder = true: самый давно используемый элемент всегда первый
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > PrincipalCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Optional<AuthPrincipal> get(Long userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(userId);
+            expirations.increment();
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(entry.principal);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    // Поколение берется до чтения принципала из базы и передается в put
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void put(AuthPrincipal principal, long loadedAtGeneration) {
+        if (loadedAtGeneration != generation) {
+            staleLoads.increment();
+            return;
+        }
+        entries.put(principal.id(), new Entry(principal, System.currentTimeMillis() + ttlMillis));
+    }
+
+    // Используется при изменении, деактивации и удалении пользователя администратором
+    public synchronized void invalidate(Long userId) {
+        generation++;
+        entries.remove(userId);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlMillis / 1000);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("staleLoads", staleLoads.sum());
+        stats.put("hitRatio", total > 0 ? (double) hitCount / total : 0.0);
+        return stats;
+    }
+
+    private record Entry(AuthPrincipal principal, long expiresAt) {
+    }
+}
@@ -0,0 +1,161 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.SessionRevocation;
+import org.ineydlis.schooltest.repository.SessionRevocationRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Небольшой список отозванных токенов. Проверка выполняется в памяти; таблица
+ * session_revocations нужна только для того, чтобы другие узлы получили отзыв
+ * при очередной синхронизации.
+ * <p>
+ * Через ту же таблицу узлы узнают об изменении пользователя: при любом отзыве по пользователю
+ * и при записи "только сброс кэша" каждый узел сбрасывает свой PrincipalCache.
+ * <p>
+ * Отзыв по пользователю сравнивает время выдачи токена с временем отзыва, взятые с часов
+ * разных узлов. Предполагается, что часы синхронизированы (NTP) с расхождением заметно меньше
+ * секунды: вход на другом узле в пределах расхождения от отзыва может быть отклонен или пропущен.
+ */
+@Component
+public class SessionRevocationList {
+
+    private final SessionRevocationRepository revocationRepository;
+    private final SessionTokenService sessionTokenService;
+    private final PrincipalCache principalCache;
+
+    // tokenId -> время истечения токена
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // userId -> токены, выданные раньше этого момента, недействительны
+    private final Map<Long, Long> revokedUsers = new ConcurrentHashMap<>();
+    private final Map<Long, Long> revokedUsersExpiry = new ConcurrentHashMap<>();
+    // id уже примененных записей -> время истечения записи
+    private final Map<Long, Long> appliedIds = new ConcurrentHashMap<>();
+
+    public SessionRevocationList(SessionRevocationRepository revocationRepository,
+                                 SessionTokenService sessionTokenService,
+                                 PrincipalCache principalCache) {
+        this.revocationRepository = revocationRepository;
+        this.sessionTokenService = sessionTokenService;
+        this.principalCache = principalCache;
+    }
+
+    public boolean isRevoked(SessionTokenService.Claims claims) {
+        if (revokedTokens.containsKey(claims.tokenId())) {
+            return true;
+        }
+        // Строго раньше: вход в ту же миллисекунду, что и отзыв, уже после него
+        Long revokedBefore = revokedUsers.get(claims.userId());
+        return revokedBefore != null && claims.issuedAt() < revokedBefore;
+    }
+
+    public void revokeToken(SessionTokenService.Claims claims) {
+        SessionRevocation revocation = new SessionRevocation();
+        revocation.setTokenId(claims.tokenId());
+        revocation.setUserId(claims.userId());
+        revocation.setRevokedAt(System.currentTimeMillis());
+        revocation.setExpiresAt(claims.expiresAt());
+
+        save(revocation);
+        applyAfterCommit(revocation);
+    }
+
+    // Кэш принципала на этом узле сбрасывает вызывающий, после коммита
+    public void revokeUser(Long userId) {
+        long now = System.currentTimeMillis();
+        SessionRevocation revocation = new SessionRevocation();
+        revocation.setUserId(userId);
+        revocation.setRevokedAt(now);
+        revocation.setExpiresAt(now + sessionTokenService.getTtlMillis());
+
+        save(revocation);
+        applyAfterCommit(revocation);
+    }
+
+    /**
+     * Данные пользователя изменились без отзыва токенов (предметы, классы учителя):
+     * остальные узлы сбросят его из PrincipalCache при синхронизации. Запись нужна,
+     * пока на узлах может жить старая запись кэша.
+     */
+    public void evictPrincipal(Long userId) {
+        long now = System.currentTimeMillis();
+        SessionRevocation revocation = new SessionRevocation();
+        revocation.setUserId(userId);
+        revocation.setRevokedAt(now);
+        revocation.setExpiresAt(now + principalCache.getTtlMillis());
+        revocation.setPrincipalOnly(true);
+        save(revocation);
+    }
+
+    /**
+     * Подтягиваем отзывы, сделанные на других узлах, и чистим истекшие записи.
+     * Читаются все действующие записи, а не только с id больше последнего: id выдаются
+     * при вставке, а транзакция с меньшим id может закоммититься позже. Таблица небольшая -
+     * в ней живут только записи, срок которых еще не прошел.
+     */
+    @Scheduled(fixedDelayString = "${schooltest.auth.revocation.refresh-ms:5000}")
+    @Transactional
+    public void refresh() {
+        long now = System.currentTimeMillis();
+
+        for (SessionRevocation revocation : revocationRepository.findByExpiresAtGreaterThan(now)) {
+            if (appliedIds.putIfAbsent(revocation.getId(), revocation.getExpiresAt()) != null) {
+                continue;
+            }
+            apply(revocation);
+            if (revocation.getTokenId() == null) {
+                principalCache.invalidate(revocation.getUserId());
+            }
+        }
+
+        revokedTokens.values().removeIf(expiresAt -> expiresAt < now);
+        revokedUsersExpiry.entrySet().removeIf(entry -> {
+            if (entry.getValue() < now) {
+                revokedUsers.remove(entry.getKey());
+                return true;
+            }
+            return false;
+        });
+        appliedIds.values().removeIf(expiresAt -> expiresAt < now);
+
+        revocationRepository.deleteExpired(now);
+    }
+
+    // Своя запись уже применена на этом узле
+    private void save(SessionRevocation revocation) {
+        SessionRevocation saved = revocationRepository.save(revocation);
+        appliedIds.put(saved.getId(), saved.getExpiresAt());
+    }
+
+    // При откате транзакции вызывающего отзыва нет ни в базе, ни на других узлах - не должно быть и здесь
+    private void applyAfterCommit(SessionRevocation revocation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(revocation);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(revocation);
+            }
+        });
+    }
+
+    private void apply(SessionRevocation revocation) {
+        if (Boolean.TRUE.equals(revocation.getPrincipalOnly())) {
+            return;
+        }
+        if (revocation.getTokenId() != null) {
+            revokedTokens.put(revocation.getTokenId(), revocation.getExpiresAt());
+        } else {
+            revokedUsers.merge(revocation.getUserId(), revocation.getRevokedAt(), Math::max);
+            revokedUsersExpiry.merge(revocation.getUserId(), revocation.getExpiresAt(), Math::max);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Подписанные HMAC-SHA256 токены сессии. Токен содержит id пользователя, роль,
+ * класс и срок действия, поэтому проверяется без обращения к базе.
+ * <p>
+ * Ключи задаются списком {@code kid:base64-секрет} через запятую; первым ключом
+ * подписываются новые токены, остальные принимаются только для проверки (ротация).
+ */
+@Component
+public class SessionTokenService {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionTokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String VERSION = "v1";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, SecretKeySpec> keys = new LinkedHashMap<>();
+    private final String activeKeyId;
+    private final long ttlMillis;
+
+    public SessionTokenService(@Value("${schooltest.auth.token.keys:}") String keysProperty,
+                               @Value("${schooltest.auth.token.ttl-minutes:720}") long ttlMinutes) {
+        this.ttlMillis = ttlMinutes * 60_000;
+
+        if (keysProperty != null && !keysProperty.isBlank()) {
+            for (String entry : keysProperty.split(",")) {
+                String[] parts = entry.trim().split(":", 2);
+                if (parts.length != 2 || parts[0].isBlank() || parts[0].contains(".")) {
+                    throw new IllegalArgumentException("Неверный формат ключа токена: ожидается kid:секрет");
+                }
+                keys.put(parts[0], new SecretKeySpec(Base64.getDecoder().decode(parts[1]), ALGORITHM));
+            }
+        } else {
+            // Без настроенных ключей токены действуют только на этом узле и до перезапуска
+            byte[] secret = new byte[32];
+            random.nextBytes(secret);
+            keys.put("local", new SecretKeySpec(secret, ALGORITHM));
+            log.warn("schooltest.auth.token.keys не задан, используется случайный ключ подписи токенов");
+        }
+        this.activeKeyId = keys.keySet().iterator().next();
+    }
+
+    public String issue(User user) {
+        long now = System.currentTimeMillis();
+        byte[] tokenId = new byte[12];
+        random.nextBytes(tokenId);
+
+        String body = String.join(".",
+                VERSION,
+                activeKeyId,
+                ENCODER.encodeToString(tokenId),
+                String.valueOf(user.getId()),
+                user.getRole().name(),
+                user.getGrade() != null ? String.valueOf(user.getGrade().getId()) : "",
+                String.valueOf(now),
+                String.valueOf(now + ttlMillis));
+
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(bodyBytes) + "." + ENCODER.encodeToString(sign(keys.get(activeKeyId), bodyBytes));
+    }
+
+    public Optional<Claims> verify(String token) {
+        if (token == null || token.isEmpty()) {
+            return Optional.empty();
+        }
+        if (token.startsWith("Bearer ")) {
+            token = token.substring(7);
+        }
+
+        int separator = token.indexOf('.');
+        if (separator <= 0 || separator != token.lastIndexOf('.')) {
+            return Optional.empty();
+        }
+
+        try {
+            byte[] bodyBytes = DECODER.decode(token.substring(0, separator));
+            byte[] signature = DECODER.decode(token.substring(separator + 1));
+
+            String[] parts = new String(bodyBytes, StandardCharsets.UTF_8).split("\\.", -1);
+            if (parts.length != 8 || !VERSION.equals(parts[0])) {
+                return Optional.empty();
+            }
+
+            SecretKeySpec key = keys.get(parts[1]);
+            if (key == null || !MessageDigest.isEqual(sign(key, bodyBytes), signature)) {
+                return Optional.empty();
+            }
+
+            long expiresAt = Long.parseLong(parts[7]);
+            if (expiresAt <= System.currentTimeMillis()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(new Claims(
+                    parts[2],
+                    Long.parseLong(parts[3]),
+                    UserRole.valueOf(parts[4]),
+                    parts[5].isEmpty() ? null : Long.parseLong(parts[5]),
+                    Long.parseLong(parts[6]),
+                    expiresAt));
+        } catch (IllegalArgumentException e) {
+            // Некорректный base64, число или роль - токен просто недействителен
+            return Optional.empty();
+        }
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    private byte[] sign(SecretKeySpec key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC недоступен", e);
+        }
+    }
+
+    public record Claims(String tokenId, Long userId, UserRole role, Long gradeId, long issuedAt, long expiresAt) {
+    }
+}
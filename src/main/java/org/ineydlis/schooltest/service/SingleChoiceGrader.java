@@ -0,0 +1,33 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Верно, только если выбран ровно один вариант и он правильный
+@Component
+public class SingleChoiceGrader implements Grader<ChoiceOptions> {
+
+    @Override
+    public QuestionType type() {
+        return QuestionType.SINGLE_CHOICE;
+    }
+
+    @Override
+    public ChoiceOptions compile(Question question) {
+        return new ChoiceOptions(question);
+    }
+
+    @Override
+    public Outcome grade(ChoiceOptions options, String textAnswer, List<Long> selectedAnswerIds) {
+        if (selectedAnswerIds == null || selectedAnswerIds.isEmpty()) {
+            return Outcome.of(false, options.points, Outcome.NO_SELECTION);
+        }
+        boolean[] picked = new boolean[options.answerIds.length];
+        int count = options.pick(selectedAnswerIds, picked);
+        boolean correct = count == 1 && options.correctPicked(picked) == 1;
+        return Outcome.of(correct, options.points, options.collect(picked, count));
+    }
+}
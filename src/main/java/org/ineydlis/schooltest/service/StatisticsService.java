@@ -1,6 +1,7 @@
 package org.ineydlis.schooltest.service;
 
 import lombok.RequiredArgsConstructor;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
 import org.ineydlis.schooltest.dto.StatisticViewDto;
 import org.ineydlis.schooltest.dto.TestResultDetailsDto;
 import org.ineydlis.schooltest.dto.UserStatDto;
@@ -21,14 +22,11 @@ public class StatisticsService {
     private final SubjectRepository subjectRepository;
     private final GradeRepository gradeRepository;
     private final TestRepository testRepository;
-    private final AuthService authService;
 
     /**
      * Check if user has access to view statistics
      */
-    public boolean canAccessStatistics(String token, Long entityId, StatisticsAccessType accessType) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
+    public boolean canAccessStatistics(AuthPrincipal currentUser, Long entityId, StatisticsAccessType accessType) {
         switch (accessType) {
             case TEST_RESULT:
                 return canAccessTestStatistics(currentUser, entityId);
@@ -43,101 +41,101 @@ public class StatisticsService {
         }
     }
 
-    private boolean canAccessTestStatistics(User currentUser, Long testResultId) {
+    private boolean canAccessTestStatistics(AuthPrincipal currentUser, Long testResultId) {
         // Admin can access any test result
-        if (currentUser.getRole() == UserRole.ADMIN) {
+        if (currentUser.role() == UserRole.ADMIN) {
             return true;
         }
 
-        TestResult testResult = testResultRepository.findById(testResultId)
+        TestResult testResult = testResultRepository.findSummaryById(testResultId)
                 .orElseThrow(() -> new RuntimeException("Test result not found"));
 
         // Students can only access their own test results
-        if (currentUser.getRole() == UserRole.STUDENT) {
-            return currentUser.getId().equals(testResult.getStudent().getId());
+        if (currentUser.role() == UserRole.STUDENT) {
+            return currentUser.id().equals(testResult.getStudent().getId());
         }
 
         // Teachers can access test results for their subjects
-        if (currentUser.getRole() == UserRole.TEACHER) {
-            return currentUser.getSubjects().contains(testResult.getTest().getSubject());
+        if (currentUser.role() == UserRole.TEACHER) {
+            return currentUser.hasSubject(testResult.getTest().getSubject().getId());
         }
 
         return false;
     }
 
-    private boolean canAccessStudentStatistics(User currentUser, Long studentId) {
+    private boolean canAccessStudentStatistics(AuthPrincipal currentUser, Long studentId) {
         System.out.println("Проверка доступа к статистике студента");
-        System.out.println("Текущий пользователь ID: " + currentUser.getId() + ", Имя: " + currentUser.getFullName() + ", Роль: " + currentUser.getRole());
+        System.out.println("Текущий пользователь ID: " + currentUser.id() + ", Имя: " + currentUser.fullName() + ", Роль: " + currentUser.role());
         System.out.println("Запрашиваемый студент ID: " + studentId);
 
         // Admin can access any student's statistics
-        if (currentUser.getRole() == UserRole.ADMIN) {
+        if (currentUser.role() == UserRole.ADMIN) {
             System.out.println("Доступ разрешен (администратор)");
             return true;
         }
 
         // Students can only access their own statistics
-        if (currentUser.getRole() == UserRole.STUDENT) {
-            boolean hasAccess = currentUser.getId().equals(studentId);
+        if (currentUser.role() == UserRole.STUDENT) {
+            boolean hasAccess = currentUser.id().equals(studentId);
             System.out.println("Студент запрашивает: " + (hasAccess ? "свою статистику (доступ разрешен)" : "чужую статистику (доступ запрещен)"));
             return hasAccess;
         }
 
         // Teachers can access statistics for students in their classes/subjects
-        if (currentUser.getRole() == UserRole.TEACHER) {
+        if (currentUser.role() == UserRole.TEACHER) {
             User student = userRepository.findById(studentId)
                     .orElseThrow(() -> new RuntimeException("Student not found"));
 
             // Check if student's grade is assigned to teacher's subjects
-            Set<Subject> teacherSubjects = currentUser.getSubjects();
-            return teacherSubjects.stream()
-                    .anyMatch(subject -> {
-                        List<TestResult> results = testResultRepository.findByStudentIdAndTestSubjectId(studentId, subject.getId());
-                        return !results.isEmpty();
-                    });
+            for (long subjectId : currentUser.subjectIds()) {
+                List<TestResult> results = testResultRepository.findByStudentIdAndTestSubjectId(studentId, subjectId);
+                if (!results.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         return false;
     }
 
-    private boolean canAccessGradeStatistics(User currentUser, Long gradeId) {
+    private boolean canAccessGradeStatistics(AuthPrincipal currentUser, Long gradeId) {
         // Admin can access any grade statistics
-        if (currentUser.getRole() == UserRole.ADMIN) {
+        if (currentUser.role() == UserRole.ADMIN) {
             return true;
         }
 
         // Students can access their own grade statistics
-        if (currentUser.getRole() == UserRole.STUDENT) {
-            return currentUser.getGrade() != null && currentUser.getGrade().getId().equals(gradeId);
+        if (currentUser.role() == UserRole.STUDENT) {
+            return gradeId.equals(currentUser.gradeId());
         }
 
         // Teachers can access statistics for grades they teach
-        if (currentUser.getRole() == UserRole.TEACHER) {
+        if (currentUser.role() == UserRole.TEACHER) {
             // Check if teacher teaches any subject for this grade
-            return testRepository.findBySubjectInAndGradeId(
-                    currentUser.getSubjects(), gradeId).size() > 0;
+            return currentUser.subjectIds().length > 0
+                    && testRepository.existsBySubjectIdInAndGradeId(currentUser.subjectIdList(), gradeId);
         }
 
         return false;
     }
 
-    private boolean canAccessSubjectStatistics(User currentUser, Long subjectId) {
+    private boolean canAccessSubjectStatistics(AuthPrincipal currentUser, Long subjectId) {
         // Admin can access any subject statistics
-        if (currentUser.getRole() == UserRole.ADMIN) {
+        if (currentUser.role() == UserRole.ADMIN) {
             return true;
         }
 
         // Students can access subject statistics for subjects they take
-        if (currentUser.getRole() == UserRole.STUDENT) {
+        if (currentUser.role() == UserRole.STUDENT) {
             List<TestResult> results = testResultRepository.findByStudentIdAndTestSubjectId(
-                    currentUser.getId(), subjectId);
+                    currentUser.id(), subjectId);
             return !results.isEmpty();
         }
 
         // Teachers can access statistics for subjects they teach
-        if (currentUser.getRole() == UserRole.TEACHER) {
-            return currentUser.getSubjects().stream()
-                    .anyMatch(subject -> subject.getId().equals(subjectId));
+        if (currentUser.role() == UserRole.TEACHER) {
+            return currentUser.hasSubject(subjectId);
         }
 
         return false;
@@ -146,14 +144,12 @@ public class StatisticsService {
     /**
      * Get detailed statistics for a specific test result
      */
-    public TestResultDetailsDto getTestResultDetails(String token, Long testResultId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
-        if (!canAccessStatistics(token, testResultId, StatisticsAccessType.TEST_RESULT)) {
+    public TestResultDetailsDto getTestResultDetails(AuthPrincipal currentUser, Long testResultId) {
+        if (!canAccessStatistics(currentUser, testResultId, StatisticsAccessType.TEST_RESULT)) {
             throw new RuntimeException("You don't have permission to view this test result");
         }
 
-        TestResult testResult = testResultRepository.findById(testResultId)
+        TestResult testResult = testResultRepository.findDetailsById(testResultId)
                 .orElseThrow(() -> new RuntimeException("Test result not found"));
 
         Test test = testResult.getTest();
@@ -167,8 +163,8 @@ public class StatisticsService {
         detailsDto.setStudentName(student.getFullName());
         detailsDto.setGradeId(grade.getId());
         detailsDto.setGradeName(grade.getFullName());
-        detailsDto.setScore(testResult.getScore());
-        detailsDto.setMaxScore(testResult.getMaxScore());
+        detailsDto.setScore(testResult.getScore() != null ? testResult.getScore() : 0);
+        detailsDto.setMaxScore(testResult.getMaxScore() != null ? testResult.getMaxScore() : 0);
         detailsDto.setCompletedAt(testResult.getCompletedAt());
         detailsDto.setAttemptNumber(testResult.getAttemptNumber());
 
@@ -178,9 +174,8 @@ public class StatisticsService {
     /**
      * Get statistics for a specific test (all students' best attempts)
      */
-    public StatisticViewDto getTestStatistics(String token, Long testId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-        Test test = testRepository.findById(testId)
+    public StatisticViewDto getTestStatistics(AuthPrincipal currentUser, Long testId) {
+        Test test = testRepository.findCatalogById(testId)
                 .orElseThrow(() -> new RuntimeException("Test not found"));
 
         if (!canAccessSubjectStatistics(currentUser, test.getSubject().getId())) {
@@ -249,10 +244,8 @@ public class StatisticsService {
     /**
      * Get statistics for a specific grade (all students' best test attempts)
      */
-    public StatisticViewDto getGradeStatistics(String token, Long gradeId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
-        if (!canAccessStatistics(token, gradeId, StatisticsAccessType.GRADE)) {
+    public StatisticViewDto getGradeStatistics(AuthPrincipal currentUser, Long gradeId) {
+        if (!canAccessStatistics(currentUser, gradeId, StatisticsAccessType.GRADE)) {
             throw new RuntimeException("You don't have permission to view this grade's statistics");
         }
 
@@ -331,10 +324,8 @@ public class StatisticsService {
     /**
      * Get statistics for a specific subject (all students' best test attempts)
      */
-    public StatisticViewDto getSubjectStatistics(String token, Long subjectId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
-        if (!canAccessStatistics(token, subjectId, StatisticsAccessType.SUBJECT)) {
+    public StatisticViewDto getSubjectStatistics(AuthPrincipal currentUser, Long subjectId) {
+        if (!canAccessStatistics(currentUser, subjectId, StatisticsAccessType.SUBJECT)) {
             throw new RuntimeException("You don't have permission to view this subject's statistics");
         }
 
@@ -425,10 +416,8 @@ public class StatisticsService {
     /**
      * Get student's statistics for a specific subject
      */
-    public StatisticViewDto getStudentSubjectStatistics(String token, Long studentId, Long subjectId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
-        if (!canAccessStatistics(token, studentId, StatisticsAccessType.STUDENT)) {
+    public StatisticViewDto getStudentSubjectStatistics(AuthPrincipal currentUser, Long studentId, Long subjectId) {
+        if (!canAccessStatistics(currentUser, studentId, StatisticsAccessType.STUDENT)) {
             throw new RuntimeException("You don't have permission to view this student's statistics");
         }
 
@@ -503,10 +492,8 @@ public class StatisticsService {
     /**
      * Get student's overall performance across all subjects
      */
-    public Map<String, StatisticViewDto> getStudentOverallPerformance(String token, Long studentId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
-        if (!canAccessStatistics(token, studentId, StatisticsAccessType.STUDENT)) {
+    public Map<String, StatisticViewDto> getStudentOverallPerformance(AuthPrincipal currentUser, Long studentId) {
+        if (!canAccessStatistics(currentUser, studentId, StatisticsAccessType.STUDENT)) {
             throw new RuntimeException("You don't have permission to view this student's statistics");
         }
 
@@ -582,11 +569,9 @@ public class StatisticsService {
     /**
      * Get top students in school across all subjects
      */
-    public StatisticViewDto getTopStudentsInSchool(String token) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
-
+    public StatisticViewDto getTopStudentsInSchool(AuthPrincipal currentUser) {
         // Only admin and teachers can view school-wide statistics
-        if (currentUser.getRole() != UserRole.ADMIN && currentUser.getRole() != UserRole.TEACHER) {
+        if (currentUser.role() != UserRole.ADMIN && currentUser.role() != UserRole.TEACHER) {
             throw new RuntimeException("You don't have permission to view school-wide statistics");
         }
 
@@ -0,0 +1,427 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.annotation.PreDestroy;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.dto.TestSubmissionRequest;
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.util.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Асинхронная проверка попыток.
+ * <p>
+ * Когда у всего класса одновременно истекает время, отправка не должна держать потоки запросов
+ * на проверке и записи ответов. В асинхронном режиме submit только сохраняет ответы в попытке
+ * и возвращает результат со статусом pending, а проверку выполняет ограниченный пул потоков.
+ * Результат клиент получает опросом GET /api/tests/results/{id} или подпиской на server-sent events.
+ * <p>
+ * Отправки и проверка идут группами: поток берет из очереди задачу и все, что пришло за window-ms
+ * следом (не больше max-size). В асинхронном режиме отправки группы принимаются одной транзакцией,
+ * запрос получает pending после ее коммита, а принятые попытки проверяются в той же группе.
+ * В синхронном режиме группа отправок сразу проверяется, и запрос получает итог. Баллы
+ * считаются до блокировок, а транзакция с блокировками только записывает итоги - один коммит
+ * на группу вместо коммита на попытку. Потоки обрабатывают свои группы параллельно. Подписчики
+ * и ожидающие запросы узнают результат только после коммита группы. Если группа не записалась,
+ * ее задачи выполняются по одной. Запрос ждет коммита своей группы не дольше sync.timeout-ms,
+ * после чего получает 503 с Retry-After; задача при этом остается в очереди и может быть выполнена позже.
+ * <p>
+ * Принятые ответы хранятся в базе, поэтому переполненная очередь или перезапуск ничего не теряют:
+ * периодический обход находит непроверенные попытки и ставит их в очередь заново. Неудачные
+ * проверки считаются в попытке; после max-failures неудач она закрывается без балла и в обход
+ * больше не попадает.
+ * <p>
+ * Отправка с ключом идемпотентности выполняется один раз: повтор получает результат первой
+ * отправки из SubmissionReplayCache, а если ключа там нет - из попытки в базе, без блокировок и проверки.
+ */
+@Service
+public class SubmissionGradingService {
+
+    private static final Logger log = LoggerFactory.getLogger(SubmissionGradingService.class);
+
+    // Размер колонки test_results.submission_key
+    private static final int MAX_KEY_LENGTH = 64;
+    // Через сколько секунд повторить отправку, не дождавшуюся проверки
+    private static final long RETRY_AFTER_SECONDS = 2;
+
+    private final TestService testService;
+    private final AnswerAutosaveService answerAutosaveService;
+    private final TestResultRepository testResultRepository;
+    private final SubmissionReplayCache replayCache;
+    private final boolean async;
+    private final long emitterTimeoutMillis;
+    private final long syncTimeoutMillis;
+    private final long windowNanos;
+    private final int maxGroupSize;
+    private final int maxFailures;
+    private final BlockingQueue<Task> queue;
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Попытки, уже стоящие в очереди или проверяемые на этом узле
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Long, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder graded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder groupedAttempts = new LongAdder();
+    private final LongAdder groupFailures = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder gaveUp = new LongAdder();
+
+    public SubmissionGradingService(TestService testService,
+                                    AnswerAutosaveService answerAutosaveService,
+                                    TestResultRepository testResultRepository,
+                                    SubmissionReplayCache replayCache,
+                                    @Value("${schooltest.grading.async.enabled:true}") boolean async,
+                                    @Value("${schooltest.grading.async.threads:2}") int threads,
+                                    @Value("${schooltest.grading.async.queue-capacity:1000}") int queueCapacity,
+                                    @Value("${schooltest.grading.async.emitter-timeout-ms:60000}") long emitterTimeoutMillis,
+                                    @Value("${schooltest.grading.group.window-ms:5}") long windowMillis,
+                                    @Value("${schooltest.grading.group.max-size:50}") int maxGroupSize,
+                                    @Value("${schooltest.grading.sync.timeout-ms:30000}") long syncTimeoutMillis,
+                                    @Value("${schooltest.grading.max-failures:5}") int maxFailures) {
+        this.testService = testService;
+        this.answerAutosaveService = answerAutosaveService;
+        this.testResultRepository = testResultRepository;
+        this.replayCache = replayCache;
+        this.async = async;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+        this.syncTimeoutMillis = syncTimeoutMillis;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxGroupSize = Math.max(1, maxGroupSize);
+        this.maxFailures = Math.max(1, maxFailures);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(this::work, "grading-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    public TestResultDto submit(TestSubmissionRequest request, Long studentId) {
+        String key = request.getIdempotencyKey();
+        if (key == null) {
+            return doSubmit(request, studentId);
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new RuntimeException("Ключ Idempotency-Key должен содержать от 1 до " + MAX_KEY_LENGTH + " символов");
+        }
+        return replayCache.submit(studentId, request.getTestResultId(), key, () -> {
+            Optional<TestResultDto> submitted = testService.findSubmission(request.getTestResultId(), studentId, key);
+            if (submitted.isPresent()) {
+                replayed.increment();
+                return submitted.get();
+            }
+            return doSubmit(request, studentId);
+        });
+    }
+
+    private TestResultDto doSubmit(TestSubmissionRequest request, Long studentId) {
+        // Автосохраненные ответы должны попасть в базу до проверки: она берет их из answer_drafts
+        answerAutosaveService.flush(request.getTestResultId());
+        Task task = new Task(new TestService.GradingRequest(request.getTestResultId(), studentId,
+                request.getAnswers() != null ? request.getAnswers() : List.of(), request.getIdempotencyKey()));
+        if (queue.offer(task)) {
+            return await(task);
+        }
+        // Очередь заполнена: проверка или прием ответов прямо в запросе, отдельной транзакцией
+        if (!async) {
+            return testService.submitTest(request, studentId);
+        }
+        // Транзакция acceptSubmission уже завершена: проверка увидит сохраненные ответы
+        TestResultDto result = testService.acceptSubmission(request, studentId);
+        accepted.increment();
+        enqueue(result.getId());
+        return result;
+    }
+
+    /**
+     * Подписка на результат попытки. Если попытка уже проверена, результат отправляется сразу.
+     */
+    public SseEmitter subscribe(Long testResultId, AuthPrincipal user) {
+        // Заодно проверяет доступ к результату
+        TestResultDto current = testService.getTestResultById(testResultId, user);
+
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        if (!current.isPending()) {
+            send(emitter, current);
+            return emitter;
+        }
+
+        subscribers.computeIfAbsent(testResultId, id -> new CopyOnWriteArrayList<>()).add(emitter);
+        Runnable unsubscribe = () -> subscribers.computeIfPresent(testResultId, (id, list) -> {
+            list.remove(emitter);
+            return list.isEmpty() ? null : list;
+        });
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+
+        // Проверка могла закончиться между чтением статуса и подпиской
+        TestResultDto latest = testService.getTestResultById(testResultId, user);
+        if (!latest.isPending()) {
+            publish(latest);
+        }
+        return emitter;
+    }
+
+    // Обход непроверенных попыток: переполнение очереди, сбой проверки, перезапуск узла
+    @Scheduled(fixedDelayString = "${schooltest.grading.async.sweep-ms:5000}")
+    public void sweep() {
+        if (!async) {
+            return;
+        }
+        for (Long id : testResultRepository.findPendingSubmissionIds()) {
+            if (!enqueue(id)) {
+                return;
+            }
+        }
+    }
+
+    // false, если очередь заполнена; попытка останется в базе до следующего обхода
+    private boolean enqueue(Long testResultId) {
+        if (!inFlight.add(testResultId)) {
+            return true;
+        }
+        if (!queue.offer(new Task(new TestService.GradingRequest(testResultId, null, null)))) {
+            inFlight.remove(testResultId);
+            deferred.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Task> group = new ArrayList<>();
+            try {
+                group.add(queue.take());
+                // Добираем то, что пришло за окно группы
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < maxGroupSize) {
+                    Task next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Остановка: собранное не проверяется, принятые попытки остаются в базе до обхода
+                group.forEach(task -> abandon(task, new RuntimeException("Сервер останавливается, повторите отправку")));
+                return;
+            }
+            commit(group);
+        }
+    }
+
+    private void commit(List<Task> group) {
+        grade(async ? accept(group) : group);
+    }
+
+    // Прием отправок группы одной транзакцией; возвращает задачи проверки: из группы и для принятых попыток
+    private List<Task> accept(List<Task> group) {
+        List<Task> submissions = new ArrayList<>();
+        List<Task> grading = new ArrayList<>();
+        for (Task task : group) {
+            (task.request().answers() != null ? submissions : grading).add(task);
+        }
+        if (submissions.isEmpty()) {
+            return grading;
+        }
+
+        List<TestService.GradingOutcome> outcomes;
+        try {
+            outcomes = testService.acceptGroup(submissions.stream().map(Task::request).toList());
+        } catch (RuntimeException e) {
+            if (submissions.size() == 1) {
+                submissions.get(0).done().completeExceptionally(e);
+                return grading;
+            }
+            groupFailures.increment();
+            log.warn("Не удалось принять группу из {} отправок, принимаем по одной", submissions.size(), e);
+            submissions.forEach(task -> grading.addAll(accept(List.of(task))));
+            return grading;
+        }
+
+        for (int i = 0; i < submissions.size(); i++) {
+            TestService.GradingOutcome outcome = outcomes.get(i);
+            if (outcome.error() != null) {
+                submissions.get(i).done().completeExceptionally(outcome.error());
+                continue;
+            }
+            accepted.increment();
+            TestResultDto result = outcome.result();
+            submissions.get(i).done().complete(result);
+            // Попытку, уже стоящую в очереди после обхода, проверит ее задача
+            if (result.isPending() && inFlight.add(result.getId())) {
+                grading.add(new Task(new TestService.GradingRequest(result.getId(), null, null)));
+            }
+        }
+        return grading;
+    }
+
+    private void grade(List<Task> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        List<TestService.GradingOutcome> outcomes;
+        try {
+            outcomes = testService.gradeGroup(group.stream().map(Task::request).toList());
+        } catch (RuntimeException e) {
+            if (group.size() == 1) {
+                failed.increment();
+                log.error("Не удалось проверить попытку {}", group.get(0).request().testResultId(), e);
+                recordFailure(group.get(0), e);
+                abandon(group.get(0), e);
+                return;
+            }
+            // Одна сбойная попытка не должна задерживать остальные
+            groupFailures.increment();
+            log.warn("Не удалось записать группу из {} попыток, проверяем по одной", group.size(), e);
+            group.forEach(task -> grade(List.of(task)));
+            return;
+        }
+
+        groups.increment();
+        groupedAttempts.add(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            Task task = group.get(i);
+            TestService.GradingOutcome outcome = outcomes.get(i);
+            if (outcome.error() != null) {
+                // Отказ по синхронной отправке - ответ ученику, по принятой попытке - сбой
+                if (task.request().answers() == null) {
+                    failed.increment();
+                    log.error("Не удалось проверить попытку {}", task.request().testResultId(), outcome.error());
+                }
+                recordFailure(task, outcome.error());
+                abandon(task, outcome.error());
+                continue;
+            }
+            graded.increment();
+            inFlight.remove(task.request().testResultId());
+            publish(outcome.result());
+            task.done().complete(outcome.result());
+        }
+    }
+
+    // Неудача по принятой попытке учитывается в ней самой; отказ по синхронной отправке уже получил ученик
+    private void recordFailure(Task task, RuntimeException error) {
+        if (task.request().answers() != null) {
+            return;
+        }
+        Long testResultId = task.request().testResultId();
+        try {
+            testService.recordGradingFailure(testResultId, error.getMessage(), maxFailures).ifPresent(result -> {
+                gaveUp.increment();
+                publish(result);
+            });
+        } catch (RuntimeException e) {
+            log.warn("Не удалось учесть неудачную проверку попытки {}: {}", testResultId, e.getMessage());
+        }
+    }
+
+    private void abandon(Task task, RuntimeException error) {
+        inFlight.remove(task.request().testResultId());
+        task.done().completeExceptionally(error);
+    }
+
+    // Поток запроса не должен висеть вечно, если поток проверки завис или задача потерялась
+    private TestResultDto await(Task task) {
+        try {
+            return task.done().get(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            throw new ServiceUnavailableException("Ответы еще проверяются, повторите отправку через "
+                    + RETRY_AFTER_SECONDS + " с", RETRY_AFTER_SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Не удалось проверить ответы", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ожидание проверки прервано");
+        }
+    }
+
+    private void publish(TestResultDto result) {
+        List<SseEmitter> emitters = subscribers.remove(result.getId());
+        if (emitters != null) {
+            emitters.forEach(emitter -> send(emitter, result));
+        }
+    }
+
+    private void send(SseEmitter emitter, TestResultDto result) {
+        try {
+            emitter.send(SseEmitter.event().name("result").data(result));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // Клиент уже отключился
+            emitter.completeWithError(e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("async", async);
+        stats.put("threads", workers.size());
+        stats.put("queued", queue.size());
+        stats.put("groupWindowMillis", TimeUnit.NANOSECONDS.toMillis(windowNanos));
+        stats.put("maxGroupSize", maxGroupSize);
+        stats.put("inFlight", inFlight.size());
+        stats.put("subscribers", subscribers.values().stream().mapToInt(List::size).sum());
+        stats.put("accepted", accepted.sum());
+        stats.put("graded", graded.sum());
+        stats.put("failed", failed.sum());
+        stats.put("deferred", deferred.sum());
+        stats.put("groups", groups.sum());
+        stats.put("groupedAttempts", groupedAttempts.sum());
+        stats.put("groupFailures", groupFailures.sum());
+        stats.put("syncTimeoutMillis", syncTimeoutMillis);
+        stats.put("timedOut", timedOut.sum());
+        stats.put("maxFailures", maxFailures);
+        stats.put("gaveUp", gaveUp.sum());
+        stats.put("replayedFromDatabase", replayed.sum());
+        stats.put("replayCache", replayCache.getStats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Непроверенные попытки остаются в базе и будут проверены после запуска
+        workers.forEach(Thread::interrupt);
+        Task task;
+        while ((task = queue.poll()) != null) {
+            abandon(task, new RuntimeException("Сервер останавливается, повторите отправку"));
+        }
+    }
+
+    // Отправка или попытка в очереди; done завершается после коммита ее группы
+    private record Task(TestService.GradingRequest request, CompletableFuture<TestResultDto> done) {
+
+        Task(TestService.GradingRequest request) {
+            this(request, new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.util.ServiceUnavailableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Результаты отправок ответов по ключу идемпотентности (ученик + попытка + Idempotency-Key)
+ * с TTL и LRU-вытеснением.
+ * <p>
+ * При плохом Wi-Fi фронтенд повторяет отправку. Повтор, пришедший, пока первая отправка еще
+ * выполняется, ждет ее и получает тот же результат, а не гонится с ней за блокировку попытки;
+ * повтор после нее получает сохраненный результат без обращения к базе. Неудачная отправка
+ * из кэша удаляется, и повтор выполняется заново. Повтор ждет первую отправку не дольше
+ * таймаута синхронной проверки, иначе получает 503. Вытесненные ключи и ключи с других узлов
+ * находит TestService по колонке submission_key.
+ */
+@Component
+public class SubmissionReplayCache {
+
+    private static final long RETRY_AFTER_SECONDS = 2;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long waitTimeoutMillis;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public SubmissionReplayCache(@Value("${schooltest.grading.idempotency.max-size:10000}") int maxSize,
+                                 @Value("${schooltest.grading.idempotency.ttl-seconds:600}") long ttlSeconds,
+                                 @Value("${schooltest.grading.sync.timeout-ms:30000}") long waitTimeoutMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        // accessOrder = true: самый давно используемый элемент всегда первый
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > SubmissionReplayCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Выполняет отправку, если ключ встретился впервые; иначе возвращает результат первой отправки,
+     * при необходимости дождавшись ее. Ключ действует в пределах одной попытки: тот же ключ
+     * для другой попытки - другая отправка.
+     */
+    public TestResultDto submit(Long studentId, Long testResultId, String key, Supplier<TestResultDto> submission) {
+        String cacheKey = studentId + ":" + testResultId + ":" + key;
+        CompletableFuture<TestResultDto> own = new CompletableFuture<>();
+        CompletableFuture<TestResultDto> first = claim(cacheKey, own);
+        if (first != null) {
+            if (first.isDone()) {
+                hits.increment();
+            } else {
+                joined.increment();
+            }
+            return await(first);
+        }
+
+        misses.increment();
+        try {
+            TestResultDto result = submission.get();
+            own.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // В том числе Error: иначе повторы ждали бы незавершенную отправку до истечения TTL
+            release(cacheKey, own);
+            own.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // Future уже известной отправки или null, если own записан как первая отправка с этим ключом
+    private synchronized CompletableFuture<TestResultDto> claim(String cacheKey, CompletableFuture<TestResultDto> own) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && entry.expiresAt >= now) {
+            return entry.result;
+        }
+        entries.put(cacheKey, new Entry(own, now + ttlMillis));
+        return null;
+    }
+
+    private synchronized void release(String cacheKey, CompletableFuture<TestResultDto> own) {
+        Entry entry = entries.get(cacheKey);
+        if (entry != null && entry.result == own) {
+            entries.remove(cacheKey);
+        }
+    }
+
+    private TestResultDto await(CompletableFuture<TestResultDto> result) {
+        try {
+            return result.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            throw new ServiceUnavailableException("Ответы еще проверяются, повторите отправку через "
+                    + RETRY_AFTER_SECONDS + " с", RETRY_AFTER_SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("Не удалось отправить ответы", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Ожидание отправки прервано");
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlMillis / 1000);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("joined", joined.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("timedOut", timedOut.sum());
+        return stats;
+    }
+
+    private record Entry(CompletableFuture<TestResultDto> result, long expiresAt) {
+    }
+}
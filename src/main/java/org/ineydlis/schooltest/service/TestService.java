@@ -1,19 +1,32 @@
 package org.ineydlis.schooltest.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ineydlis.schooltest.dto.*;
 import org.ineydlis.schooltest.model.*;
 import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.util.QuestionSampler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 @Service
 public class TestService {
+    private static final Logger log = LoggerFactory.getLogger(TestService.class);
+
+    // Длина колонки test_results.grading_error
+    private static final int GRADING_ERROR_LENGTH = 500;
+
     @Autowired
     private TestRepository testRepository;
 
@@ -32,20 +45,27 @@ public class TestService {
     @Autowired
     private TestResultRepository testResultRepository;
 
+    @Autowired
+    private ExamSnapshotCache examSnapshotCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AnswerDraftRepository answerDraftRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     // For teachers: Create a new test
     @Transactional
-    public TestDto createTest(TestCreateRequest request, Long creatorId) {
-        User creator = userRepository.findById(creatorId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
+    public TestDto createTest(TestCreateRequest request, AuthPrincipal creator) {
         // Verify that the teacher teaches this subject
         Subject subject = subjectRepository.findById(request.getSubjectId())
                 .orElseThrow(() -> new RuntimeException("Предмет не найден"));
 
-        if (creator.getRole() == UserRole.TEACHER) {
-            boolean canTeach = creator.getSubjects().stream()
-                    .anyMatch(s -> s.getId().equals(subject.getId()));
-            if (!canTeach) {
+        if (creator.role() == UserRole.TEACHER) {
+            if (!creator.hasSubject(subject.getId())) {
                 throw new RuntimeException("Вы не можете создавать тесты по данному предмету");
             }
 
@@ -53,14 +73,9 @@ public class TestService {
             if (request.getGradeIds() != null && !request.getGradeIds().isEmpty()) {
                 boolean hasPermissionForGrades = false;
 
-                // Get the set of grade IDs the teacher is assigned to
-                Set<Long> teacherGradeIds = creator.getTeachingGrades().stream()
-                        .map(Grade::getId)
-                        .collect(Collectors.toSet());
-
                 // Check if there's an overlap between requested grades and teacher's assigned grades
                 for (Long gradeId : request.getGradeIds()) {
-                    if (teacherGradeIds.contains(gradeId)) {
+                    if (creator.teachesGrade(gradeId)) {
                         hasPermissionForGrades = true;
                         break;
                     }
@@ -70,7 +85,7 @@ public class TestService {
                     throw new RuntimeException("Вы не можете создавать тесты для указанных классов, так как не являетесь преподавателем в этих классах");
                 }
             }
-        } else if (creator.getRole() != UserRole.ADMIN) {
+        } else if (creator.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на создание тестов");
         }
 
@@ -79,7 +94,7 @@ public class TestService {
         test.setTitle(request.getTitle());
         test.setDescription(request.getDescription());
         test.setSubject(subject);
-        test.setCreator(creator);
+        test.setCreator(userRepository.getReferenceById(creator.id()));
         test.setCreatedAt(LocalDateTime.now());
         test.setTimeLimit(request.getTimeLimit());
         test.setQuestionsToShow(request.getQuestionsToShow());
@@ -94,34 +109,32 @@ public class TestService {
             test.setAvailableGrades(grades);
         }
 
-        Test savedTest = testRepository.save(test);
-
-        // Create questions and answers
+        // Create questions and answers; тест сохраняется вместе с ними каскадом,
+        // и вставки уходят пакетами при flush
         if (request.getQuestions() != null) {
             for (QuestionDto questionDto : request.getQuestions()) {
                 Question question = new Question();
                 question.setText(questionDto.getText());
                 question.setType(questionDto.getType());
                 question.setPoints(questionDto.getPoints());
-                question.setTest(savedTest);
-
-                Question savedQuestion = questionRepository.save(question);
+                question.setTest(test);
 
                 // Create answers for this question
                 if (questionDto.getAnswers() != null) {
+                    validateChoiceCount(questionDto);
                     for (AnswerDto answerDto : questionDto.getAnswers()) {
                         Answer answer = new Answer();
                         answer.setText(answerDto.getText());
                         answer.setCorrect(answerDto.getIsCorrect() != null ? answerDto.getIsCorrect() : false);
-                        answer.setQuestion(savedQuestion);
-                        savedQuestion.getAnswers().add(answer);
+                        answer.setQuestion(question);
+                        question.getAnswers().add(answer);
                     }
                 }
-
-                questionRepository.save(savedQuestion);
-                savedTest.getQuestions().add(savedQuestion);
+                test.getQuestions().add(question);
             }
         }
+        test.recalculateQuestionStats();
+        Test savedTest = testRepository.save(test);
 
         // Return the created test
         return TestDto.fromEntity(savedTest);
@@ -129,111 +142,130 @@ public class TestService {
 
     // Get all tests (for admins)
     public List<TestDto> getAllTests() {
-        return testRepository.findAll().stream()
+        return testRepository.findAllForCatalog().stream()
                 .map(TestDto::fromEntity)
                 .collect(Collectors.toList());
     }
 
     // Get tests by teacher
     public List<TestDto> getTestsByTeacher(Long teacherId) {
-        User teacher = userRepository.findById(teacherId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-        return testRepository.findByCreator(teacher).stream()
+        return testRepository.findByCreatorIdOrderByIdAsc(teacherId).stream()
                 .map(TestDto::fromEntity)
                 .collect(Collectors.toList());
     }
 
-    public List<TestDto> getTestsForStudent(Long studentId) {
-        // Начало метода без изменений
-        User student = userRepository.findById(studentId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
-        if (student.getRole() != UserRole.STUDENT) {
+    /**
+     * Каталог тестов ученика. Три запроса независимо от числа тестов и попыток:
+     * тесты класса (с сохраненными числом вопросов и суммой баллов), классы этих тестов
+     * и баллы завершенных попыток ученика.
+     */
+    public List<TestDto> getTestsForStudent(AuthPrincipal student) {
+        if (student.role() != UserRole.STUDENT) {
             throw new RuntimeException("Пользователь не является учеником");
         }
 
-        if (student.getGrade() == null) {
+        if (student.gradeId() == null) {
             return Collections.emptyList();
         }
 
-        List<Test> tests = testRepository.findByAvailableGradesAndActive(student.getGrade());
-        List<TestDto> testDtos = new ArrayList<>();
-
-        for (Test test : tests) {
-            TestDto testDto = TestDto.fromEntity(test);
+        Map<Long, TestDto> catalog = new LinkedHashMap<>();
+        for (Object[] row : testRepository.findStudentCatalogRows(student.gradeId())) {
+            TestDto testDto = TestDto.builder()
+                    .id((Long) row[0])
+                    .title((String) row[1])
+                    .description((String) row[2])
+                    .subjectId((Long) row[3])
+                    .subjectName((String) row[4])
+                    .creatorId((Long) row[5])
+                    .creatorName((String) row[6])
+                    .createdAt((LocalDateTime) row[7])
+                    .updatedAt((LocalDateTime) row[8])
+                    .timeLimit((Integer) row[9])
+                    .isActive(true)
+                    .maxAttempts((Integer) row[10])
+                    .questionsToShow((Integer) row[11])
+                    .questionCount(row[12] != null ? (Integer) row[12] : 0)
+                    .totalPoints(row[13] != null ? (Integer) row[13] : 0)
+                    .availableGrades(new HashSet<>())
+                    .build();
+            catalog.put(testDto.getId(), testDto);
+        }
+        if (catalog.isEmpty()) {
+            return Collections.emptyList();
+        }
 
-            // Найдем все попытки для этого теста и этого ученика
-            List<TestResult> attempts = testResultRepository.findByTestAndStudent(test, student);
+        for (Object[] row : testRepository.findGradeNamesByTestIds(catalog.keySet())) {
+            catalog.get((Long) row[0]).getAvailableGrades().add((String) row[1]);
+        }
 
-            // Найдем лучшую попытку по процентному соотношению (score/maxScore)
-            TestResult bestAttempt = attempts.stream()
-                    .filter(TestResult::isCompleted)
-                    .max(Comparator.comparing(tr -> {
-                        // Избегаем деления на ноль
-                        if (tr.getMaxScore() == null || tr.getMaxScore() == 0) {
-                            return 0.0;
-                        }
-                        return tr.getScore() * 100.0 / tr.getMaxScore();
-                    }))
-                    .orElse(null);
+        // Лучшая попытка по каждому тесту - по процентному соотношению (score/maxScore)
+        Map<Long, Integer> completedAttempts = new HashMap<>();
+        Map<Long, Object[]> bestAttempts = new HashMap<>();
+        for (Object[] row : testResultRepository.findCompletedScoresByStudentId(student.id())) {
+            Long testId = (Long) row[0];
+            if (!catalog.containsKey(testId)) {
+                continue;
+            }
+            completedAttempts.merge(testId, 1, Integer::sum);
+            Object[] best = bestAttempts.get(testId);
+            if (best == null || percentage(row) > percentage(best)) {
+                bestAttempts.put(testId, row);
+            }
+        }
 
+        for (TestDto testDto : catalog.values()) {
+            Object[] bestAttempt = bestAttempts.get(testDto.getId());
             if (bestAttempt != null) {
-                // Установим лучший результат
-                testDto.setBestScore(bestAttempt.getScore());
-
-                // ВАЖНОЕ ИЗМЕНЕНИЕ: Используем реальный максимальный балл из этой попытки,
-                // который теперь основан только на отобранных вопросах
-                testDto.setMaxScore(bestAttempt.getMaxScore());
-
-                // Добавим процентное значение для корректного отображения
-                if (bestAttempt.getMaxScore() != null && bestAttempt.getMaxScore() > 0) {
-                    testDto.setBestScorePercentage((double) bestAttempt.getScore() / bestAttempt.getMaxScore() * 100);
-                } else {
-                    testDto.setBestScorePercentage(0.0);
-                }
+                // Максимальный балл берется из попытки: он основан только на отобранных вопросах
+                testDto.setBestScore((Integer) bestAttempt[1]);
+                testDto.setMaxScore((Integer) bestAttempt[2]);
+                testDto.setBestScorePercentage(percentage(bestAttempt));
             } else {
                 // Если попыток еще не было, показываем максимальный балл для всех вопросов,
                 // но с примечанием, что реальный балл может быть другим при случайном выборе
                 testDto.setMaxScore(testDto.getTotalPoints());
             }
 
-            // Вычислим кол-во оставшихся попыток
-            long completedAttempts = attempts.stream()
-                    .filter(TestResult::isCompleted)
-                    .count();
-
-            int remainingAttempts = test.getMaxAttempts() - (int)completedAttempts;
+            int remainingAttempts = testDto.getMaxAttempts() - completedAttempts.getOrDefault(testDto.getId(), 0);
             testDto.setRemainingAttempts(Math.max(0, remainingAttempts));
+        }
+
+        return new ArrayList<>(catalog.values());
+    }
 
-            testDtos.add(testDto);
+    // Процент для строки [testId, score, maxScore]; без деления на ноль
+    private static double percentage(Object[] scoreRow) {
+        Integer score = (Integer) scoreRow[1];
+        Integer maxScore = (Integer) scoreRow[2];
+        if (score == null || maxScore == null || maxScore == 0) {
+            return 0.0;
         }
+        return score * 100.0 / maxScore;
+    }
 
-        return testDtos;
+    // Выбор ученика хранится битовой маской по вариантам вопроса
+    private static void validateChoiceCount(QuestionDto questionDto) {
+        if (questionDto.getAnswers().size() > StudentAnswer.MAX_CHOICES) {
+            throw new RuntimeException("У вопроса может быть не более " + StudentAnswer.MAX_CHOICES + " вариантов ответа");
+        }
     }
 
     // Update getTestWithQuestions method in your backend
-    public TestDto getTestWithQuestions(Long testId, Long userId, boolean includeAnswers) {
-        Test test = testRepository.findById(testId)
+    public TestDto getTestWithQuestions(Long testId, AuthPrincipal user, boolean includeAnswers) {
+        Test test = testRepository.findWithQuestionsById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.STUDENT) {
+        if (user.role() == UserRole.STUDENT) {
             // Students can only view active tests available to their grade
-            if (!test.isActive() || !test.getAvailableGrades().contains(user.getGrade())) {
+            if (!test.isActive() || !isAvailableForGrade(test, user.gradeId())) {
                 throw new RuntimeException("У вас нет доступа к этому тесту");
             }
             // Students should never see correct answers before taking the test
             includeAnswers = false;
-        } else if (user.getRole() == UserRole.TEACHER) {
+        } else if (user.role() == UserRole.TEACHER) {
             // Teachers can only view their own tests or tests for subjects they teach
-            boolean isCreator = test.getCreator().getId().equals(userId);
-            boolean teachesSubject = user.getSubjects().stream()
-                    .anyMatch(s -> s.getId().equals(test.getSubject().getId()));
-
-            if (!isCreator && !teachesSubject) {
+            if (!isCreatorOrTeachesSubject(test, user)) {
                 throw new RuntimeException("У вас нет доступа к этому тесту");
             }
         }
@@ -241,7 +273,7 @@ public class TestService {
         TestDto testDto = TestDto.fromEntity(test);
 
         // Add questions if requested and user has appropriate permissions
-        if (includeAnswers && (user.getRole() == UserRole.TEACHER || user.getRole() == UserRole.ADMIN)) {
+        if (includeAnswers && (user.role() == UserRole.TEACHER || user.role() == UserRole.ADMIN)) {
             testDto.setQuestions(test.getQuestions().stream()
                     .map(q -> QuestionDto.fromEntity(q, true))
                     .collect(Collectors.toList()));
@@ -255,17 +287,14 @@ public class TestService {
 
     // Update a test (for teachers and admins)
     @Transactional
-    public TestDto updateTest(Long testId, TestCreateRequest request, Long userId) {
+    public TestDto updateTest(Long testId, TestCreateRequest request, AuthPrincipal user) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.TEACHER && !test.getCreator().getId().equals(userId)) {
+        if (user.role() == UserRole.TEACHER && !test.getCreator().getId().equals(user.id())) {
             throw new RuntimeException("Вы можете редактировать только свои тесты");
-        } else if (user.getRole() != UserRole.ADMIN && user.getRole() != UserRole.TEACHER) {
+        } else if (user.role() != UserRole.ADMIN && user.role() != UserRole.TEACHER) {
             throw new RuntimeException("У вас нет прав на редактирование тестов");
         }
 
@@ -311,6 +340,7 @@ public class TestService {
 
                 // Create answers
                 if (questionDto.getAnswers() != null) {
+                    validateChoiceCount(questionDto);
                     for (AnswerDto answerDto : questionDto.getAnswers()) {
                         Answer answer = new Answer();
                         answer.setText(answerDto.getText());
@@ -322,23 +352,22 @@ public class TestService {
                 test.getQuestions().add(question);
             }
         }
+        test.recalculateQuestionStats();
 
         // Save and return
         Test savedTest = testRepository.save(test);
+        examSnapshotCache.evict(testId);
         return TestDto.fromEntity(savedTest);
     }
     @Transactional
-    public void permanentlyDeleteTest(Long testId, Long userId) {
+    public void permanentlyDeleteTest(Long testId, AuthPrincipal user) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions - only admins or the creator of the test can permanently delete it
-        if (user.getRole() == UserRole.TEACHER && !test.getCreator().getId().equals(userId)) {
+        if (user.role() == UserRole.TEACHER && !test.getCreator().getId().equals(user.id())) {
             throw new RuntimeException("Вы можете полностью удалять только свои тесты");
-        } else if (user.getRole() != UserRole.ADMIN && user.getRole() != UserRole.TEACHER) {
+        } else if (user.role() != UserRole.ADMIN && user.role() != UserRole.TEACHER) {
             throw new RuntimeException("У вас нет прав на полное удаление тестов");
         }
 
@@ -348,39 +377,35 @@ public class TestService {
 
         // Delete the test itself
         testRepository.delete(test);
+        examSnapshotCache.evict(testId);
     }
     // Delete a test (for teachers and admins)
     @Transactional
-    public void deleteTest(Long testId, Long userId) {
+    public void deleteTest(Long testId, AuthPrincipal user) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.TEACHER && !test.getCreator().getId().equals(userId)) {
+        if (user.role() == UserRole.TEACHER && !test.getCreator().getId().equals(user.id())) {
             throw new RuntimeException("Вы можете удалять только свои тесты");
-        } else if (user.getRole() != UserRole.ADMIN && user.getRole() != UserRole.TEACHER) {
+        } else if (user.role() != UserRole.ADMIN && user.role() != UserRole.TEACHER) {
             throw new RuntimeException("У вас нет прав на удаление тестов");
         }
 
         // Always mark as inactive instead of deleting
         test.setActive(false);
         testRepository.save(test);
+        examSnapshotCache.evict(testId);
     }
     @Transactional
-    public TestDto reactivateTest(Long testId, Long userId, boolean clearAttempts) {
+    public TestDto reactivateTest(Long testId, AuthPrincipal user, boolean clearAttempts) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.TEACHER && !test.getCreator().getId().equals(userId)) {
+        if (user.role() == UserRole.TEACHER && !test.getCreator().getId().equals(user.id())) {
             throw new RuntimeException("Вы можете активировать только свои тесты");
-        } else if (user.getRole() != UserRole.ADMIN && user.getRole() != UserRole.TEACHER) {
+        } else if (user.role() != UserRole.ADMIN && user.role() != UserRole.TEACHER) {
             throw new RuntimeException("У вас нет прав на активацию тестов");
         }
 
@@ -400,23 +425,21 @@ public class TestService {
         }
 
         Test savedTest = testRepository.save(test);
+        examSnapshotCache.evict(testId);
         return TestDto.fromEntity(savedTest);
     }
 
-    public TestResultDto getInProgressTest(Long testId, Long studentId) {
+    public TestResultDto getInProgressTest(Long testId, AuthPrincipal principal) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User student = userRepository.findById(studentId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
-        if (student.getRole() != UserRole.STUDENT) {
+        if (principal.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут проходить тесты");
         }
 
         // Check if the student has an ongoing attempt
-        Optional<TestResult> existingIncompleteTest =
-                testResultRepository.findByTestAndStudentAndCompletedFalse(test, student);
+        Optional<TestResult> existingIncompleteTest = testResultRepository.findByTestAndStudentAndCompletedFalse(
+                test, userRepository.getReferenceById(principal.id()));
 
         if (existingIncompleteTest.isPresent()) {
             return TestResultDto.fromEntity(existingIncompleteTest.get());
@@ -426,20 +449,41 @@ public class TestService {
         return null;
     }
 
-    @Transactional(isolation = Isolation.SERIALIZABLE)
-    public TestResultDto startTest(Long testId, Long studentId) {
-        Test test = testRepository.findById(testId)
-                .orElseThrow(() -> new RuntimeException("Тест не найден"));
+    /**
+     * Начало попытки. Открытой может быть только одна попытка на тест и ученика: это гарантирует
+     * уникальный индекс uk_test_results_open_attempt, а не SERIALIZABLE и блокировки.
+     * Проверки и вставка идут короткими транзакциями READ COMMITTED; если параллельный запрос
+     * того же ученика вставил попытку первым, вставка упирается в индекс и возвращается его попытка.
+     */
+    public TestResultDto startTest(Long testId, AuthPrincipal principal) {
+        StartPlan plan = transactionTemplate.execute(status -> planAttempt(testId, principal));
+        if (plan.existing() != null) {
+            return plan.existing();
+        }
+        try {
+            return transactionTemplate.execute(status ->
+                    createNewTestAttempt(testId, principal.id(), plan.attemptNumber()));
+        } catch (DataIntegrityViolationException e) {
+            return transactionTemplate.execute(status -> testResultRepository.findOpenAttempt(testId, principal.id())
+                    .map(TestResultDto::fromEntity)
+                    .orElseThrow(() -> new RuntimeException("Не удалось начать тест", e)));
+        }
+    }
 
-        User student = userRepository.findById(studentId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+    // Либо уже открытая попытка, либо номер новой
+    private record StartPlan(TestResultDto existing, int attemptNumber) {
+    }
+
+    private StartPlan planAttempt(Long testId, AuthPrincipal principal) {
+        Test test = testRepository.findCatalogById(testId)
+                .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        if (student.getRole() != UserRole.STUDENT) {
+        if (principal.role() != UserRole.STUDENT) {
             throw new RuntimeException("Только ученики могут проходить тесты");
         }
 
         // Check if test is available for student's grade
-        if (!test.getAvailableGrades().contains(student.getGrade())) {
+        if (!isAvailableForGrade(test, principal.gradeId())) {
             throw new RuntimeException("Тест недоступен для вашего класса");
         }
 
@@ -449,69 +493,58 @@ public class TestService {
         }
 
         // Check attempt limits first
-        List<TestResult> completedAttempts = testResultRepository.findByTestAndStudentAndCompleted(
-                test, student, true);
-
-        if (completedAttempts.size() >= test.getMaxAttempts()) {
+        long completedAttempts = testResultRepository.countCompletedAttempts(testId, principal.id());
+        if (completedAttempts >= test.getMaxAttempts()) {
             throw new RuntimeException("Вы достигли максимального количества попыток (" +
                     test.getMaxAttempts() + ") для этого теста");
         }
 
-        // Check if the student has an ongoing attempt - use a more specific query with locking
-        List<TestResult> incompleteAttempts =
-                testResultRepository.findByTestAndStudentAndCompletedForUpdate(test, student, false);
-
-        // Handle multiple incomplete attempts
-        if (!incompleteAttempts.isEmpty()) {
-            // Sort by startedAt descending to get the most recent one
-            incompleteAttempts.sort((a, b) -> b.getStartedAt().compareTo(a.getStartedAt()));
-
-            // Keep the first one (most recent) and delete the rest
-            TestResult mostRecent = incompleteAttempts.get(0);
-            for (int i = 1; i < incompleteAttempts.size(); i++) {
-                testResultRepository.delete(incompleteAttempts.get(i));
-            }
-
-            // Check if the most recent test is too old (e.g., abandoned)
-            LocalDateTime deadline = mostRecent.getStartedAt().plusMinutes(test.getTimeLimit());
-            if (LocalDateTime.now().isAfter(deadline)) {
-                // If the test has expired, mark it as completed with zero score
-                mostRecent.setCompleted(true);
-                mostRecent.setCompletedAt(LocalDateTime.now());
-                mostRecent.setScore(0);
-                testResultRepository.save(mostRecent);
-
-                // Create a new test attempt
-                return createNewTestAttempt(test, student, completedAttempts.size() + 1);
+        // Check if the student has an ongoing attempt
+        Optional<TestResult> open = testResultRepository.findOpenAttempt(testId, principal.id());
+        if (open.isPresent()) {
+            TestResult current = open.get();
+            // Check if the attempt is too old (e.g., abandoned).
+            // Попытка с отправленными ответами ждет проверки и не закрывается здесь
+            if (current.getPendingSubmission() != null || !LocalDateTime.now().isAfter(deadlineOf(current))) {
+                return new StartPlan(TestResultDto.fromEntity(current), 0);
             }
-
-            return TestResultDto.fromEntity(mostRecent);
+            // Завершаем так же, как это сделал бы AttemptExpiryService
+            expireAttempts(List.of(current.getId()), LocalDateTime.now());
         }
 
-        // Create new test result
-        return createNewTestAttempt(test, student, completedAttempts.size() + 1);
+        return new StartPlan(null, (int) completedAttempts + 1);
     }
 
     // Helper method to create a new test attempt
-    private TestResultDto createNewTestAttempt(Test test, User student, int attemptNumber) {
+    private TestResultDto createNewTestAttempt(Long testId, Long studentId, int attemptNumber) {
+        Test test = testRepository.getReferenceById(testId);
         TestResult testResult = new TestResult();
         testResult.setTest(test);
-        testResult.setStudent(student);
+        testResult.setStudent(userRepository.getReferenceById(studentId));
         testResult.setStartedAt(LocalDateTime.now());
+        // Срок хранится в попытке, чтобы AttemptExpiryService находил просроченные по индексу
+        testResult.setDeadline(testResult.getStartedAt().plusMinutes(test.getTimeLimit()));
         testResult.setCompleted(false);
         testResult.setAttemptNumber(attemptNumber);
+        testResult.setQuestionSeed(ThreadLocalRandom.current().nextLong());
 
-        // НЕ устанавливаем maxScore тут, а сделаем это после выбора вопросов
-        // Изначальное значение будем ставить только для сохранения структуры
-        testResult.setMaxScore(0);
+        // Выборка вопросов определяется зерном, поэтому maxScore известен сразу и выдача
+        // вопросов ничего не пишет
+        ExamSnapshotCache.ExamSnapshot snapshot = snapshotOf(test);
+        testResult.setMaxScore(ExamSnapshotCache.ExamSnapshot.maxScore(
+                selectedQuestions(snapshot, selectedQuestionIds(testResult, test, snapshot.answerKey()))));
 
-        TestResult savedResult = testResultRepository.save(testResult);
+        // saveAndFlush: нарушение индекса открытых попыток должно проявиться здесь, а не при коммите
+        TestResult savedResult = testResultRepository.saveAndFlush(testResult);
         return TestResultDto.fromEntity(savedResult);
     }
 
     // Get questions for a test (for students taking the test)
+    // Вопросы берутся из снимка ExamSnapshotCache: при прогретом кэше запрос к базе один - сама попытка.
+    // Только чтение: обновление страницы во время теста не порождает записей
+    @Transactional(readOnly = true)
     public List<QuestionDto> getTestQuestions(Long testId, Long testResultId, Long studentId) {
-        TestResult testResult = testResultRepository.findById(testResultId)
+        TestResult testResult = testResultRepository.findAttemptById(testResultId)
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
 
         // Verify that this test result belongs to the student
@@ -526,305 +559,564 @@ public class TestService {
         if (testResult.isCompleted()) {
             throw new RuntimeException("Тест уже завершен");
         }
+        if (testResult.getPendingSubmission() != null) {
+            throw new RuntimeException("Ответы уже отправлены и проверяются");
+        }
 
         Test test = testResult.getTest();
-        List<Question> allQuestions = test.getQuestions();
+        ExamSnapshotCache.ExamSnapshot snapshot = snapshotOf(test);
+        return selectedQuestions(snapshot, selectedQuestionIds(testResult, test, snapshot.answerKey())).stream()
+                .map(ExamSnapshotCache.QuestionView::toDto)
+                .toList();
+    }
+
+    private ExamSnapshotCache.ExamSnapshot snapshotOf(Test test) {
+        return examSnapshotCache.get(test.getId(), test.getUpdatedAt(),
+                () -> testRepository.findWithQuestionsById(test.getId())
+                        .orElseThrow(() -> new RuntimeException("Тест не найден")));
+    }
 
+    private static List<ExamSnapshotCache.QuestionView> selectedQuestions(ExamSnapshotCache.ExamSnapshot snapshot,
+                                                                         List<Long> selectedIds) {
         // If questionsToShow is null or less than or equal to 0, or greater than total questions, show all questions
-        if (test.getQuestionsToShow() == null || test.getQuestionsToShow() <= 0 || test.getQuestionsToShow() >= allQuestions.size()) {
-            // Если отображаются все вопросы, устанавливаем maxScore как сумму баллов всех вопросов
-            int totalMaxScore = allQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
-            testResult.setMaxScore(totalMaxScore);
-            testResultRepository.save(testResult);
+        if (selectedIds == null) {
+            return snapshot.questions();
+        }
+        // Use the selected questions in the sampled order,
+        // skipping any questions that might have been deleted
+        return selectedIds.stream()
+                .map(snapshot.questionsById()::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Вопросы, на которые можно автосохранять ответы в попытке: выданные ученику или, если
+     * выборки нет, все вопросы теста. Заодно проверяет, что попытка принадлежит ученику и открыта.
+     */
+    @Transactional(readOnly = true)
+    public Set<Long> getAnswerableQuestionIds(Long testResultId, Long studentId) {
+        TestResult testResult = findOpenAttempt(testResultId, studentId);
+        Test test = testResult.getTest();
+        ExamSnapshotCache.ExamSnapshot snapshot = snapshotOf(test);
+        List<Long> selectedIds = selectedQuestionIds(testResult, test, snapshot.answerKey());
+        return selectedIds != null ? Set.copyOf(selectedIds) : snapshot.questionsById().keySet();
+    }
 
-            return allQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
+    /**
+     * Вопросы, выданные в попытке, в порядке выдачи, или null, если выдаются все вопросы теста.
+     * Выборка восстанавливается по зерну попытки из вопросов ключа (они упорядочены по id) за O(k)
+     * и не читает test_result_selected_questions. Попытки, начатые до появления зерна, берут
+     * сохраненный список, а если его нет - используют id попытки как зерно.
+     */
+    private static List<Long> selectedQuestionIds(TestResult testResult, Test test, AnswerKey answerKey) {
+        Integer questionsToShow = test.getQuestionsToShow();
+        if (questionsToShow == null || questionsToShow <= 0 || questionsToShow >= answerKey.size()) {
+            return null;
+        }
+        Long seed = testResult.getQuestionSeed();
+        if (seed == null) {
+            List<Long> stored = testResult.getSelectedQuestionIds();
+            if (stored != null && !stored.isEmpty()) {
+                return stored;
+            }
+            seed = testResult.getId();
+        }
+        int[] sample = QuestionSampler.sample(answerKey.size(), questionsToShow, seed);
+        List<Long> ids = new ArrayList<>(sample.length);
+        for (int index : sample) {
+            ids.add(answerKey.questionId(index));
         }
+        return ids;
+    }
+
+    // Сохраненные промежуточные ответы попытки - для восстановления страницы теста
+    @Transactional(readOnly = true)
+    public List<StudentAnswerRequest> getSavedAnswers(Long testResultId, Long studentId) {
+        findOpenAttempt(testResultId, studentId);
+        return answerDraftRepository.findByTestResultId(testResultId).stream()
+                .map(TestService::toAnswerRequest)
+                .collect(Collectors.toList());
+    }
 
-        // If this is a new test result without assigned questions, randomly select questions
-        if (testResult.getSelectedQuestionIds() == null || testResult.getSelectedQuestionIds().isEmpty()) {
-            // Create a copy of the questions list and shuffle it
-            List<Question> questionsCopy = new ArrayList<>(allQuestions);
-            Collections.shuffle(questionsCopy);
+    private TestResult findOpenAttempt(Long testResultId, Long studentId) {
+        TestResult testResult = testResultRepository.findAttemptById(testResultId)
+                .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
+        if (!testResult.getStudent().getId().equals(studentId)) {
+            throw new RuntimeException("У вас нет доступа к этому тесту");
+        }
+        if (testResult.isCompleted()) {
+            throw new RuntimeException("Тест уже завершен");
+        }
+        if (testResult.getPendingSubmission() != null) {
+            throw new RuntimeException("Ответы уже отправлены и проверяются");
+        }
+        return testResult;
+    }
 
-            // Take only the required number of questions
-            List<Question> selectedQuestions = questionsCopy.subList(0, test.getQuestionsToShow());
+    // Submit answers for a test
+    @Transactional
+    public TestResultDto submitTest(TestSubmissionRequest request, Long studentId) {
+        // Блокировка строки попытки: отправка не должна пересечься с закрытием по сроку
+        TestResult locked = testResultRepository.lockById(request.getTestResultId())
+                .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
+        TestResult testResult = testResultRepository.findForGradingById(locked.getId()).orElseThrow();
+        if (isRepeatedSubmission(testResult, studentId, request.getIdempotencyKey())) {
+            return TestResultDto.fromEntity(testResult);
+        }
+        checkSubmittable(testResult, studentId);
 
-            // Store the selected question IDs in the test result for consistency between requests
-            List<Long> selectedQuestionIds = selectedQuestions.stream()
-                    .map(Question::getId)
-                    .collect(Collectors.toList());
+        testResult.setSubmissionKey(request.getIdempotencyKey());
+        return gradeAttempt(testResult, withSavedAnswers(testResult.getId(), request.getAnswers()), LocalDateTime.now());
+    }
 
-            // ВАЖНО: Вычисляем maxScore на основе выбранных вопросов
-            int selectedQuestionsMaxScore = selectedQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
+    /**
+     * Принимает ответы без проверки: сохраняет их как есть и возвращает результат со статусом
+     * "проверяется". Проверку выполняет SubmissionGradingService через gradeGroup.
+     */
+    @Transactional
+    public TestResultDto acceptSubmission(TestSubmissionRequest request, Long studentId) {
+        TestResult locked = testResultRepository.lockById(request.getTestResultId())
+                .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
+        TestResult testResult = testResultRepository.findSummaryById(locked.getId()).orElseThrow();
+        return accept(testResult, studentId, request.getIdempotencyKey(),
+                request.getAnswers() != null ? request.getAnswers() : List.of());
+    }
 
-            testResult.setSelectedQuestionIds(selectedQuestionIds);
-            testResult.setMaxScore(selectedQuestionsMaxScore); // Устанавливаем правильный maxScore
-            testResultRepository.save(testResult);
+    /**
+     * Прием группы отправок одной транзакцией: блокировки и чтение попыток - по запросу на группу,
+     * запись принятых ответов - одним коммитом. Отказ по отдельной отправке не мешает остальным;
+     * итоги в порядке запросов.
+     */
+    @Transactional
+    public List<GradingOutcome> acceptGroup(List<GradingRequest> requests) {
+        List<Long> ids = requests.stream().map(GradingRequest::testResultId).distinct().sorted().toList();
+        testResultRepository.lockAllById(ids);
+        Map<Long, TestResult> attempts = new HashMap<>();
+        for (TestResult testResult : testResultRepository.findSummaryByIdIn(ids)) {
+            attempts.put(testResult.getId(), testResult);
+        }
 
-            return selectedQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
-        } else {
-            // Use the previously selected questions
-            List<Long> selectedQuestionIds = testResult.getSelectedQuestionIds();
-
-            // Create a map for quick lookup of questions by ID
-            Map<Long, Question> questionMap = allQuestions.stream()
-                    .collect(Collectors.toMap(Question::getId, q -> q));
-
-            // Retrieve the previously selected questions in the original order
-            List<Question> selectedQuestions = selectedQuestionIds.stream()
-                    .map(questionMap::get)
-                    .filter(Objects::nonNull) // Filter out any questions that might have been deleted
-                    .collect(Collectors.toList());
-
-            // ВАЖНО: Проверяем, что maxScore соответствует выбранным вопросам
-            // Это может быть полезно, если вопросы были изменены между запусками теста
-            int selectedQuestionsMaxScore = selectedQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
-
-            // Обновляем maxScore, если он не соответствует выбранным вопросам
-            if (testResult.getMaxScore() != selectedQuestionsMaxScore) {
-                testResult.setMaxScore(selectedQuestionsMaxScore);
-                testResultRepository.save(testResult);
+        List<GradingOutcome> outcomes = new ArrayList<>(requests.size());
+        for (GradingRequest request : requests) {
+            try {
+                TestResult testResult = attempts.get(request.testResultId());
+                if (testResult == null) {
+                    throw new RuntimeException("Результат теста не найден");
+                }
+                outcomes.add(new GradingOutcome(accept(testResult, request.studentId(), request.submissionKey(),
+                        request.answers() != null ? request.answers() : List.of()), null));
+            } catch (RuntimeException e) {
+                outcomes.add(new GradingOutcome(null, e));
             }
+        }
+        return outcomes;
+    }
+
+    // Попытка уже заблокирована вызывающим
+    private TestResultDto accept(TestResult testResult, Long studentId, String key, List<StudentAnswerRequest> answers) {
+        if (isRepeatedSubmission(testResult, studentId, key)) {
+            return TestResultDto.fromEntity(testResult);
+        }
+        checkSubmittable(testResult, studentId);
 
-            return selectedQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
+        testResult.setSubmissionKey(key);
+        try {
+            testResult.setPendingSubmission(objectMapper.writeValueAsString(answers));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Не удалось сохранить ответы", e);
         }
+        testResult.setSubmittedAt(LocalDateTime.now());
+        return TestResultDto.fromEntity(testResultRepository.save(testResult));
     }
 
-    // Submit answers for a test
-    @Transactional
-    public TestResultDto submitTest(TestSubmissionRequest request, Long studentId) {
-        TestResult testResult = testResultRepository.findById(request.getTestResultId())
-                .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
+    /**
+     * Результат попытки, уже отправленной учеником studentId с ключом идемпотентности key.
+     * Чтение без блокировки: повтор отправки не ждет проверку и не проверяет ответы заново.
+     */
+    @Transactional(readOnly = true)
+    public Optional<TestResultDto> findSubmission(Long testResultId, Long studentId, String key) {
+        return testResultRepository.findSummaryById(testResultId)
+                .filter(testResult -> isRepeatedSubmission(testResult, studentId, key))
+                .map(TestResultDto::fromEntity);
+    }
 
+    /**
+     * Попытка для проверки в группе. answers == null - проверяются ответы, принятые acceptSubmission,
+     * владелец при этом уже проверен; иначе это отправка ученика studentId с ключом submissionKey.
+     */
+    public record GradingRequest(Long testResultId, Long studentId, List<StudentAnswerRequest> answers,
+                                 String submissionKey) {
+
+        public GradingRequest(Long testResultId, Long studentId, List<StudentAnswerRequest> answers) {
+            this(testResultId, studentId, answers, null);
+        }
+    }
+
+    // Итог проверки одной попытки группы: результат или ошибка, относящаяся только к ней
+    public record GradingOutcome(TestResultDto result, RuntimeException error) {
+    }
+
+    /**
+     * Проверка группы попыток. Ответы проверяются до блокировок: чтение попыток с вопросами
+     * и автосохраненных ответов идет без блокировки строк, по запросу на всю группу. Затем в
+     * короткой транзакции попытки блокируются и проверяются заново, а итоги пишутся одним коммитом;
+     * если ответы за это время изменились (автосохранение, параллельная отправка), попытка
+     * пересчитывается уже под блокировкой. Отказ по отдельной попытке (чужая, уже завершена)
+     * не мешает остальным; итоги в порядке запросов. Повторная проверка уже проверенной
+     * принятой попытки ничего не меняет.
+     */
+    public List<GradingOutcome> gradeGroup(List<GradingRequest> requests) {
+        List<Long> ids = requests.stream().map(GradingRequest::testResultId).distinct().sorted().toList();
+        LocalDateTime now = LocalDateTime.now();
+        List<Prepared> prepared = transactionTemplate.execute(status -> prepareGroup(requests, ids));
+        return transactionTemplate.execute(status -> completeGroup(requests, ids, prepared, now));
+    }
+
+    // Подсчет баллов без блокировок; null - попытку проверять не нужно или она будет отклонена
+    private List<Prepared> prepareGroup(List<GradingRequest> requests, List<Long> ids) {
+        Map<Long, TestResult> attempts = new HashMap<>();
+        for (TestResult testResult : testResultRepository.findForGradingByIdIn(ids)) {
+            attempts.put(testResult.getId(), testResult);
+        }
+        Map<Long, List<AnswerDraft>> drafts = answerDraftRepository.findByTestResultIdIn(ids).stream()
+                .collect(Collectors.groupingBy(draft -> draft.getTestResult().getId()));
+
+        List<Prepared> prepared = new ArrayList<>(requests.size());
+        for (GradingRequest request : requests) {
+            TestResult testResult = attempts.get(request.testResultId());
+            List<StudentAnswerRequest> submitted;
+            try {
+                submitted = testResult != null ? answersToGrade(testResult, request) : null;
+            } catch (RuntimeException e) {
+                // Отказ по попытке вернет блокирующая транзакция
+                submitted = null;
+            }
+            if (submitted == null) {
+                prepared.add(null);
+                continue;
+            }
+            List<StudentAnswerRequest> merged = mergeAnswers(drafts.getOrDefault(testResult.getId(), List.of()), submitted);
+            prepared.add(new Prepared(merged, testResult.getTest().getUpdatedAt(), score(testResult, merged)));
+        }
+        return prepared;
+    }
+
+    // Запись итогов под блокировками; сбой самой проверки откатывает всю группу
+    private List<GradingOutcome> completeGroup(List<GradingRequest> requests, List<Long> ids,
+                                               List<Prepared> prepared, LocalDateTime now) {
+        // Блокировки в порядке id: параллельные группы не ждут друг друга по кругу
+        testResultRepository.lockAllById(ids);
+        Map<Long, TestResult> attempts = new HashMap<>();
+        for (TestResult testResult : testResultRepository.findSummaryByIdIn(ids)) {
+            attempts.put(testResult.getId(), testResult);
+        }
+        Map<Long, List<AnswerDraft>> drafts = answerDraftRepository.findByTestResultIdIn(ids).stream()
+                .collect(Collectors.groupingBy(draft -> draft.getTestResult().getId()));
+
+        List<Long> gradedWithDrafts = new ArrayList<>();
+        List<GradingOutcome> outcomes = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            GradingRequest request = requests.get(i);
+            TestResult testResult = attempts.get(request.testResultId());
+            List<StudentAnswerRequest> submitted;
+            try {
+                if (testResult == null) {
+                    throw new RuntimeException("Результат теста не найден");
+                }
+                submitted = answersToGrade(testResult, request);
+            } catch (RuntimeException e) {
+                outcomes.add(new GradingOutcome(null, e));
+                continue;
+            }
+            if (submitted == null) {
+                outcomes.add(new GradingOutcome(TestResultDto.fromEntity(testResult), null));
+                continue;
+            }
+
+            LocalDateTime submittedAt = testResult.getSubmittedAt();
+            if (request.answers() != null) {
+                testResult.setSubmissionKey(request.submissionKey());
+                submittedAt = now;
+            }
+            List<AnswerDraft> saved = drafts.getOrDefault(testResult.getId(), List.of());
+            if (!saved.isEmpty()) {
+                gradedWithDrafts.add(testResult.getId());
+            }
+            List<StudentAnswerRequest> merged = mergeAnswers(saved, submitted);
+            Prepared ready = prepared.get(i);
+            Scoring scoring = ready != null && ready.answers().equals(merged)
+                    && Objects.equals(ready.testUpdatedAt(), testResult.getTest().getUpdatedAt())
+                    ? ready.scoring()
+                    : score(testResultRepository.findForGradingById(testResult.getId()).orElseThrow(), merged);
+            outcomes.add(new GradingOutcome(toGradedDto(completeAttempt(testResult, scoring, submittedAt), submittedAt), null));
+        }
+        if (!gradedWithDrafts.isEmpty()) {
+            answerDraftRepository.deleteByTestResultIdIn(gradedWithDrafts);
+        }
+        return outcomes;
+    }
+
+    // Ответы попытки для проверки по запросу группы или null, если проверять нечего: принятая
+    // попытка уже проверена либо это повтор уже принятой отправки. Отказ по попытке - исключение
+    private List<StudentAnswerRequest> answersToGrade(TestResult testResult, GradingRequest request) {
+        if (request.answers() == null) {
+            if (testResult.isCompleted() || testResult.getPendingSubmission() == null) {
+                return null;
+            }
+            return readPendingSubmission(testResult);
+        }
+        if (isRepeatedSubmission(testResult, request.studentId(), request.submissionKey())) {
+            return null;
+        }
+        checkSubmittable(testResult, request.studentId());
+        return request.answers();
+    }
+
+    // Ответы, посчитанные до блокировки, и версия теста, по которой они посчитаны
+    private record Prepared(List<StudentAnswerRequest> answers, LocalDateTime testUpdatedAt, Scoring scoring) {
+    }
+
+    // Проверенные ответы попытки, еще не привязанные к ней, и баллы
+    private record Scoring(List<StudentAnswer> answers, int score, int maxScore) {
+    }
+
+    // Ключ сохраняется только вместе с отправкой, поэтому совпадение значит, что попытка уже
+    // завершена или принята этими же ответами
+    private static boolean isRepeatedSubmission(TestResult testResult, Long studentId, String key) {
+        return key != null && key.equals(testResult.getSubmissionKey())
+                && testResult.getStudent().getId().equals(studentId);
+    }
+
+    private static void checkSubmittable(TestResult testResult, Long studentId) {
         // Verify that this test result belongs to the student
         if (!testResult.getStudent().getId().equals(studentId)) {
             throw new RuntimeException("У вас нет доступа к этому тесту");
         }
-
         // Verify that the test is not completed
         if (testResult.isCompleted()) {
             throw new RuntimeException("Тест уже завершен");
         }
+        if (testResult.getPendingSubmission() != null) {
+            throw new RuntimeException("Ответы уже отправлены и проверяются");
+        }
+    }
 
-        Test test = testResult.getTest();
-        boolean timeExpired = false;
+    private List<StudentAnswerRequest> readPendingSubmission(TestResult testResult) {
+        try {
+            return objectMapper.readValue(testResult.getPendingSubmission(),
+                    new TypeReference<List<StudentAnswerRequest>>() {});
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Не удалось прочитать сохраненные ответы попытки " + testResult.getId(), e);
+        }
+    }
 
-        // Check if time limit exceeded
-        LocalDateTime deadline = testResult.getStartedAt().plusMinutes(testResult.getTest().getTimeLimit());
-        if (LocalDateTime.now().isAfter(deadline)) {
-            timeExpired = true;
+    /**
+     * Учитывает неудачную фоновую проверку принятой попытки. После maxFailures неудач попытка
+     * закрывается без балла с причиной в gradingError и выходит из обхода непроверенных попыток,
+     * иначе она проверялась бы заново при каждом обходе. Принятые ответы при этом пишутся в журнал.
+     * Возвращает закрытую попытку или пусто, если попытка еще будет проверяться или уже не ждет проверки.
+     */
+    @Transactional
+    public Optional<TestResultDto> recordGradingFailure(Long testResultId, String error, int maxFailures) {
+        TestResult testResult = testResultRepository.lockById(testResultId).orElse(null);
+        if (testResult == null || testResult.isCompleted() || testResult.getPendingSubmission() == null) {
+            return Optional.empty();
+        }
+        int failures = (testResult.getGradingFailures() != null ? testResult.getGradingFailures() : 0) + 1;
+        testResult.setGradingFailures(failures);
+        if (failures < maxFailures) {
+            testResultRepository.save(testResult);
+            return Optional.empty();
         }
 
-        // Process student answers
-        int totalScore = 0;
+        log.error("Попытка {} закрыта без проверки после {} неудач; принятые ответы: {}",
+                testResultId, failures, testResult.getPendingSubmission());
+        String reason = error != null ? error : "Неизвестная ошибка";
+        testResult.setGradingError(reason.length() > GRADING_ERROR_LENGTH ? reason.substring(0, GRADING_ERROR_LENGTH) : reason);
+        testResult.setPendingSubmission(null);
+        testResult.setCompleted(true);
+        testResult.setCompletedAt(testResult.getSubmittedAt());
+        testResult.setScore(null);
+        return Optional.of(TestResultDto.fromEntity(testResultRepository.save(testResult)));
+    }
+
+    /**
+     * Закрывает просроченные попытки из списка; вызывается AttemptExpiryService порциями,
+     * по транзакции на порцию. Каждая попытка блокируется и проверяется заново: за время
+     * между выборкой и блокировкой ученик мог отправить ответы. Возвращает число закрытых.
+     */
+    @Transactional
+    public int expireAttempts(List<Long> testResultIds, LocalDateTime cutoff) {
+        int expired = 0;
+        for (Long id : testResultIds) {
+            TestResult locked = testResultRepository.lockById(id).orElse(null);
+            if (locked == null || locked.isCompleted() || locked.getPendingSubmission() != null
+                    || !deadlineOf(locked).isBefore(cutoff)) {
+                continue;
+            }
+            expireAttempt(testResultRepository.findForGradingById(id).orElseThrow());
+            expired++;
+        }
+        return expired;
+    }
 
-        // Create a map of questionId -> Question for faster access
-        Map<Long, Question> questionMap = test.getQuestions().stream()
-                .collect(Collectors.toMap(Question::getId, q -> q));
+    // Завершение попытки по сроку: проверяются автосохраненные ответы; время завершения -
+    // срок попытки, а не момент обнаружения
+    private void expireAttempt(TestResult testResult) {
+        completeAttempt(testResult, score(testResult, withSavedAnswers(testResult.getId(), List.of())),
+                deadlineOf(testResult));
+    }
 
-        // Get the list of questions that should be considered for scoring
-        List<Long> questionIdsToConsider;
-        if (testResult.getSelectedQuestionIds() != null && !testResult.getSelectedQuestionIds().isEmpty()) {
-            questionIdsToConsider = testResult.getSelectedQuestionIds();
-        } else {
-            // If no specific questions were selected, consider all questions
-            questionIdsToConsider = test.getQuestions().stream()
-                    .map(Question::getId)
-                    .collect(Collectors.toList());
+    // Для попыток, созданных до появления колонки deadline, срок считается по началу и лимиту теста
+    private static LocalDateTime deadlineOf(TestResult testResult) {
+        return testResult.getDeadline() != null
+                ? testResult.getDeadline()
+                : testResult.getStartedAt().plusMinutes(testResult.getTest().getTimeLimit());
+    }
+
+    // Проверка ответов и завершение попытки; answers - уже вместе с автосохраненными,
+    // submittedAt - момент, когда ученик отправил ответы
+    private TestResultDto gradeAttempt(TestResult testResult, List<StudentAnswerRequest> answers,
+                                       LocalDateTime submittedAt) {
+        return toGradedDto(completeAttempt(testResult, score(testResult, answers), submittedAt), submittedAt);
+    }
+
+    private static TestResultDto toGradedDto(TestResult savedResult, LocalDateTime submittedAt) {
+        // Check if time limit exceeded
+        boolean timeExpired = submittedAt.isAfter(deadlineOf(savedResult));
+
+        // If time expired, include a message in the result
+        TestResultDto resultDto = TestResultDto.fromEntity(savedResult);
+        if (timeExpired) {
+            resultDto.setMessage("Время выполнения теста истекло. Учтены только предоставленные ответы.");
         }
 
-        // ВНИМАНИЕ: maxPossibleScore уже установлен в testResult.getMaxScore()
-        // при выборе вопросов, поэтому мы можем его использовать напрямую
-        int maxPossibleScore = testResult.getMaxScore();
+        return resultDto;
+    }
 
-        // Process each answer
-        for (StudentAnswerRequest answerRequest : request.getAnswers()) {
-            Question question = questionMap.get(answerRequest.getQuestionId());
-            if (question == null) {
-                continue; // Skip if question not found
-            }
+    // Проверка ответов; вопросы теста должны быть загружены: по их вариантам строится маска выбора
+    private Scoring score(TestResult testResult, List<StudentAnswerRequest> answers) {
+        Test test = testResult.getTest();
+
+        // Проверка по скомпилированному ключу ответов; тест уже загружен, поэтому при промахе
+        // кэша ключ собирается из него же
+        ExamSnapshotCache.ExamSnapshot snapshot = examSnapshotCache.get(test.getId(), test.getUpdatedAt(), () -> test);
+        AnswerKey answerKey = snapshot.answerKey();
 
-            // Skip questions that were not part of the selected set
-            if (!questionIdsToConsider.contains(question.getId())) {
+        // Get the questions that should be considered for scoring
+        List<Long> selectedIds = selectedQuestionIds(testResult, test, answerKey);
+        boolean[] scored = answerKey.scoredQuestions(selectedIds);
+
+        // Process each answer
+        List<StudentAnswer> studentAnswers = new ArrayList<>();
+        int totalScore = 0;
+        for (StudentAnswerRequest answerRequest : answers) {
+            int index = answerKey.indexOf(answerRequest.getQuestionId());
+            // Skip questions that are not in the test or were not part of the selected set
+            if (index < 0 || !scored[index]) {
                 continue;
             }
 
+            Grader.Outcome outcome = answerKey.grade(index,
+                    answerRequest.getTextAnswer(), answerRequest.getSelectedAnswerIds());
+
+            // Вопросы теста уже в контексте после findForGradingById, запроса здесь нет
+            Question question = questionRepository.getReferenceById(answerKey.questionId(index));
             StudentAnswer studentAnswer = new StudentAnswer();
             studentAnswer.setQuestion(question);
-            studentAnswer.setTestResult(testResult);
-
-            boolean isCorrect = false;
-
-            switch (question.getType()) {
-                case TEXT_ANSWER:
-                    studentAnswer.setTextAnswer(answerRequest.getTextAnswer());
-
-                    // For text answers, we need custom logic to determine correctness
-                    if (question.getAnswers().size() > 0) {
-                        String correctAnswer = question.getAnswers().get(0).getText().trim().toLowerCase();
-                        String providedAnswer = answerRequest.getTextAnswer() != null ?
-                                answerRequest.getTextAnswer().trim().toLowerCase() : "";
-                        isCorrect = correctAnswer.equals(providedAnswer);
-                    }
-                    break;
-
-                case SINGLE_CHOICE:
-                case MULTIPLE_CHOICE:
-                    // Get selected answers
-                    if (answerRequest.getSelectedAnswerIds() != null && !answerRequest.getSelectedAnswerIds().isEmpty()) {
-                        // Create a map of answerId -> Answer for this question
-                        Map<Long, Answer> answerMap = question.getAnswers().stream()
-                                .collect(Collectors.toMap(Answer::getId, a -> a));
-
-                        // Add selected answers
-                        Set<Answer> selectedAnswers = new HashSet<>();
-                        for (Long answerId : answerRequest.getSelectedAnswerIds()) {
-                            Answer answer = answerMap.get(answerId);
-                            if (answer != null) {
-                                selectedAnswers.add(answer);
-                            }
-                        }
-                        studentAnswer.setSelectedAnswers(selectedAnswers);
-
-                        if (question.getType() == QuestionType.SINGLE_CHOICE) {
-                            // For single choice, the answer is correct if the selected answer is correct
-                            if (selectedAnswers.size() == 1) {
-                                isCorrect = selectedAnswers.iterator().next().isCorrect();
-                            }
-                        } // Modified section of the multiple-choice scoring logic
-                        else if (question.getType() == QuestionType.MULTIPLE_CHOICE) {
-                            // For multiple choice, we calculate points proportionally
-                            Set<Answer> allQuestionAnswers = new HashSet<>(question.getAnswers());
-                            Set<Answer> correctQuestionAnswers = question.getAnswers().stream()
-                                    .filter(Answer::isCorrect)
-                                    .collect(Collectors.toSet());
-
-                            if (correctQuestionAnswers.isEmpty()) {
-                                // If there are no correct answers, check if student selected nothing
-                                isCorrect = selectedAnswers.isEmpty();
-                            } else {
-                                // Count the student's correct and incorrect selections
-                                int totalCorrectAnswers = correctQuestionAnswers.size();
-
-                                // Correctly selected answers (true positive)
-                                int correctSelectedCount = 0;
-                                for (Answer selected : selectedAnswers) {
-                                    if (selected.isCorrect()) {
-                                        correctSelectedCount++;
-                                    }
-                                }
-
-                                // Incorrectly selected answers (false positive)
-                                int incorrectSelectedCount = selectedAnswers.size() - correctSelectedCount;
-
-                                // Calculate partial score - modified formula for fairer scoring
-                                double correctRatio = (double) correctSelectedCount / totalCorrectAnswers;
-
-                                // Calculate penalty for incorrect selections - proportional to the number of incorrect options
-                                int totalIncorrectOptions = allQuestionAnswers.size() - totalCorrectAnswers;
-                                double incorrectPenalty = totalIncorrectOptions > 0 ?
-                                        (double) incorrectSelectedCount / totalIncorrectOptions : 0;
-
-                                // Final ratio is the percentage of correct answers minus a penalty for incorrect selections
-                                // The penalty is scaled to ensure students don't get 0 for minor mistakes
-                                double ratio = Math.max(0, correctRatio - (incorrectPenalty * 0.5));
-
-                                // Set partial points
-                                int partialPoints = (int) Math.round(question.getPoints() * ratio);
-                                studentAnswer.setEarnedPoints(partialPoints);
-
-                                // Technically the answer is only fully correct if ratio == 1.0
-                                isCorrect = (ratio == 1.0);
-                                studentAnswer.setCorrect(isCorrect);
-
-                                // Store the ratio for reference
-                                studentAnswer.setPartialRatio(ratio);
-
-                                // Add points to total score
-                                totalScore += partialPoints;
-
-                                // Add student answer to the result and move to next question
-                                testResult.getStudentAnswers().add(studentAnswer);
-                                continue; // Skip standard scoring logic below
-                            }
-                        }
-                    }
-                    break;
+            if (answerKey.type(index) == QuestionType.TEXT_ANSWER) {
+                studentAnswer.setTextAnswer(answerRequest.getTextAnswer());
             }
+            studentAnswer.setSelectedAnswerIds(outcome.selectedAnswerIds());
+            studentAnswer.setCorrect(outcome.correct());
+            studentAnswer.setEarnedPoints(outcome.earnedPoints());
+            studentAnswer.setPartialRatio(outcome.partialRatio());
+            totalScore += outcome.earnedPoints();
 
-            if (question.getType() != QuestionType.MULTIPLE_CHOICE || isCorrect) {
-                studentAnswer.setCorrect(isCorrect);
-                studentAnswer.setEarnedPoints(isCorrect ? question.getPoints() : 0);
-                totalScore += studentAnswer.getEarnedPoints();
-            }
+            studentAnswers.add(studentAnswer);
+        }
+
+        // Пересчет по текущему составу теста: покрывает попытки, начатые до изменения теста
+        return new Scoring(studentAnswers, totalScore,
+                ExamSnapshotCache.ExamSnapshot.maxScore(selectedQuestions(snapshot, selectedIds)));
+    }
 
+    private TestResult completeAttempt(TestResult testResult, Scoring scoring, LocalDateTime submittedAt) {
+        for (StudentAnswer studentAnswer : scoring.answers()) {
+            // Ответы могли быть проверены в другой транзакции: вопрос - ссылкой из текущей, без запроса
+            studentAnswer.setQuestion(questionRepository.getReferenceById(studentAnswer.getQuestion().getId()));
+            studentAnswer.setTestResult(testResult);
             testResult.getStudentAnswers().add(studentAnswer);
         }
 
         // Mark test as completed
         testResult.setCompleted(true);
-        testResult.setCompletedAt(LocalDateTime.now());
-        testResult.setScore(totalScore);
+        testResult.setCompletedAt(submittedAt);
+        testResult.setScore(scoring.score());
+        testResult.setMaxScore(scoring.maxScore());
+        testResult.setPendingSubmission(null);
 
-        TestResult savedResult = testResultRepository.save(testResult);
+        return testResultRepository.save(testResult);
+    }
 
-        // If time expired, include a message in the result
-        TestResultDto resultDto = TestResultDto.fromEntity(savedResult);
-        if (timeExpired) {
-            resultDto.setMessage("Время выполнения теста истекло. Учтены только предоставленные ответы.");
+    // Автосохраненные ответы попытки вместе с отправленными. Черновики удаляются:
+    // после завершения попытки они больше не нужны
+    private List<StudentAnswerRequest> withSavedAnswers(Long testResultId, List<StudentAnswerRequest> submitted) {
+        List<AnswerDraft> drafts = answerDraftRepository.findByTestResultId(testResultId);
+        if (!drafts.isEmpty()) {
+            answerDraftRepository.deleteByTestResultId(testResultId);
         }
+        return mergeAnswers(drafts, submitted);
+    }
 
-        return resultDto;
+    // Автосохраненные ответы, поверх них - ответы из запроса; по одному ответу на вопрос
+    private static List<StudentAnswerRequest> mergeAnswers(List<AnswerDraft> drafts, List<StudentAnswerRequest> submitted) {
+        Map<Long, StudentAnswerRequest> byQuestion = new LinkedHashMap<>();
+        for (AnswerDraft draft : drafts) {
+            byQuestion.put(draft.getQuestionId(), toAnswerRequest(draft));
+        }
+        if (submitted != null) {
+            for (StudentAnswerRequest answer : submitted) {
+                byQuestion.put(answer.getQuestionId(), answer);
+            }
+        }
+        return new ArrayList<>(byQuestion.values());
     }
-    // Get test results for a student
-    public List<TestResultDto> getStudentResults(Long studentId) {
-        User student = userRepository.findById(studentId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
-        if (student.getRole() != UserRole.STUDENT) {
+    private static StudentAnswerRequest toAnswerRequest(AnswerDraft draft) {
+        return new StudentAnswerRequest(draft.getQuestionId(), draft.getTextAnswer(),
+                AnswerDraft.splitIds(draft.getSelectedAnswerIds()));
+    }
+
+
+    // Get test results for a student
+    public List<TestResultDto> getStudentResults(AuthPrincipal student) {
+        if (student.role() != UserRole.STUDENT) {
             throw new RuntimeException("Пользователь не является учеником");
         }
 
-        return testResultRepository.findByStudent(student).stream()
+        return testResultRepository.findByStudentId(student.id()).stream()
                 .map(TestResultDto::fromEntity)
                 .collect(Collectors.toList());
     }
     // Add this to TestService.java
-    public TestResultDto getTestResultById(Long resultId, Long userId) {
-        TestResult result = testResultRepository.findById(resultId)
+    public TestResultDto getTestResultById(Long resultId, AuthPrincipal user) {
+        TestResult result = testResultRepository.findSummaryById(resultId)
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.TEACHER) {
+        if (user.role() == UserRole.TEACHER) {
             Test test = result.getTest();
-            boolean isCreator = test.getCreator().getId().equals(userId);
-            boolean teachesSubject = user.getSubjects().stream()
-                    .anyMatch(s -> s.getId().equals(test.getSubject().getId()));
-
-            if (!isCreator && !teachesSubject) {
+            if (!isCreatorOrTeachesSubject(test, user)) {
                 throw new RuntimeException("У вас нет доступа к этому результату теста");
             }
-        } else if (user.getRole() == UserRole.STUDENT) {
+        } else if (user.role() == UserRole.STUDENT) {
             // Students can only view their own results
-            if (!result.getStudent().getId().equals(userId)) {
+            if (!result.getStudent().getId().equals(user.id())) {
                 throw new RuntimeException("У вас нет доступа к этому результату теста");
             }
-        } else if (user.getRole() != UserRole.ADMIN) {
+        } else if (user.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на просмотр результатов теста");
         }
 
@@ -834,32 +1126,25 @@ public class TestService {
      * Получить детальную информацию о результате теста, включая ответы студента
      *
      * @param resultId ID результата теста
-     * @param userId ID пользователя, запрашивающего информацию
+     * @param user пользователь, запрашивающий информацию
      * @return Детальная информация о результате теста
      */
-    public TestResultDetailsDto getTestResultDetails(Long resultId, Long userId) {
-        TestResult result = testResultRepository.findById(resultId)
+    public TestResultDetailsDto getTestResultDetails(Long resultId, AuthPrincipal user) {
+        TestResult result = testResultRepository.findDetailsById(resultId)
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Проверка прав доступа
-        if (user.getRole() == UserRole.TEACHER) {
+        if (user.role() == UserRole.TEACHER) {
             Test test = result.getTest();
-            boolean isCreator = test.getCreator().getId().equals(userId);
-            boolean teachesSubject = user.getSubjects().stream()
-                    .anyMatch(s -> s.getId().equals(test.getSubject().getId()));
-
-            if (!isCreator && !teachesSubject) {
+            if (!isCreatorOrTeachesSubject(test, user)) {
                 throw new RuntimeException("У вас нет доступа к этому результату теста");
             }
-        } else if (user.getRole() == UserRole.STUDENT) {
+        } else if (user.role() == UserRole.STUDENT) {
             // Студенты могут просматривать только свои результаты
-            if (!result.getStudent().getId().equals(userId)) {
+            if (!result.getStudent().getId().equals(user.id())) {
                 throw new RuntimeException("У вас нет доступа к этому результату теста");
             }
-        } else if (user.getRole() != UserRole.ADMIN) {
+        } else if (user.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на просмотр результатов теста");
         }
 
@@ -871,28 +1156,30 @@ public class TestService {
         return TestResultDetailsDto.fromEntity(result);
     }
     // Get test results for a test (for teachers and admins)
-    public List<TestResultDto> getTestResults(Long testId, Long userId) {
+    public List<TestResultDto> getTestResults(Long testId, AuthPrincipal user) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
         // Check permissions
-        if (user.getRole() == UserRole.TEACHER) {
-            boolean isCreator = test.getCreator().getId().equals(userId);
-            boolean teachesSubject = user.getSubjects().stream()
-                    .anyMatch(s -> s.getId().equals(test.getSubject().getId()));
-
-            if (!isCreator && !teachesSubject) {
+        if (user.role() == UserRole.TEACHER) {
+            if (!isCreatorOrTeachesSubject(test, user)) {
                 throw new RuntimeException("У вас нет доступа к результатам этого теста");
             }
-        } else if (user.getRole() != UserRole.ADMIN) {
+        } else if (user.role() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на просмотр результатов теста");
         }
 
-        return testResultRepository.findByTest(test).stream()
+        return testResultRepository.findByTestId(testId).stream()
                 .map(TestResultDto::fromEntity)
                 .collect(Collectors.toList());
     }
-}
\ No newline at end of file
+
+    private boolean isAvailableForGrade(Test test, Long gradeId) {
+        return gradeId != null && test.getAvailableGrades().stream()
+                .anyMatch(g -> g.getId().equals(gradeId));
+    }
+
+    private boolean isCreatorOrTeachesSubject(Test test, AuthPrincipal user) {
+        return test.getCreator().getId().equals(user.id()) || user.hasSubject(test.getSubject().getId());
+    }
+}
@@ -0,0 +1,35 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Сравнение с первым вариантом без учета регистра и пробелов по краям
+@Component
+public class TextAnswerGrader implements Grader<TextAnswerGrader.Key> {
+
+    @Override
+    public QuestionType type() {
+        return QuestionType.TEXT_ANSWER;
+    }
+
+    @Override
+    public Key compile(Question question) {
+        String text = !question.getAnswers().isEmpty() ? question.getAnswers().get(0).getText() : null;
+        return new Key(question.getPoints() != null ? question.getPoints() : 0,
+                text != null ? text.trim().toLowerCase() : null);
+    }
+
+    @Override
+    public Outcome grade(Key key, String textAnswer, List<Long> selectedAnswerIds) {
+        String provided = textAnswer != null ? textAnswer.trim().toLowerCase() : "";
+        return Outcome.of(key.expectedText() != null && key.expectedText().equals(provided),
+                key.points(), Outcome.NO_SELECTION);
+    }
+
+    // Эталон уже без пробелов по краям и в нижнем регистре
+    public record Key(int points, String expectedText) {
+    }
+}
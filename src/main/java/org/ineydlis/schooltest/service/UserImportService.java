@@ -0,0 +1,378 @@
+package org.ineydlis.schooltest.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.UserDto;
+import org.ineydlis.schooltest.dto.UserImportReport;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.util.BadRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Массовый импорт пользователей из CSV или NDJSON.
+ * <p>
+ * Тело запроса читается построчно, классы и предметы берутся из заранее загруженных
+ * словарей, пароли хэшируются параллельно на всех ядрах, а вставка идет пакетами JDBC.
+ * Каждая порция строк записывается в своей транзакции; ошибки возвращаются построчно.
+ * <p>
+ * CSV: первая строка - заголовок с именами колонок
+ * username,password,fullName,email,role,gradeName,subjectNames,teachingGradeNames,active.
+ * Списки внутри ячейки разделяются ";". Значения можно заключать в двойные кавычки,
+ * перевод строки внутри значения не поддерживается.
+ */
+@Service
+public class UserImportService {
+
+    public enum Format { CSV, NDJSON }
+
+    private static final String INSERT_USER_SQL =
+            "INSERT INTO users (username, password, full_name, email, role, grade_id, active) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SUBJECT_SQL =
+            "INSERT INTO teacher_subjects (user_id, subject_id) VALUES (?, ?)";
+    private static final String INSERT_TEACHING_GRADE_SQL =
+            "INSERT INTO teacher_teaching_grade (user_id, grade_id) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PasswordEncoder passwordEncoder;
+    private final GradeRepository gradeRepository;
+    private final SubjectRepository subjectRepository;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    private final int hashingThreads;
+
+    public UserImportService(JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             PasswordEncoder passwordEncoder,
+                             GradeRepository gradeRepository,
+                             SubjectRepository subjectRepository,
+                             ObjectMapper objectMapper,
+                             @Value("${schooltest.import.chunk-size:500}") int chunkSize,
+                             @Value("${schooltest.import.hashing-threads:0}") int hashingThreads) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.passwordEncoder = passwordEncoder;
+        this.gradeRepository = gradeRepository;
+        this.subjectRepository = subjectRepository;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+        this.hashingThreads = hashingThreads > 0 ? hashingThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public UserImportReport importUsers(InputStream body, Format format) throws IOException {
+        long start = System.currentTimeMillis();
+        UserImportReport report = new UserImportReport();
+
+        Map<String, Long> gradeIds = gradeRepository.findAll().stream()
+                .collect(Collectors.toMap(Grade::getFullName, Grade::getId));
+        Map<String, Long> subjectIds = subjectRepository.findAll().stream()
+                .collect(Collectors.toMap(Subject::getName, Subject::getId));
+        Set<String> existingUsernames = new HashSet<>(
+                jdbcTemplate.queryForList("SELECT username FROM users", String.class));
+
+        // Пул живет только на время импорта, чтобы не конкурировать с пулом проверки паролей при входе
+        ExecutorService hashingPool = Executors.newFixedThreadPool(hashingThreads);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            Function<String, UserDto> parser = format == Format.CSV ? csvParser(reader.readLine()) : this::parseJson;
+            int lineNumber = format == Format.CSV ? 1 : 0;
+
+            List<ImportRow> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                report.setTotal(report.getTotal() + 1);
+
+                ImportRow row = new ImportRow(lineNumber);
+                try {
+                    row.user = parser.apply(line);
+                    resolve(row, gradeIds, subjectIds, existingUsernames);
+                    chunk.add(row);
+                } catch (RuntimeException e) {
+                    report.getErrors().add(new UserImportReport.RowError(lineNumber,
+                            row.user != null ? row.user.getUsername() : null, e.getMessage()));
+                }
+
+                if (chunk.size() >= chunkSize) {
+                    writeChunk(chunk, hashingPool, report);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(chunk, hashingPool, report);
+            }
+        } finally {
+            hashingPool.shutdownNow();
+        }
+
+        report.setDurationMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    // Проверка строки и замена имен классов и предметов на идентификаторы
+    private void resolve(ImportRow row, Map<String, Long> gradeIds, Map<String, Long> subjectIds,
+                         Set<String> existingUsernames) {
+        UserDto user = row.user;
+        if (isBlank(user.getUsername())) {
+            throw new RuntimeException("Не указано имя пользователя");
+        }
+        if (isBlank(user.getPassword())) {
+            throw new RuntimeException("Не указан пароль");
+        }
+        if (isBlank(user.getFullName())) {
+            throw new RuntimeException("Не указано ФИО");
+        }
+        if (user.getRole() == null) {
+            throw new RuntimeException("Не указана роль");
+        }
+
+        if (user.getRole() == UserRole.STUDENT && !isBlank(user.getGradeName())) {
+            row.gradeId = lookup(gradeIds, user.getGradeName(), "Класс не найден: ");
+        }
+        if (user.getRole() == UserRole.TEACHER) {
+            if (user.getSubjectNames() != null) {
+                for (String name : user.getSubjectNames()) {
+                    row.subjectIds.add(lookup(subjectIds, name, "Предмет не найден: "));
+                }
+            }
+            if (user.getTeachingGradeNames() != null) {
+                for (String name : user.getTeachingGradeNames()) {
+                    row.teachingGradeIds.add(lookup(gradeIds, name, "Класс не найден: "));
+                }
+            }
+        }
+
+        // Имя занимается последним, чтобы исправленная строка ниже в том же файле могла пройти
+        if (!existingUsernames.add(user.getUsername())) {
+            throw new RuntimeException("Пользователь с таким именем уже существует");
+        }
+    }
+
+    private void writeChunk(List<ImportRow> chunk, ExecutorService hashingPool, UserImportReport report) {
+        try {
+            hashPasswords(chunk, hashingPool);
+            transactionTemplate.executeWithoutResult(status -> insert(chunk));
+            report.setImported(report.getImported() + chunk.size());
+        } catch (RuntimeException e) {
+            // Порция откатывается целиком; строки уже прошли проверку, поэтому это редкий случай
+            for (ImportRow row : chunk) {
+                report.getErrors().add(new UserImportReport.RowError(row.line, row.user.getUsername(),
+                        "Ошибка записи в базу: " + e.getMessage()));
+            }
+        }
+    }
+
+    private void hashPasswords(List<ImportRow> chunk, ExecutorService hashingPool) {
+        List<Future<String>> hashes = new ArrayList<>(chunk.size());
+        for (ImportRow row : chunk) {
+            String rawPassword = row.user.getPassword();
+            hashes.add(hashingPool.submit(() -> passwordEncoder.encode(rawPassword)));
+        }
+        try {
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).encodedPassword = hashes.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Импорт прерван");
+        } catch (Exception e) {
+            throw new RuntimeException("Не удалось вычислить хэш пароля", e);
+        }
+    }
+
+    private void insert(List<ImportRow> chunk) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_USER_SQL, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ImportRow row = chunk.get(i);
+                        ps.setString(1, row.user.getUsername());
+                        ps.setString(2, row.encodedPassword);
+                        ps.setString(3, row.user.getFullName());
+                        ps.setString(4, row.user.getEmail());
+                        ps.setString(5, row.user.getRole().name());
+                        if (row.gradeId != null) {
+                            ps.setLong(6, row.gradeId);
+                        } else {
+                            ps.setNull(6, Types.BIGINT);
+                        }
+                        ps.setBoolean(7, row.user.isActive());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return chunk.size();
+                    }
+                }, keyHolder);
+
+        // Ключи возвращаются в порядке строк пакета
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        List<Object[]> subjectLinks = new ArrayList<>();
+        List<Object[]> gradeLinks = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            ImportRow row = chunk.get(i);
+            if (row.subjectIds.isEmpty() && row.teachingGradeIds.isEmpty()) {
+                continue;
+            }
+            Long userId = ((Number) keys.get(i).get("id")).longValue();
+            row.subjectIds.forEach(subjectId -> subjectLinks.add(new Object[]{userId, subjectId}));
+            row.teachingGradeIds.forEach(gradeId -> gradeLinks.add(new Object[]{userId, gradeId}));
+        }
+        if (!subjectLinks.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SUBJECT_SQL, subjectLinks);
+        }
+        if (!gradeLinks.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TEACHING_GRADE_SQL, gradeLinks);
+        }
+    }
+
+    private UserDto parseJson(String line) {
+        try {
+            JsonNode node = objectMapper.readTree(line);
+            UserDto user = objectMapper.treeToValue(node, UserDto.class);
+            // Поле active можно не указывать: по умолчанию пользователь активен
+            if (!node.has("active")) {
+                user.setActive(true);
+            }
+            return user;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Некорректный JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private Function<String, UserDto> csvParser(String header) {
+        if (header == null) {
+            throw new BadRequestException("Пустой файл импорта");
+        }
+        List<String> columns = splitCsv(header).stream().map(String::trim).toList();
+        if (!columns.contains("username") || !columns.contains("password")) {
+            throw new BadRequestException("В заголовке CSV нет колонок username и password");
+        }
+
+        return line -> {
+            List<String> values = splitCsv(line);
+            Map<String, String> cells = new HashMap<>();
+            for (int i = 0; i < columns.size() && i < values.size(); i++) {
+                cells.put(columns.get(i), values.get(i).trim());
+            }
+
+            UserDto user = new UserDto();
+            user.setUsername(cells.get("username"));
+            user.setPassword(cells.get("password"));
+            user.setFullName(cells.get("fullName"));
+            user.setEmail(emptyToNull(cells.get("email")));
+            user.setGradeName(emptyToNull(cells.get("gradeName")));
+            user.setSubjectNames(new LinkedHashSet<>(splitList(cells.get("subjectNames"))));
+            user.setTeachingGradeNames(splitList(cells.get("teachingGradeNames")));
+            String active = cells.get("active");
+            user.setActive(isBlank(active) || Boolean.parseBoolean(active));
+
+            String role = cells.get("role");
+            if (!isBlank(role)) {
+                try {
+                    user.setRole(UserRole.valueOf(role.toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    throw new RuntimeException("Неизвестная роль: " + role);
+                }
+            }
+            return user;
+        };
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        values.add(current.toString());
+        return values;
+    }
+
+    private static List<String> splitList(String value) {
+        if (isBlank(value)) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(value.split(";"))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static Long lookup(Map<String, Long> ids, String name, String errorPrefix) {
+        Long id = ids.get(name.trim());
+        if (id == null) {
+            throw new RuntimeException(errorPrefix + name);
+        }
+        return id;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static String emptyToNull(String value) {
+        return isBlank(value) ? null : value;
+    }
+
+    private static class ImportRow {
+        private final int line;
+        private UserDto user;
+        private String encodedPassword;
+        private Long gradeId;
+        private final Set<Long> subjectIds = new LinkedHashSet<>();
+        private final Set<Long> teachingGradeIds = new LinkedHashSet<>();
+
+        private ImportRow(int line) {
+            this.line = line;
+        }
+    }
+}
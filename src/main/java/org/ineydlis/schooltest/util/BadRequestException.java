@@ -0,0 +1,11 @@
+package org.ineydlis.schooltest.util;
+
+/**
+ * Запрос составлен неверно и не может быть обработан без исправления (HTTP 400).
+ */
+public class BadRequestException extends RuntimeException {
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
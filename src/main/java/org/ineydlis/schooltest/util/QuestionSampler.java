@@ -0,0 +1,38 @@
+package org.ineydlis.schooltest.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Детерминированная выборка k вопросов из n по зерну попытки.
+ * <p>
+ * Частичная перестановка Фишера-Йетса: выполняются только первые k шагов, а переставленные
+ * элементы хранятся в карте, поэтому время и память - O(k), а не O(n). Используется
+ * java.util.Random: его алгоритм зафиксирован спецификацией, так что выборка по сохраненному
+ * зерну одинакова на любых JVM и после перезапуска.
+ */
+public final class QuestionSampler {
+
+    private QuestionSampler() {
+    }
+
+    // k различных индексов из [0, n) в случайном порядке; одинаковые аргументы - одинаковый результат
+    public static int[] sample(int n, int k, long seed) {
+        if (k < 0 || k > n) {
+            throw new IllegalArgumentException("Нельзя выбрать " + k + " из " + n);
+        }
+        Random random = new Random(seed);
+        int[] sample = new int[k];
+        Map<Integer, Integer> swapped = new HashMap<>(k * 2);
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(n - i);
+            Integer atJ = swapped.get(j);
+            Integer atI = swapped.get(i);
+            sample[i] = atJ != null ? atJ : j;
+            // Позиция i больше не читается, на место j встает то, что было на i
+            swapped.put(j, atI != null ? atI : i);
+        }
+        return sample;
+    }
+}
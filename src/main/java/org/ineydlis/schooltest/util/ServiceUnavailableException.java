@@ -0,0 +1,18 @@
+package org.ineydlis.schooltest.util;
+
+/**
+ * Запрос не успел выполниться за отведенное время; клиенту стоит повторить его позже (HTTP 503).
+ */
+public class ServiceUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,18 @@
+package org.ineydlis.schooltest.util;
+
+/**
+ * Сервер перегружен и просит клиента повторить запрос позже (HTTP 429).
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
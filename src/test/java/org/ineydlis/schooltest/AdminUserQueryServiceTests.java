@@ -0,0 +1,112 @@
+package org.ineydlis.schooltest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.AdminUserDto;
+import org.ineydlis.schooltest.dto.UserFilter;
+import org.ineydlis.schooltest.dto.UserPageDto;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.service.AdminUserQueryService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AdminUserQueryServiceTests {
+
+    private static List<AdminUserDto> students(long fromId, long toId) {
+        List<AdminUserDto> users = new ArrayList<>();
+        LongStream.rangeClosed(fromId, toId).forEach(id -> users.add(AdminUserDto.builder()
+                .id(id).username("s" + id).fullName("Ученик " + id).role(UserRole.STUDENT).active(true).build()));
+        return users;
+    }
+
+    @Test
+    public void testPageUsesKeysetAndFilters() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(students(11, 21));
+        AdminUserQueryService service = new AdminUserQueryService(jdbcTemplate, new ObjectMapper());
+
+        UserFilter filter = new UserFilter();
+        filter.setRole(UserRole.STUDENT);
+        filter.setNamePrefix("Ив_");
+        UserPageDto page = service.findPage(filter, 10L, 10);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object[]> args = ArgumentCaptor.forClass(Object[].class);
+        verify(jdbcTemplate).query(sql.capture(), any(RowMapper.class), args.capture());
+        assertTrue(sql.getValue().contains("u.id > ?"));
+        assertTrue(sql.getValue().contains("u.role = ?"));
+        assertFalse(sql.getValue().contains("u.grade_id = ?"));
+        assertFalse(sql.getValue().contains("password"));
+        assertArrayEquals(new Object[]{10L, "STUDENT", "ив\\_%", "ив\\_%", 11}, args.getValue());
+
+        // Запрошено на одну строку больше: есть следующая страница
+        assertEquals(10, page.getItems().size());
+        assertEquals(20L, page.getNextAfterId());
+    }
+
+    @Test
+    public void testLastPageHasNoCursor() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(students(1, 3));
+        AdminUserQueryService service = new AdminUserQueryService(jdbcTemplate, new ObjectMapper());
+
+        UserPageDto page = service.findPage(new UserFilter(), null, null);
+
+        assertEquals(3, page.getItems().size());
+        assertNull(page.getNextAfterId());
+    }
+
+    @Test
+    public void testExportWritesOneJsonObjectPerLine() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(students(1, 500))
+                .thenReturn(students(501, 502));
+        AdminUserQueryService service = new AdminUserQueryService(jdbcTemplate, new ObjectMapper());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(new UserFilter(), out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(502, lines.length);
+        assertTrue(lines[501].contains("\"id\":502"));
+        verify(jdbcTemplate, times(2)).query(anyString(), any(RowMapper.class), any(Object[].class));
+    }
+
+    @Test
+    public void testSavedUserIsReturnedWithoutPassword() throws Exception {
+        User user = new User();
+        user.setId(5L);
+        user.setUsername("teacher");
+        user.setPassword("$2a$10$hash");
+        user.setFullName("Учитель");
+        user.setRole(UserRole.TEACHER);
+        user.setSubjects(Set.of(new Subject(2L, "Физика"), new Subject(1L, "Алгебра")));
+        user.setTeachingGrades(Set.of(new Grade(3L, 10, "А", "10А"), new Grade(4L, 5, "Б", "5Б")));
+
+        AdminUserDto dto = AdminUserDto.fromEntity(user);
+        String json = new ObjectMapper().findAndRegisterModules().writeValueAsString(dto);
+
+        assertFalse(json.contains("password"));
+        assertFalse(json.contains("$2a$"));
+        assertEquals(List.of("Алгебра", "Физика"), dto.getSubjectNames());
+        assertEquals(List.of("5Б", "10А"), dto.getTeachingGradeNames());
+    }
+}
@@ -0,0 +1,118 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.service.AnswerAutosaveService;
+import org.ineydlis.schooltest.service.TestService;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class AnswerAutosaveServiceTests {
+
+    private final TestService testService = mock(TestService.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final AnswerAutosaveService service = new AnswerAutosaveService(testService, jdbcTemplate, 500);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepeatedAnswersAreCoalescedIntoOneBatch() {
+        when(testService.getAnswerableQuestionIds(7L, 2L)).thenReturn(Set.of(10L, 11L));
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1, 1});
+
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(100L)), 2L);
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(101L, 102L)), 2L);
+        service.save(7L, new StudentAnswerRequest(11L, "ответ", null), 2L);
+        service.flush();
+
+        // Попытка проверяется один раз, в базу уходит по строке на вопрос с последним ответом
+        verify(testService, times(1)).getAnswerableQuestionIds(7L, 2L);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(sql.capture(), rows.capture());
+        // Строка попытки блокируется: черновик не может появиться у попытки, завершаемой в этот момент
+        assertTrue(sql.getValue().contains("FOR SHARE"));
+        assertEquals(2, rows.getValue().size());
+        Object[] choice = rows.getValue().stream().filter(row -> row[1].equals(10L)).findFirst().orElseThrow();
+        assertEquals("101,102", choice[3]);
+        assertEquals(1L, service.getStats().get("coalesced"));
+        assertEquals(2L, service.getStats().get("written"));
+
+        service.flush();
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void testForeignAttemptAndQuestionAreRejected() {
+        when(testService.getAnswerableQuestionIds(7L, 2L)).thenReturn(Set.of(10L));
+
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(100L)), 2L);
+        assertThrows(RuntimeException.class, () -> service.save(7L, new StudentAnswerRequest(99L, null, List.of()), 2L));
+        assertThrows(RuntimeException.class, () -> service.save(7L, new StudentAnswerRequest(10L, null, List.of()), 3L));
+        assertThrows(RuntimeException.class, () -> service.save(7L, new StudentAnswerRequest(null, "x", null), 2L));
+    }
+
+    @Test
+    public void testFailedFlushKeepsNewerAnswers() {
+        when(testService.getAnswerableQuestionIds(7L, 2L)).thenReturn(Set.of(10L));
+        when(testService.getSavedAnswers(7L, 2L)).thenReturn(List.of());
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("сбой"));
+
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(100L)), 2L);
+        service.flush(7L);
+
+        assertEquals(1L, service.getStats().get("failed"));
+        List<StudentAnswerRequest> saved = service.getSavedAnswers(7L, 2L);
+        assertEquals(1, saved.size());
+        assertEquals(List.of(100L), saved.get(0).getSelectedAnswerIds());
+    }
+
+    @Test
+    public void testClosedAttemptIsRevalidated() {
+        when(testService.getAnswerableQuestionIds(7L, 2L)).thenReturn(Set.of(10L))
+                .thenThrow(new RuntimeException("Тест уже завершен"));
+        // Ни одна строка не записана: попытка закрыта
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{0});
+
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(100L)), 2L);
+        service.flush();
+
+        assertThrows(RuntimeException.class, () -> service.save(7L, new StudentAnswerRequest(10L, null, List.of()), 2L));
+    }
+
+    @Test
+    public void testFlushWaitsForRunningDrainOfAttempt() throws Exception {
+        when(testService.getAnswerableQuestionIds(7L, 2L)).thenReturn(Set.of(10L));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new int[]{1};
+        });
+
+        service.save(7L, new StudentAnswerRequest(10L, null, List.of(100L)), 2L);
+        CompletableFuture<Void> scheduled = CompletableFuture.runAsync(service::flush);
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // Сброс по таймеру уже забрал ответы из буфера, но еще не записал их
+        CompletableFuture<Void> beforeSubmit = CompletableFuture.runAsync(() -> service.flush(7L));
+        Thread.sleep(100);
+        assertFalse(beforeSubmit.isDone());
+
+        release.countDown();
+        scheduled.get(5, TimeUnit.SECONDS);
+        beforeSubmit.get(5, TimeUnit.SECONDS);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+    }
+}
@@ -0,0 +1,140 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.StudentAnswer;
+import org.ineydlis.schooltest.model.TestResult;
+import org.ineydlis.schooltest.service.AnswerKey;
+import org.ineydlis.schooltest.service.Grader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnswerKeyTests {
+
+    @Test
+    public void testMultipleChoicePartialCredit() {
+        // 2 правильных и 2 неправильных варианта, 4 балла
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.getQuestions().add(question(5L, QuestionType.MULTIPLE_CHOICE, 4, true, true, false, false));
+        AnswerKey key = AnswerKey.compile(test, GradingFixtures.registry());
+        int index = key.indexOf(5L);
+
+        Grader.Outcome full = key.grade(index, null, List.of(51L, 50L));
+        assertTrue(full.correct());
+        assertEquals(4, full.earnedPoints());
+        assertEquals(1.0, full.partialRatio());
+
+        // Один правильный и один неправильный: 0.5 - 0.5 * 0.5 = 0.25
+        Grader.Outcome partial = key.grade(index, null, List.of(50L, 52L, 52L));
+        assertFalse(partial.correct());
+        assertEquals(1, partial.earnedPoints());
+        assertEquals(0.25, partial.partialRatio());
+        assertArrayEquals(new long[]{50L, 52L}, partial.selectedAnswerIds());
+
+        Grader.Outcome nothing = key.grade(index, null, List.of());
+        assertFalse(nothing.correct());
+        assertEquals(0, nothing.earnedPoints());
+        assertNull(nothing.partialRatio());
+    }
+
+    @Test
+    public void testSingleChoiceAndText() {
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.getQuestions().add(question(7L, QuestionType.SINGLE_CHOICE, 2, false, true));
+        Question text = question(3L, QuestionType.TEXT_ANSWER, 3, true);
+        text.getAnswers().get(0).setText("  Москва ");
+        test.getQuestions().add(text);
+        AnswerKey key = AnswerKey.compile(test, GradingFixtures.registry());
+
+        assertEquals(2, key.grade(key.indexOf(7L), null, List.of(71L)).earnedPoints());
+        // Два разных варианта в одиночном выборе - неверно
+        assertFalse(key.grade(key.indexOf(7L), null, List.of(71L, 70L)).correct());
+        // Вариант из другого вопроса не засчитывается
+        assertEquals(0, key.grade(key.indexOf(7L), null, List.of(30L)).selectedAnswerIds().length);
+
+        assertTrue(key.grade(key.indexOf(3L), "москва", null).correct());
+        assertFalse(key.grade(key.indexOf(3L), null, null).correct());
+        assertEquals(-1, key.indexOf(42L));
+    }
+
+    @Test
+    public void testScoredQuestionsFollowAttemptSelection() {
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.getQuestions().add(question(9L, QuestionType.SINGLE_CHOICE, 1, true));
+        test.getQuestions().add(question(4L, QuestionType.SINGLE_CHOICE, 1, true));
+        AnswerKey key = AnswerKey.compile(test, GradingFixtures.registry());
+
+        assertArrayEquals(new boolean[]{true, true}, key.scoredQuestions(null));
+        boolean[] scored = key.scoredQuestions(List.of(9L, 77L));
+        assertTrue(scored[key.indexOf(9L)]);
+        assertFalse(scored[key.indexOf(4L)]);
+    }
+
+    @Test
+    public void testMatchesLegacyGradingOnRandomSubmissions() {
+        Random random = new Random(20240901L);
+        for (int round = 0; round < 50; round++) {
+            org.ineydlis.schooltest.model.Test test = GradingFixtures.randomTest(random, 30);
+            AnswerKey key = AnswerKey.compile(test, GradingFixtures.registry());
+            List<Long> selectedQuestionIds = round % 3 == 0 ? List.of() : test.getQuestions().stream()
+                    .map(Question::getId)
+                    .filter(id -> random.nextBoolean())
+                    .collect(Collectors.toList());
+
+            for (int s = 0; s < 10; s++) {
+                List<StudentAnswerRequest> submission = GradingFixtures.randomSubmission(random, test);
+                TestResult expected = LegacyGrading.grade(test, selectedQuestionIds, submission);
+
+                boolean[] scored = key.scoredQuestions(selectedQuestionIds);
+                List<Grader.Outcome> outcomes = new ArrayList<>();
+                int total = 0;
+                for (StudentAnswerRequest answer : submission) {
+                    int index = key.indexOf(answer.getQuestionId());
+                    if (index < 0 || !scored[index]) {
+                        continue;
+                    }
+                    Grader.Outcome outcome = key.grade(index, answer.getTextAnswer(), answer.getSelectedAnswerIds());
+                    outcomes.add(outcome);
+                    total += outcome.earnedPoints();
+                }
+
+                assertEquals(expected.getScore(), total);
+                assertEquals(expected.getStudentAnswers().size(), outcomes.size());
+                for (int i = 0; i < outcomes.size(); i++) {
+                    StudentAnswer legacy = expected.getStudentAnswers().get(i);
+                    Grader.Outcome outcome = outcomes.get(i);
+                    assertEquals(legacy.isCorrect(), outcome.correct());
+                    assertEquals(legacy.getEarnedPoints(), outcome.earnedPoints());
+                    assertEquals(legacy.getPartialRatio(), outcome.partialRatio());
+                    assertEquals(legacy.getSelectedAnswers().stream().map(Answer::getId).collect(Collectors.toSet()),
+                            Arrays.stream(outcome.selectedAnswerIds()).boxed().collect(Collectors.toSet()));
+                }
+            }
+        }
+    }
+
+    private static Question question(Long id, QuestionType type, int points, boolean... correct) {
+        Question question = new Question();
+        question.setId(id);
+        question.setType(type);
+        question.setPoints(points);
+        for (int i = 0; i < correct.length; i++) {
+            Answer answer = new Answer();
+            answer.setId(id * 10 + i);
+            answer.setText("Вариант " + i);
+            answer.setCorrect(correct[i]);
+            answer.setQuestion(question);
+            question.getAnswers().add(answer);
+        }
+        return question;
+    }
+}
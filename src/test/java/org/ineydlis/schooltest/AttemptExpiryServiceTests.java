@@ -0,0 +1,73 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.service.AttemptExpiryService;
+import org.ineydlis.schooltest.service.TestService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AttemptExpiryServiceTests {
+
+    private final TestService testService = mock(TestService.class);
+    private final TestResultRepository testResultRepository = mock(TestResultRepository.class);
+
+    @Test
+    public void testSweepExpiresInChunksUntilNothingLeft() {
+        when(testResultRepository.findExpiredAttemptIds(any(), any()))
+                .thenReturn(List.of(1L, 2L), List.of(3L), List.of());
+        when(testService.expireAttempts(anyList(), any())).thenAnswer(invocation ->
+                ((List<?>) invocation.getArgument(0)).size());
+        AttemptExpiryService service = new AttemptExpiryService(testService, testResultRepository, 120, 2);
+
+        service.sweep();
+
+        verify(testService).expireAttempts(eq(List.of(1L, 2L)), any());
+        verify(testService).expireAttempts(eq(List.of(3L)), any());
+        // Последняя порция меньше batch-size: повторной выборки нет
+        verify(testResultRepository, times(2)).findExpiredAttemptIds(any(), any(Pageable.class));
+        assertEquals(3L, service.getStats().get("expired"));
+        assertEquals(1L, service.getStats().get("sweeps"));
+        assertNotNull(service.getStats().get("lastSweepAt"));
+    }
+
+    @Test
+    public void testCutoffIncludesGracePeriod() {
+        when(testResultRepository.findExpiredAttemptIds(any(), any())).thenReturn(List.of());
+        AttemptExpiryService service = new AttemptExpiryService(testService, testResultRepository, 300, 10);
+
+        LocalDateTime before = LocalDateTime.now();
+        service.sweep();
+
+        verify(testResultRepository).findExpiredAttemptIds(argThat(cutoff ->
+                !cutoff.isAfter(LocalDateTime.now().minusSeconds(300)) && !cutoff.isBefore(before.minusSeconds(300))),
+                any());
+        verify(testService, never()).expireAttempts(anyList(), any());
+    }
+
+    @Test
+    public void testFailedChunkIsRetriedOneByOneAndBrokenAttemptSkipped() {
+        // Сломанная попытка 2 остается в выборке: обход не должен на ней зациклиться
+        when(testResultRepository.findExpiredAttemptIds(any(), any()))
+                .thenReturn(List.of(1L, 2L, 3L), List.of(2L));
+        when(testService.expireAttempts(eq(List.of(1L, 2L, 3L)), any())).thenThrow(new RuntimeException("сбой"));
+        when(testService.expireAttempts(eq(List.of(2L)), any())).thenThrow(new RuntimeException("сбой"));
+        when(testService.expireAttempts(eq(List.of(1L)), any())).thenReturn(1);
+        when(testService.expireAttempts(eq(List.of(3L)), any())).thenReturn(1);
+        AttemptExpiryService service = new AttemptExpiryService(testService, testResultRepository, 0, 3);
+
+        service.sweep();
+
+        verify(testService, times(1)).expireAttempts(eq(List.of(2L)), any());
+        assertEquals(2L, service.getStats().get("expired"));
+        assertEquals(1L, service.getStats().get("failed"));
+    }
+}
@@ -0,0 +1,154 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.config.JacksonConfig;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.MultipleChoiceGrader;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.TestService;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Одновременный запуск теста всем классом, причем каждый ученик нажимает "Начать" несколько раз.
+ * Данные коммитятся (тест вне транзакции), чтобы запросы шли из разных потоков по-настоящему параллельно.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false"
+})
+@Import({JacksonConfig.class, TestService.class, ExamSnapshotCache.class, GraderRegistry.class,
+        SingleChoiceGrader.class, MultipleChoiceGrader.class, TextAnswerGrader.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class AttemptStartContentionTests {
+
+    private static final int STUDENTS = 100;
+    private static final int CLICKS_PER_STUDENT = 5;
+    private static final int THREADS = 32;
+
+    @Autowired
+    private TestService testService;
+
+    @Autowired
+    private TestResultRepository testResultRepository;
+
+    @Autowired
+    private TestRepository testRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private GradeRepository gradeRepository;
+
+    @Autowired
+    private SubjectRepository subjectRepository;
+
+    private org.ineydlis.schooltest.model.Test test;
+    private List<AuthPrincipal> students;
+
+    @BeforeEach
+    public void setUp() {
+        Grade grade = gradeRepository.save(new Grade(null, 7, "Б", "7Б"));
+        Subject subject = subjectRepository.save(new Subject(null, "Физика"));
+        User teacher = userRepository.save(user("contention-teacher", UserRole.TEACHER, null));
+
+        org.ineydlis.schooltest.model.Test newTest = new org.ineydlis.schooltest.model.Test();
+        newTest.setTitle("Контрольная");
+        newTest.setSubject(subject);
+        newTest.setCreator(teacher);
+        newTest.setCreatedAt(LocalDateTime.now());
+        newTest.setTimeLimit(45);
+        newTest.setMaxAttempts(2);
+        newTest.setAvailableGrades(Set.of(grade));
+        test = testRepository.save(newTest);
+
+        students = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            students.add(AuthPrincipal.of(userRepository.save(user("contention-student" + i, UserRole.STUDENT, grade))));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        testResultRepository.deleteAll();
+        testRepository.deleteAll();
+        userRepository.deleteAll();
+        subjectRepository.deleteAll();
+        gradeRepository.deleteAll();
+    }
+
+    @Test
+    public void testConcurrentStartsCreateOneAttemptPerStudent() throws Exception {
+        List<AuthPrincipal> clicks = new ArrayList<>();
+        for (int click = 0; click < CLICKS_PER_STUDENT; click++) {
+            clicks.addAll(students);
+        }
+        Collections.shuffle(clicks, new Random(18));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch gate = new CountDownLatch(1);
+        Map<Long, Set<Long>> attemptIdsByStudent = new ConcurrentHashMap<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (AuthPrincipal student : clicks) {
+                futures.add(executor.submit(() -> {
+                    gate.await();
+                    Long attemptId = testService.startTest(test.getId(), student).getId();
+                    attemptIdsByStudent.computeIfAbsent(student.id(), id -> ConcurrentHashMap.newKeySet()).add(attemptId);
+                    return null;
+                }));
+            }
+            gate.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(60, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(STUDENTS * CLICKS_PER_STUDENT, clicks.size());
+        assertTrue(failures.isEmpty(), () -> failures.size() + " запусков завершились ошибкой: " + failures.get(0));
+
+        // Ровно одна попытка на ученика, и все его запросы вернули именно ее
+        assertEquals(STUDENTS, testResultRepository.count());
+        assertEquals(STUDENTS, attemptIdsByStudent.size());
+        for (AuthPrincipal student : students) {
+            Set<Long> returned = attemptIdsByStudent.get(student.id());
+            assertEquals(1, returned.size());
+            assertEquals(returned.iterator().next(),
+                    testResultRepository.findOpenAttempt(test.getId(), student.id()).orElseThrow().getId());
+        }
+    }
+
+    private static User user(String username, UserRole role, Grade grade) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("hash");
+        user.setFullName(username);
+        user.setRole(role);
+        user.setGrade(grade);
+        return user;
+    }
+}
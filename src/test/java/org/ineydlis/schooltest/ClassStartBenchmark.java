@@ -0,0 +1,146 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.service.ExamAdmissionService;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный замер: старт теста классом из 150 учеников. Каждый ученик в течение секунды
+ * после команды учителя запускает тест и запрашивает вопросы; на 429 повторяет запрос через
+ * Retry-After со случайной добавкой, как фронтенд. Параллельно идут обычные запросы других
+ * пользователей. База - пул из 10 соединений, каждый запрос занимает соединение на фиксированное время.
+ * <p>
+ * Печатает p50/p99 задержки пропущенных запросов старта (от поступления до ответа), число 429, время до
+ * получения вопросов всем классом и p99 обычных запросов - без допуска и с ExamAdmissionService.
+ * <p>
+ * Не входит в обычный прогон тестов; запуск: {@code mvn test -Dtest=ClassStartBenchmark}
+ */
+public class ClassStartBenchmark {
+
+    private static final int STUDENTS = 150;
+    private static final long ARRIVAL_SPREAD_MILLIS = 1_000;
+    private static final int REQUEST_THREADS = 64;
+    private static final int DB_CONNECTIONS = 10;
+    private static final long START_QUERY_MILLIS = 60;
+    private static final long QUESTIONS_QUERY_MILLIS = 50;
+    private static final long OTHER_QUERY_MILLIS = 10;
+    private static final long OTHER_REQUEST_INTERVAL_MILLIS = 20;
+
+    @Test
+    public void classStart() throws Exception {
+        runScenario("no admission", new ExamAdmissionService(false, 1, 1, 0, 0));
+        runScenario("admission", new ExamAdmissionService(true, 100, 20, 1000, 16));
+    }
+
+    private void runScenario(String name, ExamAdmissionService admission) throws Exception {
+        ThreadPoolExecutor requestPool = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ScheduledExecutorService timers = Executors.newScheduledThreadPool(2);
+        Semaphore connections = new Semaphore(DB_CONNECTIONS, true);
+
+        List<Long> requestLatencies = Collections.synchronizedList(new ArrayList<>());
+        List<Long> otherLatencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch classReady = new CountDownLatch(STUDENTS);
+        Scenario scenario = new Scenario(admission, requestPool, timers, connections, requestLatencies, rejected);
+        long commandAt = System.nanoTime();
+
+        timers.scheduleAtFixedRate(() -> {
+            long arrivedAt = System.nanoTime();
+            requestPool.execute(() -> {
+                query(connections, OTHER_QUERY_MILLIS);
+                otherLatencies.add(System.nanoTime() - arrivedAt);
+            });
+        }, 0, OTHER_REQUEST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < STUDENTS; i++) {
+            long delay = ThreadLocalRandom.current().nextLong(ARRIVAL_SPREAD_MILLIS);
+            Step questions = new Step(scenario, QUESTIONS_QUERY_MILLIS, null, classReady::countDown);
+            Step start = new Step(scenario, START_QUERY_MILLIS, questions, null);
+            timers.schedule(start::send, delay, TimeUnit.MILLISECONDS);
+        }
+
+        classReady.await(2, TimeUnit.MINUTES);
+        long classMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - commandAt);
+        timers.shutdownNow();
+        requestPool.shutdown();
+        requestPool.awaitTermination(1, TimeUnit.MINUTES);
+
+        List<Long> requests = sorted(requestLatencies);
+        List<Long> others = sorted(otherLatencies);
+        System.out.printf("%-14s class ready=%6dms 429=%4d start p50=%7.1fms p99=%7.1fms other p50=%7.1fms p99=%7.1fms%n",
+                name, classMillis, rejected.get(), percentile(requests, 0.50), percentile(requests, 0.99),
+                percentile(others, 0.50), percentile(others, 0.99));
+    }
+
+    // Запрос "соединение на время запроса", как транзакция в сервисе
+    private static void query(Semaphore connections, long millis) {
+        connections.acquireUninterruptibly();
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.release();
+        }
+    }
+
+    private static List<Long> sorted(List<Long> latencies) {
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static double percentile(List<Long> sortedNanos, double p) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.min(sortedNanos.size() - 1, Math.ceil(p * sortedNanos.size()) - 1);
+        return sortedNanos.get(Math.max(0, index)) / 1e6;
+    }
+
+    private record Scenario(ExamAdmissionService admission, ThreadPoolExecutor pool, ScheduledExecutorService timers,
+                            Semaphore connections, List<Long> latencies, AtomicInteger rejected) {
+    }
+
+    // Один запрос ученика (старт или вопросы) с повтором по Retry-After
+    private record Step(Scenario scenario, long queryMillis, Step next, Runnable done) {
+
+        void send() {
+            long arrivedAt = System.nanoTime();
+            scenario.pool().execute(() -> {
+                try {
+                    scenario.admission().admit(1L);
+                } catch (TooManyRequestsException e) {
+                    scenario.rejected().incrementAndGet();
+                    long retryMillis = e.getRetryAfterSeconds() * 1000 + ThreadLocalRandom.current().nextLong(1000);
+                    scenario.timers().schedule(this::send, retryMillis, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                query(scenario.connections(), queryMillis);
+                scenario.latencies().add(System.nanoTime() - arrivedAt);
+                if (next != null) {
+                    next.send();
+                } else {
+                    done.run();
+                }
+            });
+        }
+    }
+}
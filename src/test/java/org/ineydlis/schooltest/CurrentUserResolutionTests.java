@@ -0,0 +1,205 @@
+package org.ineydlis.schooltest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.controller.StatisticsController;
+import org.ineydlis.schooltest.controller.TestController;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.interceptor.AuthInterceptor;
+import org.ineydlis.schooltest.interceptor.CurrentUserArgumentResolver;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.PrincipalCache;
+import org.ineydlis.schooltest.service.SessionRevocationList;
+import org.ineydlis.schooltest.service.SessionTokenService;
+import org.ineydlis.schooltest.service.StatisticsService;
+import org.ineydlis.schooltest.service.TestService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+public class CurrentUserResolutionTests {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private PasswordEncoder passwordEncoder;
+
+    @Spy
+    private PrincipalCache principalCache = new PrincipalCache(100, 60);
+
+    @Spy
+    private SessionTokenService sessionTokenService = new SessionTokenService("", 60);
+
+    @Mock
+    private SessionRevocationList revocationList;
+
+    @InjectMocks
+    private AuthService authService;
+
+    @Mock
+    private TestService testService;
+
+    @Mock
+    private TestResultRepository testResultRepository;
+
+    @Mock
+    private SubjectRepository subjectRepository;
+
+    @Mock
+    private GradeRepository gradeRepository;
+
+    @Mock
+    private TestRepository testRepository;
+
+    @InjectMocks
+    private TestController testController;
+
+    private MockMvc mockMvc;
+    private Grade grade;
+    private String token;
+    private User student;
+
+    @BeforeEach
+    public void setup() {
+        grade = new Grade();
+        grade.setId(5L);
+        grade.setNumber(5);
+        grade.setLetter("А");
+        grade.setFullName("5А");
+
+        student = new User();
+        student.setId(2L);
+        student.setUsername("student");
+        student.setFullName("Ученик");
+        student.setRole(UserRole.STUDENT);
+        student.setGrade(grade);
+        student.setActive(true);
+
+        token = sessionTokenService.issue(student);
+        lenient().when(userRepository.findPrincipalRow(2L)).thenReturn(Collections.singletonList(
+                new Object[]{2L, "student", "Ученик", UserRole.STUDENT, 5L, true, null, null}));
+
+        StatisticsService statisticsService = new StatisticsService(
+                testResultRepository, userRepository, subjectRepository, gradeRepository, testRepository);
+
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(testController, new StatisticsController(statisticsService))
+                .addInterceptors(new AuthInterceptor(authService, new ObjectMapper()))
+                .setCustomArgumentResolvers(new CurrentUserArgumentResolver())
+                .build();
+    }
+
+    @Test
+    public void testTestsListLooksUpUserOnce() throws Exception {
+        when(testService.getTestsForStudent(any(AuthPrincipal.class))).thenReturn(Collections.emptyList());
+
+        mockMvc.perform(get("/api/tests").header("Authorization", token))
+                .andExpect(status().isOk());
+
+        verify(userRepository, times(1)).findPrincipalRow(2L);
+    }
+
+    @Test
+    public void testStatisticsLooksUpUserOnce() throws Exception {
+        when(gradeRepository.findById(5L)).thenReturn(Optional.of(grade));
+        when(userRepository.findByGradeId(5L)).thenReturn(Collections.emptyList());
+
+        mockMvc.perform(get("/api/statistics/grade/5").header("Authorization", token))
+                .andExpect(status().isOk());
+
+        verify(userRepository, times(1)).findPrincipalRow(2L);
+    }
+
+    @Test
+    public void testRepeatedRequestsServedFromTokenCache() throws Exception {
+        when(testService.getTestsForStudent(any(AuthPrincipal.class))).thenReturn(Collections.emptyList());
+
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/api/tests").header("Authorization", token))
+                    .andExpect(status().isOk());
+        }
+
+        verify(userRepository, times(1)).findPrincipalRow(2L);
+    }
+
+    @Test
+    public void testStudentPrincipalIsLoadedWithOneQuery() {
+        AuthPrincipal principal = authService.findByToken(token).orElseThrow();
+
+        assertEquals(5L, principal.gradeId());
+        verify(userRepository, never()).findSubjectIds(any());
+        verify(userRepository, never()).findTeachingGradeIds(any());
+    }
+
+    @Test
+    public void testTeacherPrincipalLoadsSubjectsAndGradesSeparately() {
+        User teacher = new User();
+        teacher.setId(3L);
+        teacher.setUsername("teacher");
+        teacher.setRole(UserRole.TEACHER);
+        teacher.setActive(true);
+        when(userRepository.findPrincipalRow(3L)).thenReturn(Collections.singletonList(
+                new Object[]{3L, "teacher", "Учитель", UserRole.TEACHER, null, true}));
+        when(userRepository.findSubjectIds(3L)).thenReturn(List.of(9L, 7L));
+        when(userRepository.findTeachingGradeIds(3L)).thenReturn(List.of(5L));
+
+        AuthPrincipal principal = authService.findByToken(sessionTokenService.issue(teacher)).orElseThrow();
+
+        assertTrue(principal.hasSubject(7L));
+        assertTrue(principal.teachesGrade(5L));
+        // Равенство по содержимому, а не по ссылкам на массивы
+        assertEquals(new AuthPrincipal(3L, "teacher", "Учитель", UserRole.TEACHER, null, true,
+                new long[]{7L, 9L}, new long[]{5L}), principal);
+        assertEquals(new AuthPrincipal(3L, "teacher", "Учитель", UserRole.TEACHER, null, true,
+                new long[]{9L, 7L}, new long[]{5L}).hashCode(), principal.hashCode());
+    }
+
+    @Test
+    public void testForgedTokenIsRejectedWithoutLookup() throws Exception {
+        String forged = new SessionTokenService("", 60).issue(student);
+
+        mockMvc.perform(get("/api/tests").header("Authorization", forged))
+                .andExpect(status().isForbidden());
+
+        verify(userRepository, never()).findPrincipalRow(any());
+    }
+
+    @Test
+    public void testRevokedTokenIsRejectedWithoutLookup() throws Exception {
+        when(revocationList.isRevoked(any())).thenReturn(true);
+
+        mockMvc.perform(get("/api/tests").header("Authorization", token))
+                .andExpect(status().isForbidden());
+
+        verify(userRepository, never()).findPrincipalRow(any());
+    }
+
+    @Test
+    public void testMissingTokenIsRejectedWithoutLookup() throws Exception {
+        mockMvc.perform(get("/api/tests"))
+                .andExpect(status().isForbidden());
+
+        verify(userRepository, never()).findPrincipalRow(any());
+    }
+}
@@ -0,0 +1,116 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.service.ExamAdmissionService;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExamAdmissionServiceTests {
+
+    @Test
+    public void testBurstIsAdmittedImmediatelyAndOverflowRejectedWithRetryAfter() {
+        ExamAdmissionService service = new ExamAdmissionService(true, 1, 3, 0, 10);
+
+        for (int i = 0; i < 3; i++) {
+            service.admit(1L);
+        }
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> service.admit(1L));
+        assertTrue(e.getRetryAfterSeconds() >= 1);
+
+        // У другого теста свое ведро
+        service.admit(2L);
+        assertEquals(4L, service.getStats().get("admitted"));
+        assertEquals(1L, service.getStats().get("rejected"));
+    }
+
+    @Test
+    public void testRequestBeyondBurstWaitsForNextToken() {
+        ExamAdmissionService service = new ExamAdmissionService(true, 10, 1, 1000, 10);
+
+        service.admit(1L);
+        long start = System.nanoTime();
+        service.admit(1L);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Следующий токен появляется через 1/10 секунды
+        assertTrue(waitedMillis >= 80, "ждали " + waitedMillis + " мс");
+        assertEquals(1L, service.getStats().get("delayed"));
+    }
+
+    @Test
+    public void testRetryAfterCoversWaitBeyondMaxWait() {
+        ExamAdmissionService service = new ExamAdmissionService(true, 1, 1, 0, 10);
+
+        service.admit(1L);
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> service.admit(1L));
+
+        // Токен появится примерно через секунду
+        assertEquals(1L, e.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void testClassStartIsSplitIntoBurstQueueAndRejections() throws Exception {
+        // 150 учеников одновременно: 20 проходят сразу, 3 ждут очереди, остальным 429
+        ExamAdmissionService service = new ExamAdmissionService(true, 5, 20, 5000, 3);
+        ExecutorService students = Executors.newFixedThreadPool(150);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 150; i++) {
+                results.add(students.submit(() -> {
+                    go.await();
+                    try {
+                        service.admit(7L);
+                        return true;
+                    } catch (TooManyRequestsException e) {
+                        return false;
+                    }
+                }));
+            }
+            go.countDown();
+            int admitted = 0;
+            for (Future<Boolean> result : results) {
+                admitted += result.get(10, TimeUnit.SECONDS) ? 1 : 0;
+            }
+
+            assertEquals(23, admitted);
+            assertEquals(3L, service.getStats().get("delayed"));
+            assertEquals(127L, service.getStats().get("rejected"));
+        } finally {
+            students.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDisabledAdmissionLetsEverythingThrough() {
+        ExamAdmissionService service = new ExamAdmissionService(false, 1, 1, 0, 0);
+
+        for (int i = 0; i < 100; i++) {
+            service.admit(1L);
+        }
+        assertEquals(0L, service.getStats().get("rejected"));
+    }
+
+    @Test
+    public void testRefilledBucketsAreEvicted() throws Exception {
+        ExamAdmissionService service = new ExamAdmissionService(true, 100, 2, 0, 10);
+
+        service.admit(1L);
+        service.admit(1L);
+        service.evictIdle();
+        assertEquals(1, service.getStats().get("activeTests"));
+
+        Thread.sleep(50);
+        service.evictIdle();
+        assertEquals(0, service.getStats().get("activeTests"));
+    }
+}
@@ -0,0 +1,198 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.QuestionDto;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExamSnapshotCacheTests {
+
+    private ExamSnapshotCache cache;
+    private AtomicInteger loads;
+    private org.ineydlis.schooltest.model.Test test;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new ExamSnapshotCache(GradingFixtures.registry());
+        loads = new AtomicInteger();
+
+        test = new org.ineydlis.schooltest.model.Test();
+        test.setId(1L);
+        test.setUpdatedAt(LocalDateTime.of(2024, 9, 1, 10, 0));
+        test.getQuestions().add(question(10L, QuestionType.SINGLE_CHOICE, 2));
+        test.getQuestions().add(question(11L, QuestionType.TEXT_ANSWER, 3));
+    }
+
+    @Test
+    public void testSnapshotIsBuiltOnceAndHidesCorrectAnswers() {
+        ExamSnapshotCache.ExamSnapshot first = cache.get(1L, test.getUpdatedAt(), loader());
+        ExamSnapshotCache.ExamSnapshot second = cache.get(1L, test.getUpdatedAt(), loader());
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(5, ExamSnapshotCache.ExamSnapshot.maxScore(first.questions()));
+
+        ExamSnapshotCache.QuestionView choice = first.questionsById().get(10L);
+        QuestionDto dto = choice.toDto();
+        assertEquals(2, dto.getAnswers().size());
+        assertTrue(dto.getAnswers().stream().allMatch(a -> a.getIsCorrect() == null));
+        // Правильный текстовый ответ ученику не отдается
+        assertTrue(first.questionsById().get(11L).toDto().getAnswers().isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> first.questions().add(choice));
+        assertThrows(UnsupportedOperationException.class, () -> choice.options().clear());
+        assertThrows(UnsupportedOperationException.class, () -> first.questionsById().remove(10L));
+    }
+
+    @Test
+    public void testChangesToReturnedDtoDoNotReachSnapshot() {
+        ExamSnapshotCache.ExamSnapshot snapshot = cache.get(1L, test.getUpdatedAt(), loader());
+
+        QuestionDto dto = snapshot.questionsById().get(10L).toDto();
+        dto.setText("Изменено");
+        dto.getAnswers().get(0).setIsCorrect(true);
+        dto.getAnswers().clear();
+
+        QuestionDto fresh = snapshot.questionsById().get(10L).toDto();
+        assertEquals("Вопрос 10", fresh.getText());
+        assertEquals(2, fresh.getAnswers().size());
+        assertNull(fresh.getAnswers().get(0).getIsCorrect());
+    }
+
+    @Test
+    public void testSlowLoadDoesNotBlockOtherTests() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<ExamSnapshotCache.ExamSnapshot> slow = executor.submit(() -> cache.get(1L, test.getUpdatedAt(), () -> {
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return test;
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            // Пока первый тест загружается, снимки других тестов собираются без ожидания
+            for (long id = 2; id <= 64; id++) {
+                org.ineydlis.schooltest.model.Test other = new org.ineydlis.schooltest.model.Test();
+                other.setId(id);
+                assertEquals(id, cache.get(id, null, () -> other).testId());
+            }
+            assertFalse(slow.isDone());
+            release.countDown();
+            assertEquals(1L, slow.get(5, TimeUnit.SECONDS).testId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() {
+        assertThrows(RuntimeException.class, () -> cache.get(1L, test.getUpdatedAt(), () -> {
+            throw new RuntimeException("Тест не найден");
+        }));
+
+        assertEquals(2, cache.get(1L, test.getUpdatedAt(), loader()).questions().size());
+    }
+
+    @Test
+    public void testStaleVersionIsRebuilt() {
+        ExamSnapshotCache.ExamSnapshot first = cache.get(1L, test.getUpdatedAt(), loader());
+
+        // Тест изменили, а запись не вытеснили: версия не совпадет
+        test.setUpdatedAt(test.getUpdatedAt().plusMinutes(5));
+        test.getQuestions().remove(1);
+        ExamSnapshotCache.ExamSnapshot second = cache.get(1L, test.getUpdatedAt(), loader());
+
+        assertNotSame(first, second);
+        assertEquals(2, loads.get());
+        assertEquals(1, second.questions().size());
+        assertEquals(test.getUpdatedAt(), second.version());
+    }
+
+    @Test
+    public void testEvictForcesReload() {
+        cache.get(1L, test.getUpdatedAt(), loader());
+        cache.evict(1L);
+        cache.get(1L, test.getUpdatedAt(), loader());
+
+        assertEquals(2, loads.get());
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testConcurrentRequestsBuildSnapshotOnce() throws Exception {
+        int students = 30;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        Supplier<org.ineydlis.schooltest.model.Test> slowLoader = () -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return test;
+        };
+        try {
+            List<Future<ExamSnapshotCache.ExamSnapshot>> futures = new ArrayList<>();
+            for (int i = 0; i < students; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return cache.get(1L, test.getUpdatedAt(), slowLoader);
+                }));
+            }
+            start.countDown();
+            ExamSnapshotCache.ExamSnapshot expected = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<ExamSnapshotCache.ExamSnapshot> future : futures) {
+                assertSame(expected, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    private Supplier<org.ineydlis.schooltest.model.Test> loader() {
+        return () -> {
+            loads.incrementAndGet();
+            return test;
+        };
+    }
+
+    private Question question(Long id, QuestionType type, int points) {
+        Question question = new Question();
+        question.setId(id);
+        question.setText("Вопрос " + id);
+        question.setType(type);
+        question.setPoints(points);
+        for (int i = 0; i < 2; i++) {
+            Answer answer = new Answer();
+            answer.setId(id * 100 + i);
+            answer.setText("Ответ " + i);
+            answer.setCorrect(i == 0);
+            answer.setQuestion(question);
+            question.getAnswers().add(answer);
+        }
+        return question;
+    }
+}
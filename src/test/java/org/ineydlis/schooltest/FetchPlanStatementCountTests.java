@@ -0,0 +1,421 @@
+package org.ineydlis.schooltest;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.ineydlis.schooltest.config.JacksonConfig;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.dto.TestSubmissionRequest;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.repository.AnswerDraftRepository;
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.MultipleChoiceGrader;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.StatisticsService;
+import org.ineydlis.schooltest.service.TestService;
+import org.ineydlis.schooltest.service.TestService.GradingOutcome;
+import org.ineydlis.schooltest.service.TestService.GradingRequest;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Фиксирует число SQL-запросов для основных сценариев (каталог, попытка, проверка,
+ * детали результата, статистика) на встроенной H2 по статистике Hibernate.
+ * Данных несколько тестов, вопросов и попыток: число запросов не должно от них зависеть.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false"
+})
+@Import({JacksonConfig.class, TestService.class, StatisticsService.class, ExamSnapshotCache.class, GraderRegistry.class,
+        SingleChoiceGrader.class, MultipleChoiceGrader.class, TextAnswerGrader.class})
+public class FetchPlanStatementCountTests {
+
+    private static final int TESTS = 3;
+    private static final int QUESTIONS = 4;
+    private static final int STUDENTS = 3;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TestService testService;
+
+    @Autowired
+    private StatisticsService statisticsService;
+
+    @Autowired
+    private ExamSnapshotCache examSnapshotCache;
+
+    @Autowired
+    private TestResultRepository testResultRepository;
+
+    @Autowired
+    private AnswerDraftRepository answerDraftRepository;
+
+    private Statistics statistics;
+
+    private AuthPrincipal admin;
+    private AuthPrincipal teacher;
+    private AuthPrincipal student;
+    private org.ineydlis.schooltest.model.Test firstTest;
+    private TestResult completedResult;
+    private TestResult openResult;
+
+    @BeforeEach
+    public void setUp() {
+        examSnapshotCache.clear();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        Grade grade = entityManager.persist(new Grade(null, 5, "А", "5А"));
+        Subject subject = entityManager.persist(new Subject(null, "Математика"));
+
+        User teacherUser = user("teacher", UserRole.TEACHER, null);
+        teacherUser.setSubjects(Set.of(subject));
+        teacherUser.setTeachingGrades(Set.of(grade));
+        entityManager.persist(teacherUser);
+        User adminUser = entityManager.persist(user("admin", UserRole.ADMIN, null));
+
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            students.add(entityManager.persist(user("student" + i, UserRole.STUDENT, grade)));
+        }
+
+        List<org.ineydlis.schooltest.model.Test> tests = new ArrayList<>();
+        for (int t = 0; t < TESTS; t++) {
+            org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+            test.setTitle("Тест " + t);
+            test.setSubject(subject);
+            test.setCreator(teacherUser);
+            test.setCreatedAt(LocalDateTime.now());
+            test.setTimeLimit(60);
+            test.setMaxAttempts(5);
+            test.setAvailableGrades(Set.of(grade));
+            for (int q = 0; q < QUESTIONS; q++) {
+                Question question = new Question();
+                question.setText("Вопрос " + q);
+                question.setType(q % 2 == 0 ? QuestionType.SINGLE_CHOICE : QuestionType.MULTIPLE_CHOICE);
+                question.setPoints(2);
+                question.setTest(test);
+                for (int a = 0; a < 3; a++) {
+                    Answer answer = new Answer();
+                    answer.setText("Ответ " + a);
+                    answer.setCorrect(a == 0);
+                    answer.setQuestion(question);
+                    question.getAnswers().add(answer);
+                }
+                test.getQuestions().add(question);
+            }
+            test.recalculateQuestionStats();
+            tests.add(entityManager.persist(test));
+        }
+        firstTest = tests.get(0);
+
+        // Каждый ученик завершил каждый тест, ответив на все вопросы
+        for (User s : students) {
+            for (org.ineydlis.schooltest.model.Test test : tests) {
+                TestResult result = result(test, s, true);
+                for (Question question : test.getQuestions()) {
+                    StudentAnswer answer = new StudentAnswer();
+                    answer.setQuestion(question);
+                    answer.setTestResult(result);
+                    answer.setSelectedAnswers(Set.of(question.getAnswers().get(0)));
+                    answer.setCorrect(true);
+                    answer.setEarnedPoints(question.getPoints());
+                    result.getStudentAnswers().add(answer);
+                }
+                entityManager.persist(result);
+                if (completedResult == null) {
+                    completedResult = result;
+                }
+            }
+        }
+        openResult = entityManager.persist(result(tests.get(1), students.get(0), false));
+
+        admin = AuthPrincipal.of(adminUser);
+        teacher = AuthPrincipal.of(teacherUser);
+        student = AuthPrincipal.of(students.get(0));
+    }
+
+    @Test
+    public void testCatalogListings() {
+        assertEquals(1, statements(() -> assertEquals(TESTS, testService.getAllTests().size())));
+        assertEquals(1, statements(() -> assertEquals(TESTS, testService.getTestsByTeacher(teacher.id()).size())));
+        assertEquals(3, statements(() -> assertEquals(TESTS, testService.getTestsForStudent(student).size())));
+    }
+
+    @Test
+    public void testAttemptQuestions() {
+        Long testId = openResult.getTest().getId();
+        // Первый запрос: попытка и снимок теста (вопросы и варианты ответов пачкой)
+        assertEquals(3, statements(() -> assertEquals(QUESTIONS,
+                testService.getTestQuestions(testId, openResult.getId(), student.id()).size())));
+        // Дальше вопросы берутся из снимка: только поиск попытки
+        assertEquals(1, statements(() -> assertEquals(QUESTIONS,
+                testService.getTestQuestions(testId, openResult.getId(), student.id()).size())));
+        // Выдача вопросов ничего не пишет
+        assertEquals(0, statistics.getEntityUpdateCount());
+    }
+
+    @Test
+    public void testSampledQuestionsAreRegeneratedFromSeed() {
+        firstTest.setQuestionsToShow(2);
+        firstTest.setUpdatedAt(LocalDateTime.now().withNano(0));
+        entityManager.flush();
+        Long testId = firstTest.getId();
+        TestResultDto attempt = testService.startTest(testId, student);
+        Long attemptId = attempt.getId();
+        // maxScore известен с начала попытки: два выданных вопроса по 2 балла
+        assertEquals(4, attempt.getMaxScore());
+
+        List<Long> shown = testService.getTestQuestions(testId, attemptId, student.id()).stream()
+                .map(q -> q.getId()).toList();
+        assertEquals(2, shown.size());
+        // Повторный запрос: та же выборка в том же порядке, только поиск попытки
+        assertEquals(1, statements(() -> assertEquals(shown, testService.getTestQuestions(testId, attemptId, student.id())
+                .stream().map(q -> q.getId()).toList())));
+        assertEquals(0, ((Number) entityManager.getEntityManager()
+                .createNativeQuery("SELECT COUNT(*) FROM test_result_selected_questions").getSingleResult()).intValue());
+
+        // Ответы на все вопросы, учитываются только выданные
+        TestSubmissionRequest request = submission(entityManager.find(TestResult.class, attemptId));
+        TestResultDto result = testService.submitTest(request, student.id());
+        assertEquals(4, result.getScore());
+        assertEquals(4, result.getMaxScore());
+    }
+
+    @Test
+    public void testGrading() {
+        TestSubmissionRequest request = submission(openResult);
+
+        long count = statements(() -> {
+            TestResultDto result = testService.submitTest(request, student.id());
+            assertTrue(result.isCompleted());
+        });
+        // Чтение: блокировка попытки, результат с тестом и вопросами, ответы пачкой, автосохраненные ответы.
+        // Запись пакетами: INSERT ответов (выбранные варианты - маска в той же строке), UPDATE результата.
+        // Id ответов берутся из уже выделенной пачки последовательности
+        assertEquals(4 + 2, count);
+    }
+
+    @Test
+    public void testRepeatedSubmitWithSameKeyReturnsFirstResult() {
+        TestSubmissionRequest request = submission(openResult);
+        request.setIdempotencyKey("key-1");
+        TestResultDto first = testService.submitTest(request, student.id());
+
+        // Повтор: одно чтение попытки, без блокировки, проверки и записи ответов
+        assertEquals(1, statements(() -> assertEquals(first.getScore(),
+                testService.findSubmission(openResult.getId(), student.id(), "key-1").orElseThrow().getScore())));
+        // Повтор, дошедший до блокировки, тоже не проверяется заново
+        assertEquals(first.getScore(), testService.submitTest(request, student.id()).getScore());
+        assertEquals(QUESTIONS, entityManager.getEntityManager()
+                .createQuery("SELECT COUNT(sa) FROM StudentAnswer sa WHERE sa.testResult.id = :id", Long.class)
+                .setParameter("id", openResult.getId()).getSingleResult().intValue());
+
+        // Другой ключ или чужой ученик - прежний отказ
+        assertTrue(testService.findSubmission(openResult.getId(), student.id(), "key-2").isEmpty());
+        request.setIdempotencyKey("key-2");
+        assertThrows(RuntimeException.class, () -> testService.submitTest(request, student.id()));
+    }
+
+    @Test
+    public void testSubmitGradesAutosavedAnswers() {
+        TestSubmissionRequest full = submission(openResult);
+        // Два ответа сохранены заранее, в запросе только последний, причем неверный
+        for (StudentAnswerRequest answer : full.getAnswers().subList(0, 2)) {
+            AnswerDraft draft = new AnswerDraft();
+            draft.setTestResult(openResult);
+            draft.setQuestionId(answer.getQuestionId());
+            draft.setSelectedAnswerIds(AnswerDraft.joinIds(answer.getSelectedAnswerIds()));
+            draft.setUpdatedAt(LocalDateTime.now());
+            entityManager.persist(draft);
+        }
+        Question last = openResult.getTest().getQuestions().get(QUESTIONS - 1);
+        TestSubmissionRequest request = new TestSubmissionRequest(openResult.getId(), List.of(
+                new StudentAnswerRequest(last.getId(), null, List.of(last.getAnswers().get(1).getId()))));
+
+        long count = statements(() -> assertEquals(4, testService.submitTest(request, student.id()).getScore()));
+        // Чтение как при обычной отправке, запись: пакет ответов, UPDATE результата, DELETE черновиков
+        assertEquals(4 + 2 + 1, count);
+        assertTrue(answerDraftRepository.findByTestResultId(openResult.getId()).isEmpty());
+    }
+
+    @Test
+    public void testAcceptedSubmissionIsGradedLater() {
+        TestSubmissionRequest request = submission(openResult);
+
+        // Прием ответов: блокировка, попытка с тестом и учеником и одна запись сырых ответов
+        assertEquals(3, statements(() -> assertTrue(testService.acceptSubmission(request, student.id()).isPending())));
+        assertThrows(RuntimeException.class, () -> testService.submitTest(request, student.id()));
+
+        TestResultDto graded = testService.gradeGroup(
+                List.of(new GradingRequest(openResult.getId(), null, null))).get(0).result();
+        assertTrue(graded.isCompleted());
+        assertFalse(graded.isPending());
+        assertEquals(QUESTIONS * 2, graded.getScore());
+        assertNotNull(graded.getCompletedAt());
+    }
+
+    @Test
+    public void testAttemptThatCannotBeGradedIsClosedAfterMaxFailures() {
+        testService.acceptSubmission(submission(openResult), student.id());
+
+        assertTrue(testService.recordGradingFailure(openResult.getId(), "сбой проверки", 2).isEmpty());
+        assertEquals(List.of(openResult.getId()), testResultRepository.findPendingSubmissionIds());
+
+        TestResultDto closed = testService.recordGradingFailure(openResult.getId(), "сбой проверки", 2).orElseThrow();
+        assertTrue(closed.isCompleted());
+        assertFalse(closed.isPending());
+        assertTrue(closed.isGradingFailed());
+        assertNull(closed.getScore());
+        assertNotNull(closed.getMessage());
+        entityManager.flush();
+        entityManager.clear();
+
+        TestResult stored = entityManager.find(TestResult.class, openResult.getId());
+        assertEquals("сбой проверки", stored.getGradingError());
+        assertNull(stored.getPendingSubmission());
+        assertNull(stored.getOpenAttempt());
+        assertTrue(testResultRepository.findPendingSubmissionIds().isEmpty());
+        // Повторный сбой по уже закрытой попытке ничего не меняет
+        assertTrue(testService.recordGradingFailure(openResult.getId(), "сбой проверки", 2).isEmpty());
+        assertEquals(0, testService.getTestResultDetails(openResult.getId(), admin).getScore());
+    }
+
+    @Test
+    public void testGroupIsGradedWithSharedReads() {
+        List<GradingRequest> requests = new ArrayList<>();
+        requests.add(new GradingRequest(openResult.getId(), student.id(), submission(openResult).getAnswers()));
+        for (int i = 0; i < 2; i++) {
+            User other = entityManager.persist(user("group" + i, UserRole.STUDENT, openResult.getStudent().getGrade()));
+            TestResult attempt = entityManager.persist(result(openResult.getTest(), other, false));
+            requests.add(new GradingRequest(attempt.getId(), other.getId(), submission(attempt).getAnswers()));
+        }
+        // Чужая попытка: отказ получает только эта отправка
+        requests.add(new GradingRequest(requests.get(1).testResultId(), student.id(), List.of()));
+
+        List<GradingOutcome> outcomes = new ArrayList<>();
+        long count = statements(() -> outcomes.addAll(testService.gradeGroup(requests)));
+        // Проверка без блокировок на всю группу: попытки с тестом и вопросами, варианты ответов, автосохраненные ответы.
+        // Под блокировками: блокировки, попытки с тестом и учеником, автосохраненные ответы; ответы не изменились,
+        // поэтому баллы не пересчитываются. Запись тоже не зависит от размера группы: пакеты ответов и UPDATE результатов
+        assertEquals(3 + 3 + 2, count);
+        for (GradingOutcome outcome : outcomes.subList(0, 3)) {
+            assertNull(outcome.error());
+            assertEquals(QUESTIONS * 2, outcome.result().getScore());
+        }
+        assertEquals("У вас нет доступа к этому тесту", outcomes.get(3).error().getMessage());
+    }
+
+    @Test
+    public void testExpiredAttemptIsFinalizedAtDeadline() {
+        TestResult abandoned = result(firstTest, openResult.getStudent(), false);
+        abandoned.setStartedAt(LocalDateTime.now().minusMinutes(90));
+        abandoned.setDeadline(abandoned.getStartedAt().plusMinutes(firstTest.getTimeLimit()));
+        entityManager.persist(abandoned);
+        LocalDateTime cutoff = LocalDateTime.now();
+
+        // Открытая попытка без истекшего срока в выборку не попадает
+        List<Long> ids = testResultRepository.findExpiredAttemptIds(cutoff, PageRequest.of(0, 10));
+        assertEquals(List.of(abandoned.getId()), ids);
+        assertEquals(1, testService.expireAttempts(ids, cutoff));
+        entityManager.flush();
+        entityManager.clear();
+
+        TestResult expired = entityManager.find(TestResult.class, abandoned.getId());
+        assertTrue(expired.isCompleted());
+        assertEquals(0, expired.getScore());
+        // Завершенная попытка выходит из индекса открытых попыток
+        assertNull(expired.getOpenAttempt());
+        assertEquals(expired.getDeadline(), expired.getCompletedAt());
+        assertTrue(testResultRepository.findExpiredAttemptIds(cutoff, PageRequest.of(0, 10)).isEmpty());
+        // Повторное закрытие ничего не меняет
+        assertEquals(0, testService.expireAttempts(ids, cutoff));
+    }
+
+    @Test
+    public void testResultDetails() {
+        // Результат с ответами и вопросами, варианты пачкой; выбранные варианты берутся из маски
+        assertEquals(2, statements(() -> assertEquals(QUESTIONS,
+                testService.getTestResultDetails(completedResult.getId(), admin).getStudentAnswers().size())));
+        assertEquals(1, statements(() -> testService.getTestResultById(completedResult.getId(), admin)));
+    }
+
+    @Test
+    public void testResultListsAndStatistics() {
+        // Завершенные попытки по каждому тесту и одна незавершенная
+        assertEquals(1, statements(() -> assertEquals(TESTS + 1, testService.getStudentResults(student).size())));
+        assertEquals(2, statements(() -> assertEquals(STUDENTS,
+                testService.getTestResults(firstTest.getId(), admin).size())));
+        assertEquals(2, statements(() -> assertEquals(STUDENTS,
+                statisticsService.getTestStatistics(admin, firstTest.getId()).getUserStats().size())));
+    }
+
+    // Правильные ответы на все вопросы попытки
+    private static TestSubmissionRequest submission(TestResult result) {
+        TestSubmissionRequest request = new TestSubmissionRequest();
+        request.setTestResultId(result.getId());
+        List<StudentAnswerRequest> answers = new ArrayList<>();
+        for (Question question : result.getTest().getQuestions()) {
+            StudentAnswerRequest answer = new StudentAnswerRequest();
+            answer.setQuestionId(question.getId());
+            answer.setSelectedAnswerIds(List.of(question.getAnswers().get(0).getId()));
+            answers.add(answer);
+        }
+        request.setAnswers(answers);
+        return request;
+    }
+
+    private long statements(Runnable action) {
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+        action.run();
+        entityManager.flush();
+        return statistics.getPrepareStatementCount();
+    }
+
+    private static User user(String username, UserRole role, Grade grade) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("hash");
+        user.setFullName(username);
+        user.setRole(role);
+        user.setGrade(grade);
+        return user;
+    }
+
+    private static TestResult result(org.ineydlis.schooltest.model.Test test, User student, boolean completed) {
+        TestResult result = new TestResult();
+        result.setTest(test);
+        result.setStudent(student);
+        result.setStartedAt(LocalDateTime.now().minusMinutes(10));
+        result.setCompleted(completed);
+        result.setCompletedAt(completed ? LocalDateTime.now() : null);
+        result.setScore(completed ? QUESTIONS * 2 : null);
+        result.setMaxScore(completed ? QUESTIONS * 2 : 0);
+        return result;
+    }
+}
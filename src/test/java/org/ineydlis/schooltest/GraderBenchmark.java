@@ -0,0 +1,96 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.service.Grader;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.MultipleChoiceGrader;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Микрозамер каждой реализации {@link Grader}: прямой вызов и вызов через конвейер
+ * {@link GraderRegistry} с замером времени. Печатает наносекунды на одну проверку ответа.
+ * <p>
+ * Не входит в обычный прогон тестов; запуск: {@code mvn test -Dtest=GraderBenchmark}
+ */
+public class GraderBenchmark {
+
+    private static final int QUESTIONS = 600;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 200;
+    private static final int TRIALS = 7;
+
+    private static volatile int sink;
+
+    @Test
+    public void graders() {
+        Random random = new Random(14);
+        org.ineydlis.schooltest.model.Test test = GradingFixtures.randomTest(random, QUESTIONS);
+        List<StudentAnswerRequest> submission = GradingFixtures.randomSubmission(random, test);
+        GraderRegistry registry = GradingFixtures.registry();
+
+        measure(QuestionType.SINGLE_CHOICE, new SingleChoiceGrader(), test, submission, registry);
+        measure(QuestionType.MULTIPLE_CHOICE, new MultipleChoiceGrader(), test, submission, registry);
+        measure(QuestionType.TEXT_ANSWER, new TextAnswerGrader(), test, submission, registry);
+    }
+
+    private static <K> void measure(QuestionType type, Grader<K> grader, org.ineydlis.schooltest.model.Test test,
+                                    List<StudentAnswerRequest> submission, GraderRegistry registry) {
+        List<K> keys = new ArrayList<>();
+        List<GraderRegistry.CompiledQuestion<?>> compiled = new ArrayList<>();
+        List<StudentAnswerRequest> answers = new ArrayList<>();
+        for (Question question : test.getQuestions()) {
+            if (question.getType() != type) {
+                continue;
+            }
+            keys.add(grader.compile(question));
+            compiled.add(registry.compile(question));
+            answers.add(submission.stream()
+                    .filter(a -> question.getId().equals(a.getQuestionId()))
+                    .findFirst()
+                    .orElseThrow());
+        }
+
+        Runnable direct = () -> {
+            for (int i = 0; i < keys.size(); i++) {
+                StudentAnswerRequest answer = answers.get(i);
+                sink += grader.grade(keys.get(i), answer.getTextAnswer(), answer.getSelectedAnswerIds()).earnedPoints();
+            }
+        };
+        Runnable pipeline = () -> {
+            for (int i = 0; i < compiled.size(); i++) {
+                StudentAnswerRequest answer = answers.get(i);
+                sink += compiled.get(i).grade(answer.getTextAnswer(), answer.getSelectedAnswerIds()).earnedPoints();
+            }
+        };
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            direct.run();
+            pipeline.run();
+        }
+        // Варианты чередуются, берется лучший из нескольких прогонов: на общей машине шум велик
+        double bestDirect = Double.MAX_VALUE;
+        double bestPipeline = Double.MAX_VALUE;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            bestDirect = Math.min(bestDirect, nanosPerOp(direct, keys.size()));
+            bestPipeline = Math.min(bestPipeline, nanosPerOp(pipeline, keys.size()));
+        }
+        System.out.printf("%-16s n=%3d direct=%7.1f ns/op pipeline=%7.1f ns/op%n",
+                type, keys.size(), bestDirect, bestPipeline);
+    }
+
+    private static double nanosPerOp(Runnable round, int operationsPerRound) {
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            round.run();
+        }
+        return (double) (System.nanoTime() - start) / MEASURED_ROUNDS / operationsPerRound;
+    }
+}
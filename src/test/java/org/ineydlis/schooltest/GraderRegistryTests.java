@@ -0,0 +1,83 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.service.Grader;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraderRegistryTests {
+
+    @Test
+    public void testDispatchesByTypeAndCountsGradings() {
+        GraderRegistry registry = GradingFixtures.registry();
+        GraderRegistry.CompiledQuestion<?> compiled = registry.compile(question(QuestionType.SINGLE_CHOICE));
+
+        assertTrue(compiled.grade(null, List.of(10L)).correct());
+        assertFalse(compiled.grade(null, List.of(11L)).correct());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> single = (Map<String, Object>) registry.getStats().get("SINGLE_CHOICE");
+        assertEquals("SingleChoiceGrader", single.get("grader"));
+        assertEquals(1L, single.get("compiled"));
+        assertEquals(2L, single.get("graded"));
+    }
+
+    @Test
+    public void testNewTypeIsAddedByRegisteringGrader() {
+        // Своя проверка текста вместо стандартной: реестр берет ее по типу
+        Grader<String> exact = new Grader<>() {
+            @Override
+            public QuestionType type() {
+                return QuestionType.TEXT_ANSWER;
+            }
+
+            @Override
+            public String compile(Question question) {
+                return question.getAnswers().get(0).getText();
+            }
+
+            @Override
+            public Outcome grade(String expected, String textAnswer, List<Long> selectedAnswerIds) {
+                return new Outcome(expected.equals(textAnswer), 1, null, new long[0]);
+            }
+        };
+        GraderRegistry registry = new GraderRegistry(List.of(new SingleChoiceGrader(), exact));
+
+        Question question = question(QuestionType.TEXT_ANSWER);
+        assertFalse(registry.compile(question).grade("ответ 0", null).correct());
+        assertTrue(registry.compile(question).grade("Ответ 0", null).correct());
+
+        // Для MULTIPLE_CHOICE проверка не зарегистрирована
+        assertThrows(IllegalStateException.class, () -> registry.compile(question(QuestionType.MULTIPLE_CHOICE)));
+    }
+
+    @Test
+    public void testDuplicateRegistrationIsRejected() {
+        assertThrows(IllegalStateException.class,
+                () -> new GraderRegistry(List.of(new TextAnswerGrader(), new TextAnswerGrader())));
+    }
+
+    private static Question question(QuestionType type) {
+        Question question = new Question();
+        question.setId(1L);
+        question.setType(type);
+        question.setPoints(2);
+        for (int i = 0; i < 2; i++) {
+            Answer answer = new Answer();
+            answer.setId(10L + i);
+            answer.setText("Ответ " + i);
+            answer.setCorrect(i == 0);
+            question.getAnswers().add(answer);
+        }
+        return question;
+    }
+}
@@ -0,0 +1,117 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.StudentAnswer;
+import org.ineydlis.schooltest.model.TestResult;
+import org.ineydlis.schooltest.service.AnswerKey;
+import org.ineydlis.schooltest.service.Grader;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Замер проверки попытки: прежний алгоритм submitTest против скомпилированного AnswerKey
+ * на тестах из 50 и 200 вопросов. Обе стороны создают StudentAnswer, как в сервисе,
+ * без работы с базой. Печатает время и объем выделенной памяти на одну попытку.
+ * <p>
+ * Не входит в обычный прогон тестов; запуск: {@code mvn test -Dtest=GradingBenchmark}
+ */
+public class GradingBenchmark {
+
+    private static final int SUBMISSIONS = 64;
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int MEASURED_ROUNDS = 30;
+
+    private static volatile int sink;
+
+    @Test
+    public void grading() {
+        for (int questions : new int[]{50, 200}) {
+            Random random = new Random(questions);
+            org.ineydlis.schooltest.model.Test test = GradingFixtures.randomTest(random, questions);
+            // Выбрана половина вопросов, как при questionsToShow
+            List<Long> selectedQuestionIds = test.getQuestions().stream()
+                    .map(Question::getId)
+                    .filter(id -> random.nextBoolean())
+                    .collect(Collectors.toList());
+            @SuppressWarnings("unchecked")
+            List<StudentAnswerRequest>[] submissions = new List[SUBMISSIONS];
+            for (int i = 0; i < SUBMISSIONS; i++) {
+                submissions[i] = GradingFixtures.randomSubmission(random, test);
+            }
+
+            AnswerKey key = AnswerKey.compile(test, GradingFixtures.registry());
+            // Вопросы по позиции в ключе - аналог getReferenceById из контекста в сервисе
+            Question[] byIndex = new Question[key.size()];
+            for (Question question : test.getQuestions()) {
+                byIndex[key.indexOf(question.getId())] = question;
+            }
+
+            run("legacy   n=" + questions, submissions,
+                    submission -> LegacyGrading.grade(test, selectedQuestionIds, submission).getScore());
+            run("compiled n=" + questions, submissions,
+                    submission -> compiled(key, byIndex, selectedQuestionIds, submission));
+        }
+    }
+
+    private static int compiled(AnswerKey key, Question[] byIndex, List<Long> selectedQuestionIds,
+                                List<StudentAnswerRequest> submission) {
+        TestResult testResult = new TestResult();
+        boolean[] scored = key.scoredQuestions(selectedQuestionIds);
+        int total = 0;
+        for (StudentAnswerRequest answerRequest : submission) {
+            int index = key.indexOf(answerRequest.getQuestionId());
+            if (index < 0 || !scored[index]) {
+                continue;
+            }
+            Grader.Outcome outcome = key.grade(index, answerRequest.getTextAnswer(), answerRequest.getSelectedAnswerIds());
+            Question question = byIndex[index];
+            StudentAnswer studentAnswer = new StudentAnswer();
+            studentAnswer.setQuestion(question);
+            studentAnswer.setTestResult(testResult);
+            if (key.type(index) == QuestionType.TEXT_ANSWER) {
+                studentAnswer.setTextAnswer(answerRequest.getTextAnswer());
+            }
+            studentAnswer.setSelectedAnswerIds(outcome.selectedAnswerIds());
+            studentAnswer.setCorrect(outcome.correct());
+            studentAnswer.setEarnedPoints(outcome.earnedPoints());
+            studentAnswer.setPartialRatio(outcome.partialRatio());
+            total += outcome.earnedPoints();
+            testResult.getStudentAnswers().add(studentAnswer);
+        }
+        return total;
+    }
+
+    private static void run(String name, List<StudentAnswerRequest>[] submissions,
+                            ToIntFunction<List<StudentAnswerRequest>> grader) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (List<StudentAnswerRequest> submission : submissions) {
+                sink += grader.applyAsInt(submission);
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (List<StudentAnswerRequest> submission : submissions) {
+                sink += grader.applyAsInt(submission);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        int operations = MEASURED_ROUNDS * submissions.length;
+        System.out.printf("%-16s %9.1f us/op %10d B/op%n",
+                name, elapsed / 1e3 / operations, allocated / operations);
+    }
+}
@@ -0,0 +1,94 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.MultipleChoiceGrader;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Случайные тесты и ответы учеников для сравнения проверки по AnswerKey с прежним алгоритмом.
+ */
+final class GradingFixtures {
+
+    private static final QuestionType[] TYPES = QuestionType.values();
+
+    private GradingFixtures() {
+    }
+
+    // Реестр со всеми проверками, как его собирает Spring
+    static GraderRegistry registry() {
+        return new GraderRegistry(List.of(new SingleChoiceGrader(), new MultipleChoiceGrader(), new TextAnswerGrader()));
+    }
+
+    // Вопросы всех типов, от 2 до 6 вариантов; у MULTIPLE_CHOICE бывает и ноль правильных
+    static org.ineydlis.schooltest.model.Test randomTest(Random random, int questions) {
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.setId(1L);
+        long answerId = 1;
+        for (int q = 0; q < questions; q++) {
+            Question question = new Question();
+            question.setId(100L + q * 7L);
+            question.setText("Вопрос " + q);
+            question.setType(TYPES[random.nextInt(TYPES.length)]);
+            question.setPoints(1 + random.nextInt(5));
+            question.setTest(test);
+
+            int options = question.getType() == QuestionType.TEXT_ANSWER ? 1 : 2 + random.nextInt(5);
+            int correctIndex = random.nextInt(options);
+            for (int a = 0; a < options; a++) {
+                Answer answer = new Answer();
+                answer.setId(answerId++);
+                answer.setText(question.getType() == QuestionType.TEXT_ANSWER ? " Ответ " + q + " " : "Вариант " + a);
+                answer.setCorrect(switch (question.getType()) {
+                    case SINGLE_CHOICE, TEXT_ANSWER -> a == correctIndex;
+                    case MULTIPLE_CHOICE -> random.nextInt(3) == 0;
+                });
+                answer.setQuestion(question);
+                question.getAnswers().add(answer);
+            }
+            test.getQuestions().add(question);
+        }
+        return test;
+    }
+
+    // Ответы на все вопросы в случайном порядке: с повторами, чужими и пустыми выборами
+    static List<StudentAnswerRequest> randomSubmission(Random random, org.ineydlis.schooltest.model.Test test) {
+        List<StudentAnswerRequest> answers = new ArrayList<>();
+        for (Question question : test.getQuestions()) {
+            StudentAnswerRequest request = new StudentAnswerRequest();
+            request.setQuestionId(question.getId());
+            if (question.getType() == QuestionType.TEXT_ANSWER) {
+                request.setTextAnswer(random.nextBoolean() ? "ответ " + question.getText().substring(7) : "не знаю");
+            } else {
+                List<Long> selected = new ArrayList<>();
+                for (Answer answer : question.getAnswers()) {
+                    if (random.nextInt(3) == 0) {
+                        selected.add(answer.getId());
+                    }
+                }
+                if (!selected.isEmpty() && random.nextInt(10) == 0) {
+                    selected.add(selected.get(0));
+                }
+                if (random.nextInt(20) == 0) {
+                    selected.add(-1L);
+                }
+                request.setSelectedAnswerIds(selected);
+            }
+            answers.add(request);
+        }
+        if (random.nextInt(5) == 0) {
+            answers.add(new StudentAnswerRequest(999_999L, null, List.of(1L)));
+        }
+        Collections.shuffle(answers, random);
+        return answers;
+    }
+}
@@ -0,0 +1,141 @@
+package org.ineydlis.schooltest;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.ineydlis.schooltest.config.JacksonConfig;
+import org.ineydlis.schooltest.dto.AnswerDto;
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.dto.QuestionDto;
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.dto.TestCreateRequest;
+import org.ineydlis.schooltest.dto.TestSubmissionRequest;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
+import org.ineydlis.schooltest.service.GraderRegistry;
+import org.ineydlis.schooltest.service.MultipleChoiceGrader;
+import org.ineydlis.schooltest.service.SingleChoiceGrader;
+import org.ineydlis.schooltest.service.TestService;
+import org.ineydlis.schooltest.service.TextAnswerGrader;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Замер числа SQL-операторов при создании теста из 40 вопросов по 4 варианта и при отправке
+ * ответов на все 40 вопросов. "row by row" - размер пакета JDBC 1 в сессии: каждая строка
+ * отдельным оператором, как было при IDENTITY; "batched" - настройки приложения.
+ * <p>
+ * Не входит в обычный прогон тестов; запуск: {@code mvn test -Dtest=InsertBatchingBenchmark}
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.show-sql=false"
+})
+@Import({JacksonConfig.class, TestService.class, ExamSnapshotCache.class, GraderRegistry.class,
+        SingleChoiceGrader.class, MultipleChoiceGrader.class, TextAnswerGrader.class})
+public class InsertBatchingBenchmark {
+
+    private static final int QUESTIONS = 40;
+    private static final int ANSWERS = 4;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private TestService testService;
+
+    @Test
+    public void statementCounts() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        Subject subject = entityManager.persist(new Subject(null, "Математика"));
+        User admin = entityManager.persist(user("admin", UserRole.ADMIN));
+        User student = entityManager.persist(user("student", UserRole.STUDENT));
+
+        for (Integer batchSize : new Integer[]{1, null}) {
+            String name = batchSize != null ? "row by row" : "batched";
+            entityManager.getEntityManager().unwrap(Session.class).setJdbcBatchSize(batchSize);
+
+            Long testId = measure(statistics, name + ": createTest",
+                    () -> testService.createTest(createRequest(subject.getId()), AuthPrincipal.of(admin)).getId());
+
+            org.ineydlis.schooltest.model.Test test = entityManager.find(org.ineydlis.schooltest.model.Test.class, testId);
+            TestResult attempt = new TestResult();
+            attempt.setTest(test);
+            attempt.setStudent(student);
+            attempt.setStartedAt(LocalDateTime.now());
+            attempt.setMaxScore(0);
+            entityManager.persist(attempt);
+            TestSubmissionRequest submission = submission(attempt.getId(), test);
+
+            measure(statistics, name + ": submitTest",
+                    () -> testService.submitTest(submission, student.getId()).getScore());
+        }
+    }
+
+    private <T> T measure(Statistics statistics, String name, Supplier<T> action) {
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+        T result = action.get();
+        entityManager.flush();
+        System.out.printf("%-24s statements=%4d%n", name, statistics.getPrepareStatementCount());
+        return result;
+    }
+
+    private static TestCreateRequest createRequest(Long subjectId) {
+        List<QuestionDto> questions = new ArrayList<>();
+        for (int q = 0; q < QUESTIONS; q++) {
+            QuestionDto question = new QuestionDto();
+            question.setText("Вопрос " + q);
+            question.setType(QuestionType.SINGLE_CHOICE);
+            question.setPoints(1);
+            List<AnswerDto> answers = new ArrayList<>();
+            for (int a = 0; a < ANSWERS; a++) {
+                AnswerDto answer = new AnswerDto();
+                answer.setText("Ответ " + a);
+                answer.setIsCorrect(a == 0);
+                answers.add(answer);
+            }
+            question.setAnswers(answers);
+            questions.add(question);
+        }
+        TestCreateRequest request = new TestCreateRequest();
+        request.setTitle("Контрольная");
+        request.setSubjectId(subjectId);
+        request.setTimeLimit(45);
+        request.setMaxAttempts(1);
+        request.setQuestions(questions);
+        return request;
+    }
+
+    private static TestSubmissionRequest submission(Long attemptId, org.ineydlis.schooltest.model.Test test) {
+        List<StudentAnswerRequest> answers = new ArrayList<>();
+        for (Question question : test.getQuestions()) {
+            answers.add(new StudentAnswerRequest(question.getId(), null,
+                    List.of(question.getAnswers().get(0).getId())));
+        }
+        return new TestSubmissionRequest(attemptId, answers);
+    }
+
+    private static User user(String username, UserRole role) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("hash");
+        user.setFullName(username);
+        user.setRole(role);
+        return user;
+    }
+}
@@ -0,0 +1,61 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.service.LastLoginRecorder;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class LastLoginRecorderTests {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepeatedLoginsAreCoalescedIntoOneBatch() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        LastLoginRecorder recorder = new LastLoginRecorder(jdbcTemplate, 500);
+        LocalDateTime first = LocalDateTime.of(2024, 9, 1, 8, 0);
+        LocalDateTime latest = first.plusMinutes(5);
+
+        recorder.record(1L, first);
+        recorder.record(1L, latest);
+        recorder.record(1L, first.plusMinutes(1));
+        recorder.record(2L, first);
+        recorder.flush();
+
+        ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), batch.capture());
+        assertEquals(2, batch.getValue().size());
+        Object[] userRow = batch.getValue().stream().filter(row -> row[1].equals(1L)).findFirst().orElseThrow();
+        assertEquals(Timestamp.valueOf(latest), userRow[0]);
+
+        // Буфер пуст: повторный сброс не обращается к базе
+        recorder.flush();
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public void testFailedFlushKeepsValuesForNextAttempt() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("нет соединения"))
+                .thenReturn(new int[]{1});
+        LastLoginRecorder recorder = new LastLoginRecorder(jdbcTemplate, 500);
+
+        recorder.record(1L, LocalDateTime.now());
+        recorder.flush();
+        assertEquals(1, recorder.getStats().get("pending"));
+
+        recorder.flush();
+        assertEquals(0, recorder.getStats().get("pending"));
+        assertEquals(1L, recorder.getStats().get("written"));
+    }
+}
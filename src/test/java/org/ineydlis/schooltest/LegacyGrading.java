@@ -0,0 +1,130 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.model.*;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Прежний алгоритм проверки из TestService.submitTest (до AnswerKey) без работы с базой.
+ * Эталон для AnswerKeyTests и базовая линия для GradingBenchmark.
+ */
+final class LegacyGrading {
+
+    private LegacyGrading() {
+    }
+
+    static TestResult grade(org.ineydlis.schooltest.model.Test test, List<Long> selectedQuestionIds,
+                            List<StudentAnswerRequest> answers) {
+        TestResult testResult = new TestResult();
+        testResult.setSelectedQuestionIds(selectedQuestionIds);
+        int totalScore = 0;
+
+        Map<Long, Question> questionMap = test.getQuestions().stream()
+                .collect(Collectors.toMap(Question::getId, q -> q));
+
+        List<Long> questionIdsToConsider;
+        if (testResult.getSelectedQuestionIds() != null && !testResult.getSelectedQuestionIds().isEmpty()) {
+            questionIdsToConsider = testResult.getSelectedQuestionIds();
+        } else {
+            questionIdsToConsider = test.getQuestions().stream()
+                    .map(Question::getId)
+                    .collect(Collectors.toList());
+        }
+
+        for (StudentAnswerRequest answerRequest : answers) {
+            Question question = questionMap.get(answerRequest.getQuestionId());
+            if (question == null) {
+                continue;
+            }
+            if (!questionIdsToConsider.contains(question.getId())) {
+                continue;
+            }
+
+            StudentAnswer studentAnswer = new StudentAnswer();
+            studentAnswer.setQuestion(question);
+            studentAnswer.setTestResult(testResult);
+
+            boolean isCorrect = false;
+
+            switch (question.getType()) {
+                case TEXT_ANSWER:
+                    studentAnswer.setTextAnswer(answerRequest.getTextAnswer());
+                    if (question.getAnswers().size() > 0) {
+                        String correctAnswer = question.getAnswers().get(0).getText().trim().toLowerCase();
+                        String providedAnswer = answerRequest.getTextAnswer() != null ?
+                                answerRequest.getTextAnswer().trim().toLowerCase() : "";
+                        isCorrect = correctAnswer.equals(providedAnswer);
+                    }
+                    break;
+
+                case SINGLE_CHOICE:
+                case MULTIPLE_CHOICE:
+                    if (answerRequest.getSelectedAnswerIds() != null && !answerRequest.getSelectedAnswerIds().isEmpty()) {
+                        Map<Long, Answer> answerMap = question.getAnswers().stream()
+                                .collect(Collectors.toMap(Answer::getId, a -> a));
+
+                        Set<Answer> selectedAnswers = new HashSet<>();
+                        for (Long answerId : answerRequest.getSelectedAnswerIds()) {
+                            Answer answer = answerMap.get(answerId);
+                            if (answer != null) {
+                                selectedAnswers.add(answer);
+                            }
+                        }
+                        studentAnswer.setSelectedAnswers(selectedAnswers);
+
+                        if (question.getType() == QuestionType.SINGLE_CHOICE) {
+                            if (selectedAnswers.size() == 1) {
+                                isCorrect = selectedAnswers.iterator().next().isCorrect();
+                            }
+                        } else if (question.getType() == QuestionType.MULTIPLE_CHOICE) {
+                            Set<Answer> allQuestionAnswers = new HashSet<>(question.getAnswers());
+                            Set<Answer> correctQuestionAnswers = question.getAnswers().stream()
+                                    .filter(Answer::isCorrect)
+                                    .collect(Collectors.toSet());
+
+                            if (correctQuestionAnswers.isEmpty()) {
+                                isCorrect = selectedAnswers.isEmpty();
+                            } else {
+                                int totalCorrectAnswers = correctQuestionAnswers.size();
+                                int correctSelectedCount = 0;
+                                for (Answer selected : selectedAnswers) {
+                                    if (selected.isCorrect()) {
+                                        correctSelectedCount++;
+                                    }
+                                }
+                                int incorrectSelectedCount = selectedAnswers.size() - correctSelectedCount;
+                                double correctRatio = (double) correctSelectedCount / totalCorrectAnswers;
+                                int totalIncorrectOptions = allQuestionAnswers.size() - totalCorrectAnswers;
+                                double incorrectPenalty = totalIncorrectOptions > 0 ?
+                                        (double) incorrectSelectedCount / totalIncorrectOptions : 0;
+                                double ratio = Math.max(0, correctRatio - (incorrectPenalty * 0.5));
+
+                                int partialPoints = (int) Math.round(question.getPoints() * ratio);
+                                studentAnswer.setEarnedPoints(partialPoints);
+                                isCorrect = (ratio == 1.0);
+                                studentAnswer.setCorrect(isCorrect);
+                                studentAnswer.setPartialRatio(ratio);
+                                totalScore += partialPoints;
+                                testResult.getStudentAnswers().add(studentAnswer);
+                                continue;
+                            }
+                        }
+                    }
+                    break;
+            }
+
+            if (question.getType() != QuestionType.MULTIPLE_CHOICE || isCorrect) {
+                studentAnswer.setCorrect(isCorrect);
+                studentAnswer.setEarnedPoints(isCorrect ? question.getPoints() : 0);
+                totalScore += studentAnswer.getEarnedPoints();
+            }
+
+            testResult.getStudentAnswers().add(studentAnswer);
+        }
+
+        testResult.setScore(totalScore);
+        return testResult;
+    }
+}
@@ -0,0 +1,132 @@
+package org.ineydlis.schooltest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.TestDto;
+import org.ineydlis.schooltest.service.PasswordHashingService;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный замер: волна входов и одновременно обычные запросы ("список тестов").
+ * Сравнивает проверку BCrypt прямо в потоках запросов с ограниченным пулом
+ * PasswordHashingService. Печатает входы в секунду и p50/p99 задержки обычных запросов.
+ * <p>
+ * Не входит в обычный прогон тестов; запуск: {@code mvn test -Dtest=LoginStormBenchmark}
+ */
+public class LoginStormBenchmark {
+
+    // Как у небольшого Tomcat: запросы обслуживает фиксированный пул потоков
+    private static final int REQUEST_THREADS = 32;
+    private static final int BCRYPT_COST = 10;
+    private static final long LOGIN_INTERVAL_MICROS = 10_000;
+    private static final long OTHER_REQUEST_INTERVAL_MICROS = 5_000;
+    private static final long SCENARIO_MILLIS = 4_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    public void loginStorm() throws Exception {
+        PasswordEncoder encoder = new BCryptPasswordEncoder(BCRYPT_COST);
+        String hash = encoder.encode("secret");
+
+        // Прогрев JIT
+        for (int i = 0; i < 20; i++) {
+            encoder.matches("secret", hash);
+            cheapRequest();
+        }
+
+        runScenario("inline", password -> encoder.matches(password, hash));
+
+        int hashingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        PasswordHashingService hashingService =
+                new PasswordHashingService(encoder, BCRYPT_COST, hashingThreads, 8, 5000);
+        try {
+            runScenario("bounded pool x" + hashingThreads,
+                    password -> hashingService.verify(password, hash).matches());
+        } finally {
+            hashingService.shutdown();
+        }
+    }
+
+    // Открытая модель нагрузки: входы и легкие запросы приходят с постоянной частотой,
+    // задержка считается от момента поступления запроса
+    private void runScenario(String name, Login login) throws Exception {
+        ThreadPoolExecutor requestPool = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        ScheduledExecutorService arrivals = Executors.newScheduledThreadPool(2);
+        arrivals.scheduleAtFixedRate(() -> requestPool.execute(() -> {
+            try {
+                if (login.attempt("secret")) {
+                    succeeded.incrementAndGet();
+                }
+            } catch (TooManyRequestsException e) {
+                rejected.incrementAndGet();
+            }
+        }), 0, LOGIN_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+        arrivals.scheduleAtFixedRate(() -> {
+            long arrivedAt = System.nanoTime();
+            requestPool.execute(() -> {
+                cheapRequest();
+                latencies.add(System.nanoTime() - arrivedAt);
+            });
+        }, 0, OTHER_REQUEST_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+
+        long start = System.nanoTime();
+        Thread.sleep(SCENARIO_MILLIS);
+        arrivals.shutdownNow();
+        requestPool.shutdown();
+        requestPool.awaitTermination(2, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        System.out.printf("%-18s logins/s=%6.1f ok=%d rejected(429)=%d other=%d p50=%8.1fms p99=%8.1fms%n",
+                name, succeeded.get() / seconds, succeeded.get(), rejected.get(), sorted.size(),
+                percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    // Имитация легкого запроса: сериализация небольшого списка тестов
+    private void cheapRequest() {
+        List<TestDto> tests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tests.add(TestDto.builder().id((long) i).title("Тест " + i).subjectName("Математика")
+                    .questionCount(20).totalPoints(40).maxAttempts(2).build());
+        }
+        try {
+            objectMapper.writeValueAsBytes(tests);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static double percentile(List<Long> sortedNanos, double p) {
+        if (sortedNanos.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.min(sortedNanos.size() - 1, Math.ceil(p * sortedNanos.size()) - 1);
+        return sortedNanos.get(Math.max(0, index)) / 1e6;
+    }
+
+    private interface Login {
+        boolean attempt(String password);
+    }
+}
@@ -0,0 +1,82 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.service.PasswordHashingService;
+import org.ineydlis.schooltest.util.TooManyRequestsException;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHashingServiceTests {
+
+    @Test
+    public void testMatchingPasswordWithCurrentCostIsNotRehashed() {
+        PasswordHashingService service = new PasswordHashingService(new BCryptPasswordEncoder(4), 4, 1, 4, 5000);
+        String hash = new BCryptPasswordEncoder(4).encode("secret");
+
+        PasswordHashingService.VerificationResult result = service.verify("secret", hash);
+
+        assertTrue(result.matches());
+        assertNull(result.upgradedHash());
+        service.shutdown();
+    }
+
+    @Test
+    public void testHashIsUpgradedAndDowngradedToConfiguredCost() {
+        PasswordHashingService service = new PasswordHashingService(new BCryptPasswordEncoder(5), 5, 1, 4, 5000);
+
+        String upgraded = service.verify("secret", new BCryptPasswordEncoder(4).encode("secret")).upgradedHash();
+        String downgraded = service.verify("secret", new BCryptPasswordEncoder(6).encode("secret")).upgradedHash();
+
+        assertNotNull(upgraded);
+        assertTrue(upgraded.startsWith("$2a$05$"));
+        assertNotNull(downgraded);
+        assertTrue(downgraded.startsWith("$2a$05$"));
+        service.shutdown();
+    }
+
+    @Test
+    public void testWrongPasswordDoesNotMatch() {
+        PasswordHashingService service = new PasswordHashingService(new BCryptPasswordEncoder(4), 4, 1, 4, 5000);
+
+        PasswordHashingService.VerificationResult result =
+                service.verify("wrong", new BCryptPasswordEncoder(4).encode("secret"));
+
+        assertFalse(result.matches());
+        assertNull(result.upgradedHash());
+        service.shutdown();
+    }
+
+    @Test
+    public void testOverloadIsRejectedWith429() throws Exception {
+        // Один поток и очередь на одну задачу: из 8 одновременных входов часть должна получить отказ
+        PasswordHashingService service = new PasswordHashingService(new BCryptPasswordEncoder(12), 12, 1, 1, 60000);
+        String hash = new BCryptPasswordEncoder(12).encode("secret");
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(8);
+        AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            callers.submit(() -> {
+                try {
+                    service.verify("secret", hash);
+                } catch (TooManyRequestsException e) {
+                    rejected.incrementAndGet();
+                    assertTrue(e.getRetryAfterSeconds() > 0);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        callers.shutdown();
+        service.shutdown();
+
+        assertTrue(rejected.get() >= 6, "rejected: " + rejected.get());
+    }
+}
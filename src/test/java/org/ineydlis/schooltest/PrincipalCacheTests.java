@@ -0,0 +1,98 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.PrincipalCache;
+import org.ineydlis.schooltest.service.SessionRevocationList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class PrincipalCacheTests {
+
+    @Spy
+    private PrincipalCache principalCache = new PrincipalCache(2, 60);
+
+    @Mock
+    private SessionRevocationList revocationList;
+
+    @InjectMocks
+    private AuthService authService;
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        PrincipalCache cache = new PrincipalCache(2, 60);
+        cache.put(principal(1L), cache.generation());
+        cache.put(principal(2L), cache.generation());
+        cache.get(1L);
+        cache.put(principal(3L), cache.generation());
+
+        assertTrue(cache.get(1L).isPresent());
+        assertTrue(cache.get(2L).isEmpty());
+        assertTrue(cache.get(3L).isPresent());
+        assertEquals(1L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testExpiredEntryIsNotReturned() throws Exception {
+        PrincipalCache cache = new PrincipalCache(10, 0);
+        cache.put(principal(1L), cache.generation());
+        Thread.sleep(5);
+
+        assertTrue(cache.get(1L).isEmpty());
+        assertEquals(1L, cache.getStats().get("expirations"));
+    }
+
+    @Test
+    public void testLoadStartedBeforeInvalidationIsNotCached() {
+        PrincipalCache cache = new PrincipalCache(10, 60);
+        // Запрос прочитал старые данные, а администратор успел их изменить
+        long generation = cache.generation();
+        cache.invalidate(1L);
+        cache.put(principal(1L), generation);
+
+        assertTrue(cache.get(1L).isEmpty());
+        assertEquals(1L, cache.getStats().get("staleLoads"));
+    }
+
+    @Test
+    public void testRevokedUserIsEvictedOnlyAfterCommit() {
+        principalCache.put(principal(1L), principalCache.generation());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            authService.revokeUserSessions(1L);
+            verify(revocationList).revokeUser(1L);
+            // До коммита изменения не видны другим запросам, сбрасывать рано
+            assertTrue(principalCache.get(1L).isPresent());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertTrue(principalCache.get(1L).isEmpty());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testEvictionOutsideTransactionIsImmediate() {
+        principalCache.put(principal(1L), principalCache.generation());
+
+        authService.evictUser(1L);
+
+        assertTrue(principalCache.get(1L).isEmpty());
+    }
+
+    private static AuthPrincipal principal(Long id) {
+        return new AuthPrincipal(id, "user" + id, "Пользователь", UserRole.STUDENT, 1L, true,
+                new long[0], new long[0]);
+    }
+}
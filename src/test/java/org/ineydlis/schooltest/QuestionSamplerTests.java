@@ -0,0 +1,62 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.util.QuestionSampler;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuestionSamplerTests {
+
+    @Test
+    public void testSampleIsDistinctAndInRange() {
+        for (long seed = 0; seed < 200; seed++) {
+            int[] sample = QuestionSampler.sample(30, 10, seed);
+            assertEquals(10, sample.length);
+            Set<Integer> distinct = new HashSet<>();
+            for (int index : sample) {
+                assertTrue(index >= 0 && index < 30);
+                assertTrue(distinct.add(index));
+            }
+        }
+    }
+
+    @Test
+    public void testSameSeedGivesSameSampleAndOrder() {
+        assertArrayEquals(QuestionSampler.sample(500, 25, 42L), QuestionSampler.sample(500, 25, 42L));
+        assertFalse(Arrays.equals(QuestionSampler.sample(500, 25, 42L), QuestionSampler.sample(500, 25, 43L)));
+    }
+
+    @Test
+    public void testFullSampleIsPermutation() {
+        int[] sample = QuestionSampler.sample(12, 12, 7L);
+        int[] sorted = sample.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(i, sorted[i]);
+        }
+        assertEquals(0, QuestionSampler.sample(5, 0, 7L).length);
+        assertThrows(IllegalArgumentException.class, () -> QuestionSampler.sample(5, 6, 7L));
+    }
+
+    @Test
+    public void testEveryQuestionIsPickedEvenly() {
+        int n = 10;
+        int k = 3;
+        int rounds = 20_000;
+        int[] picked = new int[n];
+        for (long seed = 0; seed < rounds; seed++) {
+            for (int index : QuestionSampler.sample(n, k, seed * 0x9E3779B97F4A7C15L)) {
+                picked[index]++;
+            }
+        }
+        // Ожидается rounds * k / n = 6000 на вопрос; допуск 5%
+        double expected = (double) rounds * k / n;
+        for (int count : picked) {
+            assertEquals(expected, count, expected * 0.05);
+        }
+    }
+}
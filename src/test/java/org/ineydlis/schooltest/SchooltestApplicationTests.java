@@ -1,17 +1,21 @@
 package org.ineydlis.schooltest;
 
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.dto.QuestionDto;
 import org.ineydlis.schooltest.dto.TestCreateRequest;
 import org.ineydlis.schooltest.dto.TestDto;
 import org.ineydlis.schooltest.dto.TestResultDto;
 import org.ineydlis.schooltest.dto.TestSubmissionRequest;
 import org.ineydlis.schooltest.model.*;
 import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.service.ExamSnapshotCache;
 import org.ineydlis.schooltest.service.TestService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDateTime;
@@ -40,6 +44,12 @@ public class SchooltestApplicationTests {
     @Mock
     private TestResultRepository testResultRepository;
 
+    @Mock
+    private QuestionRepository questionRepository;
+
+    @Spy
+    private ExamSnapshotCache examSnapshotCache = new ExamSnapshotCache(GradingFixtures.registry());
+
     @InjectMocks
     private TestService testService;
 
@@ -96,13 +106,13 @@ public class SchooltestApplicationTests {
         request.setGradeIds(Collections.singletonList(1L));
         request.setQuestions(Collections.emptyList());
 
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(userRepository.getReferenceById(1L)).thenReturn(testUser);
         when(subjectRepository.findById(1L)).thenReturn(Optional.of(testSubject));
         when(gradeRepository.findById(1L)).thenReturn(Optional.of(testGrade));
         when(testRepository.save(any(org.ineydlis.schooltest.model.Test.class))).thenReturn(testTest);
 
         // Действие
-        TestDto result = testService.createTest(request, 1L);
+        TestDto result = testService.createTest(request, AuthPrincipal.of(testUser));
 
         // Проверка
         assertNotNull(result);
@@ -112,12 +122,45 @@ public class SchooltestApplicationTests {
         verify(testRepository).save(any(org.ineydlis.schooltest.model.Test.class));
     }
 
+    @Test
+    public void testCreateTestStoresQuestionStats() {
+        QuestionDto first = new QuestionDto();
+        first.setText("2 + 2 = ?");
+        first.setType(QuestionType.SINGLE_CHOICE);
+        first.setPoints(2);
+        QuestionDto second = new QuestionDto();
+        second.setText("Выберите простые числа");
+        second.setType(QuestionType.MULTIPLE_CHOICE);
+        second.setPoints(3);
+
+        TestCreateRequest request = new TestCreateRequest();
+        request.setTitle("Тест по математике");
+        request.setSubjectId(1L);
+        request.setTimeLimit(60);
+        request.setMaxAttempts(1);
+        request.setQuestions(List.of(first, second));
+
+        when(userRepository.getReferenceById(1L)).thenReturn(testUser);
+        when(subjectRepository.findById(1L)).thenReturn(Optional.of(testSubject));
+        when(testRepository.save(any(org.ineydlis.schooltest.model.Test.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        TestDto result = testService.createTest(request, AuthPrincipal.of(testUser));
+
+        // Агрегаты сохранены в самом тесте, списки не обращаются к вопросам
+        verify(testRepository).save(argThat(test -> test.getQuestionCount() == 2 && test.getTotalPoints() == 5
+                && test.getQuestions().size() == 2));
+        assertEquals(2, result.getQuestionCount());
+        assertEquals(5, result.getTotalPoints());
+        // Вопросы сохраняются каскадом вместе с тестом, без отдельных save
+        verifyNoInteractions(questionRepository);
+    }
+
     @Test
     public void testGetTestsByTeacher() {
         // Подготовка
         List<org.ineydlis.schooltest.model.Test> tests = Collections.singletonList(testTest);
-        when(testRepository.findByCreator(testUser)).thenReturn(tests);
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(testRepository.findByCreatorIdOrderByIdAsc(1L)).thenReturn(tests);
 
         // Действие
         List<TestDto> result = testService.getTestsByTeacher(1L);
@@ -126,50 +169,74 @@ public class SchooltestApplicationTests {
         assertNotNull(result);
         assertEquals(1, result.size());
         assertEquals("Тест по математике", result.get(0).getTitle());
-        verify(testRepository).findByCreator(testUser);
+        verify(testRepository).findByCreatorIdOrderByIdAsc(1L);
     }
 
     @Test
     public void testGetTestsForStudent() {
-        // Подготовка
-        User student = new User();
-        student.setId(2L);
-        student.setRole(UserRole.STUDENT);
-
-        Grade studentGrade = new Grade();
-        studentGrade.setId(2L);
-        studentGrade.setNumber(5);
-        student.setGrade(studentGrade);
-
-        List<org.ineydlis.schooltest.model.Test> tests = Collections.singletonList(testTest);
-
-        when(userRepository.findById(2L)).thenReturn(Optional.of(student));
-        when(testRepository.findByAvailableGradesAndActive(student.getGrade())).thenReturn(tests);
-        when(testResultRepository.findByTestAndStudent(any(org.ineydlis.schooltest.model.Test.class), eq(student))).thenReturn(Collections.emptyList());
+        // Подготовка: три теста класса и несколько попыток ученика
+        AuthPrincipal student = new AuthPrincipal(2L, "student", "Ученик", UserRole.STUDENT, 1L, true,
+                new long[0], new long[0]);
+        LocalDateTime now = LocalDateTime.now();
+
+        when(testRepository.findStudentCatalogRows(1L)).thenReturn(List.of(
+                new Object[]{1L, "Тест по математике", "Проверка знаний", 1L, "Математика", 1L, "Учитель",
+                        now, null, 60, 2, null, 10, 20},
+                new Object[]{2L, "Дроби", null, 1L, "Математика", 1L, "Учитель", now, null, 30, 3, 5, 8, 8},
+                new Object[]{3L, "Уравнения", null, 1L, "Математика", 1L, "Учитель", now, null, 30, 1, null, 0, 0}));
+        when(testRepository.findGradeNamesByTestIds(anyCollection())).thenReturn(List.of(
+                new Object[]{1L, "5А"}, new Object[]{2L, "5А"}, new Object[]{2L, "5Б"}, new Object[]{3L, "5А"}));
+        when(testResultRepository.findCompletedScoresByStudentId(2L)).thenReturn(List.of(
+                new Object[]{1L, 12, 20},
+                new Object[]{1L, 15, 20},
+                new Object[]{2L, 4, 5},
+                new Object[]{2L, 3, 4}));
 
         // Действие
-        List<TestDto> result = testService.getTestsForStudent(2L);
+        List<TestDto> result = testService.getTestsForStudent(student);
 
         // Проверка
-        assertNotNull(result);
-        assertEquals(1, result.size());
-        assertEquals("Тест по математике", result.get(0).getTitle());
-        verify(userRepository).findById(2L);
-        verify(testRepository).findByAvailableGradesAndActive(student.getGrade());
-        verify(testResultRepository).findByTestAndStudent(testTest, student);
+        assertEquals(3, result.size());
+        TestDto first = result.get(0);
+        assertEquals("Тест по математике", first.getTitle());
+        assertEquals(10, first.getQuestionCount());
+        assertEquals(20, first.getTotalPoints());
+        assertEquals(15, first.getBestScore());
+        assertEquals(20, first.getMaxScore());
+        assertEquals(75.0, first.getBestScorePercentage());
+        assertEquals(0, first.getRemainingAttempts());
+
+        TestDto second = result.get(1);
+        assertEquals(Set.of("5А", "5Б"), second.getAvailableGrades());
+        assertEquals(4, second.getBestScore());
+        assertEquals(5, second.getMaxScore());
+        assertEquals(1, second.getRemainingAttempts());
+
+        TestDto third = result.get(2);
+        assertNull(third.getBestScore());
+        assertEquals(0, third.getMaxScore());
+        assertEquals(1, third.getRemainingAttempts());
+
+        // Число запросов не зависит от количества тестов и попыток
+        verify(testRepository, times(1)).findStudentCatalogRows(1L);
+        verify(testRepository, times(1)).findGradeNamesByTestIds(anyCollection());
+        verify(testResultRepository, times(1)).findCompletedScoresByStudentId(2L);
+        verifyNoMoreInteractions(testRepository, testResultRepository);
+        verifyNoInteractions(userRepository);
     }
+
     @Test
     public void testDeleteTest() {
         // Подготовка
         when(testRepository.findById(1L)).thenReturn(Optional.of(testTest));
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
 
         // Действие
-        testService.deleteTest(1L, 1L);
+        testService.deleteTest(1L, AuthPrincipal.of(testUser));
 
         // Проверка
         verify(testRepository).findById(1L);
         verify(testRepository).save(argThat(test -> !test.isActive()));
+        verify(examSnapshotCache).evict(1L);
     }
 
     @Test
@@ -177,15 +244,15 @@ public class SchooltestApplicationTests {
         // Подготовка
         testTest.setActive(false);
         when(testRepository.findById(1L)).thenReturn(Optional.of(testTest));
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
         when(testRepository.save(any(org.ineydlis.schooltest.model.Test.class))).thenReturn(testTest);
 
         // Действие
-        TestDto result = testService.reactivateTest(1L, 1L, false);
+        TestDto result = testService.reactivateTest(1L, AuthPrincipal.of(testUser), false);
 
         // Проверка
         assertNotNull(result);
         verify(testRepository).findById(1L);
         verify(testRepository).save(argThat(test -> test.isActive()));
+        verify(examSnapshotCache).evict(1L);
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.AuthPrincipal;
+import org.ineydlis.schooltest.model.SessionRevocation;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.repository.SessionRevocationRepository;
+import org.ineydlis.schooltest.service.PrincipalCache;
+import org.ineydlis.schooltest.service.SessionRevocationList;
+import org.ineydlis.schooltest.service.SessionTokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class SessionRevocationListTests {
+
+    private final SessionRevocationRepository repository = mock(SessionRevocationRepository.class);
+    private final PrincipalCache principalCache = new PrincipalCache(100, 60);
+    private final List<SessionRevocation> table = new ArrayList<>();
+    private SessionRevocationList revocationList;
+    private long nextId = 1;
+
+    @BeforeEach
+    public void setup() {
+        when(repository.findByExpiresAtGreaterThan(anyLong())).thenAnswer(invocation -> List.copyOf(table));
+        when(repository.save(any())).thenAnswer(invocation -> {
+            SessionRevocation revocation = invocation.getArgument(0);
+            revocation.setId(nextId++);
+            table.add(revocation);
+            return revocation;
+        });
+        revocationList = new SessionRevocationList(repository, new SessionTokenService("", 60), principalCache);
+    }
+
+    @Test
+    public void testLateCommittedRevocationWithLowerIdIsApplied() {
+        long now = System.currentTimeMillis();
+        table.add(revocation(5L, 2L, now));
+        revocationList.refresh();
+
+        // Транзакция с id 4 закоммитилась после того, как узел уже видел id 5
+        table.add(revocation(4L, 3L, now));
+        revocationList.refresh();
+
+        assertTrue(revocationList.isRevoked(claims(2L, now - 1)));
+        assertTrue(revocationList.isRevoked(claims(3L, now - 1)));
+    }
+
+    @Test
+    public void testLoginInSameMillisecondAsRevocationIsValid() {
+        long now = System.currentTimeMillis();
+        table.add(revocation(1L, 2L, now));
+        revocationList.refresh();
+
+        assertFalse(revocationList.isRevoked(claims(2L, now)));
+        assertTrue(revocationList.isRevoked(claims(2L, now - 1)));
+    }
+
+    @Test
+    public void testRevocationFromOtherNodeEvictsPrincipal() {
+        principalCache.put(principal(2L), principalCache.generation());
+        table.add(revocation(1L, 2L, System.currentTimeMillis()));
+
+        revocationList.refresh();
+
+        assertTrue(principalCache.get(2L).isEmpty());
+    }
+
+    @Test
+    public void testPrincipalEvictionDoesNotRevokeTokens() {
+        long now = System.currentTimeMillis();
+        principalCache.put(principal(2L), principalCache.generation());
+        SessionRevocation eviction = revocation(1L, 2L, now);
+        eviction.setPrincipalOnly(true);
+        table.add(eviction);
+
+        revocationList.refresh();
+
+        assertTrue(principalCache.get(2L).isEmpty());
+        assertFalse(revocationList.isRevoked(claims(2L, now - 1)));
+    }
+
+    @Test
+    public void testOwnRevocationIsNotAppliedTwice() {
+        revocationList.revokeUser(2L);
+        principalCache.put(principal(2L), principalCache.generation());
+
+        // Узел, отозвавший сессии, сам сбрасывает кэш после коммита; синхронизация его не трогает
+        revocationList.refresh();
+
+        assertTrue(principalCache.get(2L).isPresent());
+        assertTrue(revocationList.isRevoked(claims(2L, System.currentTimeMillis() - 60_000)));
+    }
+
+    @Test
+    public void testRevocationIsAppliedOnlyAfterCommit() {
+        long issuedAt = System.currentTimeMillis() - 60_000;
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            revocationList.revokeUser(2L);
+            assertFalse(revocationList.isRevoked(claims(2L, issuedAt)));
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertTrue(revocationList.isRevoked(claims(2L, issuedAt)));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testRolledBackRevocationIsNotApplied() {
+        long issuedAt = System.currentTimeMillis() - 60_000;
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            revocationList.revokeUser(2L);
+            revocationList.revokeToken(claims(3L, issuedAt));
+        } finally {
+            // Откат: afterCommit не вызывается, а записи в таблице не остается
+            TransactionSynchronizationManager.clearSynchronization();
+            table.clear();
+        }
+        revocationList.refresh();
+
+        assertFalse(revocationList.isRevoked(claims(2L, issuedAt)));
+        assertFalse(revocationList.isRevoked(claims(3L, issuedAt)));
+    }
+
+    private static SessionRevocation revocation(Long id, Long userId, long revokedAt) {
+        SessionRevocation revocation = new SessionRevocation();
+        revocation.setId(id);
+        revocation.setUserId(userId);
+        revocation.setRevokedAt(revokedAt);
+        revocation.setExpiresAt(revokedAt + 60_000);
+        return revocation;
+    }
+
+    private static SessionTokenService.Claims claims(Long userId, long issuedAt) {
+        return new SessionTokenService.Claims("token-" + issuedAt, userId, UserRole.STUDENT, 1L,
+                issuedAt, issuedAt + 60_000);
+    }
+
+    private static AuthPrincipal principal(Long id) {
+        return new AuthPrincipal(id, "user" + id, "Пользователь", UserRole.STUDENT, 1L, true,
+                new long[0], new long[0]);
+    }
+}
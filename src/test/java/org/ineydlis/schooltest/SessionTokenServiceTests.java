@@ -0,0 +1,87 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.service.SessionTokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTokenServiceTests {
+
+    private static final String OLD_KEY = "k1:" + Base64.getEncoder().encodeToString("old-secret-old-secret-old-secret".getBytes());
+    private static final String NEW_KEY = "k2:" + Base64.getEncoder().encodeToString("new-secret-new-secret-new-secret".getBytes());
+
+    private User student;
+
+    @BeforeEach
+    public void setup() {
+        Grade grade = new Grade();
+        grade.setId(7L);
+
+        student = new User();
+        student.setId(42L);
+        student.setRole(UserRole.STUDENT);
+        student.setGrade(grade);
+    }
+
+    @Test
+    public void testIssuedTokenCarriesClaims() {
+        SessionTokenService service = new SessionTokenService(OLD_KEY, 60);
+
+        Optional<SessionTokenService.Claims> claims = service.verify(service.issue(student));
+
+        assertTrue(claims.isPresent());
+        assertEquals(42L, claims.get().userId());
+        assertEquals(UserRole.STUDENT, claims.get().role());
+        assertEquals(7L, claims.get().gradeId());
+        assertTrue(claims.get().expiresAt() > System.currentTimeMillis());
+    }
+
+    @Test
+    public void testBearerPrefixIsAccepted() {
+        SessionTokenService service = new SessionTokenService(OLD_KEY, 60);
+
+        assertTrue(service.verify("Bearer " + service.issue(student)).isPresent());
+    }
+
+    @Test
+    public void testTamperedTokenIsRejected() {
+        SessionTokenService service = new SessionTokenService(OLD_KEY, 60);
+        String token = service.issue(student);
+
+        // Подменяем id пользователя в теле, оставляя исходную подпись
+        String body = new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))));
+        String forgedBody = body.replace(".42.", ".43.");
+        String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(forgedBody.getBytes())
+                + token.substring(token.indexOf('.'));
+
+        assertTrue(service.verify(tampered).isEmpty());
+        assertTrue(service.verify("not-a-token").isEmpty());
+        assertTrue(service.verify(null).isEmpty());
+    }
+
+    @Test
+    public void testExpiredTokenIsRejected() {
+        SessionTokenService service = new SessionTokenService(OLD_KEY, 0);
+
+        assertTrue(service.verify(service.issue(student)).isEmpty());
+    }
+
+    @Test
+    public void testRotatedKeyStillVerifiesOldTokens() {
+        String oldToken = new SessionTokenService(OLD_KEY, 60).issue(student);
+
+        SessionTokenService rotated = new SessionTokenService(NEW_KEY + "," + OLD_KEY, 60);
+        assertTrue(rotated.verify(oldToken).isPresent());
+        assertTrue(rotated.verify(rotated.issue(student)).isPresent());
+
+        SessionTokenService retired = new SessionTokenService(NEW_KEY, 60);
+        assertTrue(retired.verify(oldToken).isEmpty());
+    }
+}
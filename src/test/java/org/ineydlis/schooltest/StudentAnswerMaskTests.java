@@ -0,0 +1,82 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.StudentAnswerDto;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.StudentAnswer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StudentAnswerMaskTests {
+
+    @Test
+    public void testSelectedIdsAreStoredAsBitsInIdOrder() {
+        // Варианты добавлены не по порядку id: позиция бита определяется id
+        Question question = question(7L, 73L, 70L, 72L, 71L);
+        StudentAnswer studentAnswer = new StudentAnswer();
+        studentAnswer.setQuestion(question);
+
+        studentAnswer.setSelectedAnswerIds(new long[]{72L, 70L});
+
+        assertEquals(0b101L, studentAnswer.getSelectedMask());
+        assertEquals(Set.of(70L, 72L), ids(studentAnswer.getSelectedAnswers()));
+    }
+
+    @Test
+    public void testNothingSelectedLeavesMaskEmpty() {
+        StudentAnswer studentAnswer = new StudentAnswer();
+        studentAnswer.setQuestion(question(7L, 70L, 71L));
+
+        studentAnswer.setSelectedAnswerIds(new long[0]);
+
+        assertNull(studentAnswer.getSelectedMask());
+        assertTrue(studentAnswer.getSelectedAnswers().isEmpty());
+    }
+
+    @Test
+    public void testUnknownAnswerIsRejected() {
+        StudentAnswer studentAnswer = new StudentAnswer();
+        studentAnswer.setQuestion(question(7L, 70L, 71L));
+
+        assertThrows(IllegalStateException.class, () -> studentAnswer.setSelectedAnswerIds(new long[]{80L}));
+    }
+
+    @Test
+    public void testDtoKeepsSelectedAnswers() {
+        Question question = question(7L, 70L, 71L, 72L);
+        question.setText("Вопрос");
+        question.setType(QuestionType.MULTIPLE_CHOICE);
+        question.setPoints(2);
+        StudentAnswer studentAnswer = new StudentAnswer();
+        studentAnswer.setQuestion(question);
+        studentAnswer.setSelectedAnswers(Set.of(question.getAnswers().get(0), question.getAnswers().get(2)));
+
+        StudentAnswerDto dto = StudentAnswerDto.fromEntity(studentAnswer);
+
+        assertEquals(Set.of(70L, 72L), dto.getSelectedAnswers().stream()
+                .map(answer -> answer.getId()).collect(Collectors.toSet()));
+    }
+
+    private static Question question(Long id, long... answerIds) {
+        Question question = new Question();
+        question.setId(id);
+        for (long answerId : answerIds) {
+            Answer answer = new Answer();
+            answer.setId(answerId);
+            answer.setText("Вариант " + answerId);
+            answer.setCorrect(answerId == answerIds[0]);
+            answer.setQuestion(question);
+            question.getAnswers().add(answer);
+        }
+        return question;
+    }
+
+    private static Set<Long> ids(Set<Answer> answers) {
+        return answers.stream().map(Answer::getId).collect(Collectors.toSet());
+    }
+}
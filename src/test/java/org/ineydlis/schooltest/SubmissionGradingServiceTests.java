@@ -0,0 +1,351 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.dto.TestSubmissionRequest;
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.service.AnswerAutosaveService;
+import org.ineydlis.schooltest.service.SubmissionGradingService;
+import org.ineydlis.schooltest.service.SubmissionReplayCache;
+import org.ineydlis.schooltest.service.TestService;
+import org.ineydlis.schooltest.service.TestService.GradingOutcome;
+import org.ineydlis.schooltest.service.TestService.GradingRequest;
+import org.ineydlis.schooltest.util.ServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class SubmissionGradingServiceTests {
+
+    private final TestService testService = mock(TestService.class);
+    private final AnswerAutosaveService answerAutosaveService = mock(AnswerAutosaveService.class);
+    private final TestResultRepository testResultRepository = mock(TestResultRepository.class);
+
+    @Test
+    public void testSubmitReturnsPendingAndGradesInBackground() {
+        TestSubmissionRequest request = new TestSubmissionRequest(7L, new ArrayList<>());
+        acceptAll();
+        gradeAll();
+        SubmissionGradingService service = service(true, 1, 10, 5, 50);
+        try {
+            TestResultDto accepted = service.submit(request, 2L);
+
+            assertTrue(accepted.isPending());
+            verify(answerAutosaveService).flush(7L);
+            verify(testService).acceptGroup(List.of(new GradingRequest(7L, 2L, List.of())));
+            verify(testService, never()).acceptSubmission(any(), anyLong());
+            verify(testService, never()).submitTest(any(), anyLong());
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(7L, null, null)));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testSynchronousModeWaitsForGroupCommit() {
+        TestSubmissionRequest request = new TestSubmissionRequest(7L, new ArrayList<>());
+        gradeAll();
+        SubmissionGradingService service = service(false, 1, 10, 5, 50);
+        try {
+            assertFalse(service.submit(request, 2L).isPending());
+            verify(testService).gradeGroup(List.of(new GradingRequest(7L, 2L, List.of())));
+            verify(testService, never()).acceptSubmission(any(), anyLong());
+            verify(testService, never()).submitTest(any(), anyLong());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedSubmissionIsReportedToItsCallerOnly() {
+        when(testService.gradeGroup(anyList())).thenReturn(
+                List.of(new GradingOutcome(null, new RuntimeException("Тест уже завершен"))));
+        SubmissionGradingService service = service(false, 1, 10, 5, 50);
+        try {
+            RuntimeException e = assertThrows(RuntimeException.class,
+                    () -> service.submit(new TestSubmissionRequest(7L, new ArrayList<>()), 2L));
+            assertEquals("Тест уже завершен", e.getMessage());
+            // Отказ ученику - не сбой проверки
+            assertEquals(0L, service.getStats().get("failed"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testStalledGradingReleasesRequestWith503() {
+        CountDownLatch release = new CountDownLatch(1);
+        when(testService.gradeGroup(anyList())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return outcomes(invocation.getArgument(0));
+        });
+        SubmissionGradingService service = new SubmissionGradingService(testService, answerAutosaveService,
+                testResultRepository, new SubmissionReplayCache(100, 600, 5000), false, 1, 10, 1000, 0, 50, 100, 5);
+        try {
+            ServiceUnavailableException e = assertThrows(ServiceUnavailableException.class,
+                    () -> service.submit(new TestSubmissionRequest(7L, new ArrayList<>()), 2L));
+            assertTrue(e.getRetryAfterSeconds() >= 1);
+            assertEquals(1L, service.getStats().get("timedOut"));
+        } finally {
+            release.countDown();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentSubmitsShareOneCommit() throws Exception {
+        gradeAll();
+        // Окно с запасом: все пять отправок успевают попасть в группу первой
+        SubmissionGradingService service = service(false, 1, 10, 500, 5);
+        ExecutorService students = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<TestResultDto>> results = new ArrayList<>();
+            for (long id = 1; id <= 5; id++) {
+                TestSubmissionRequest request = new TestSubmissionRequest(id, new ArrayList<>());
+                results.add(students.submit(() -> service.submit(request, 2L)));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i + 1L, results.get(i).get(5, TimeUnit.SECONDS).getId());
+            }
+
+            verify(testService, times(1)).gradeGroup(anyList());
+            assertEquals(1L, service.getStats().get("groups"));
+            assertEquals(5L, service.getStats().get("groupedAttempts"));
+        } finally {
+            students.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentAsyncSubmitsShareOneAcceptCommit() throws Exception {
+        acceptAll();
+        gradeAll();
+        SubmissionGradingService service = service(true, 1, 10, 500, 5);
+        ExecutorService students = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<TestResultDto>> results = new ArrayList<>();
+            for (long id = 1; id <= 5; id++) {
+                TestSubmissionRequest request = new TestSubmissionRequest(id, new ArrayList<>());
+                results.add(students.submit(() -> service.submit(request, 2L)));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertTrue(results.get(i).get(5, TimeUnit.SECONDS).isPending());
+            }
+
+            // Прием - одна транзакция на группу, принятые попытки проверяются в той же группе
+            verify(testService, times(1)).acceptGroup(argThat(requests -> requests.size() == 5));
+            verify(testService, timeout(2000).times(1)).gradeGroup(argThat(requests -> requests.size() == 5));
+            verify(testService, never()).acceptSubmission(any(), anyLong());
+            assertEquals(5L, service.getStats().get("accepted"));
+        } finally {
+            students.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testAlwaysFailingAttemptIsClosedAfterMaxFailures() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+        when(testResultRepository.findPendingSubmissionIds()).thenAnswer(invocation -> closed.get() ? List.of() : List.of(1L));
+        when(testService.gradeGroup(anyList())).thenThrow(new RuntimeException("сбой проверки"));
+        // Счетчик неудач в строке попытки; на третьей неудаче попытка закрывается
+        when(testService.recordGradingFailure(eq(1L), eq("сбой проверки"), eq(3))).thenAnswer(invocation -> {
+            if (failures.incrementAndGet() < 3) {
+                return Optional.empty();
+            }
+            closed.set(true);
+            return Optional.of(result(1L, false));
+        });
+        SubmissionGradingService service = service(true, 1, 10, 0, 50);
+        try {
+            for (int sweep = 1; sweep <= 5; sweep++) {
+                service.sweep();
+                awaitStat(service, "failed", Math.min(sweep, 3));
+                awaitStat(service, "inFlight", 0);
+            }
+
+            // Закрытая попытка больше не попадает в обход и не проверяется заново
+            verify(testService, times(3)).gradeGroup(anyList());
+            verify(testService, times(3)).recordGradingFailure(1L, "сбой проверки", 3);
+            assertEquals(1L, service.getStats().get("gaveUp"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedGroupIsRetriedOneByOne() throws Exception {
+        when(testResultRepository.findPendingSubmissionIds()).thenReturn(List.of(1L, 2L));
+        when(testService.gradeGroup(anyList())).thenAnswer(invocation -> {
+            List<GradingRequest> requests = invocation.getArgument(0);
+            if (requests.size() > 1 || requests.get(0).testResultId() == 2L) {
+                throw new RuntimeException("сбой записи");
+            }
+            return List.of(new GradingOutcome(result(1L, false), null));
+        });
+        // Группа закрывается по размеру, а не по окну: обе попытки всегда попадают в одну группу
+        SubmissionGradingService service = service(true, 1, 10, 5000, 2);
+        try {
+            service.sweep();
+
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(1L, null, null)));
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(2L, null, null)));
+            // Счетчик сбоя увеличивается уже после вызова, который дождался verify
+            awaitStat(service, "failed", 1L);
+            assertEquals(1L, service.getStats().get("groupFailures"));
+            assertEquals(1L, service.getStats().get("graded"));
+            assertEquals(1L, service.getStats().get("failed"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testOverflowIsDeferredToSweep() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(testService.gradeGroup(anyList())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return outcomes(invocation.getArgument(0));
+        });
+        // Один поток, группы по одной попытке и очередь на одну: из трех непроверенных одна откладывается
+        when(testResultRepository.findPendingSubmissionIds())
+                .thenReturn(List.of(1L, 2L, 3L), List.of(1L, 2L, 3L), List.of(3L));
+        SubmissionGradingService service = service(true, 1, 1, 0, 1);
+        try {
+            service.sweep();
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(1L, null, null)));
+            assertTrue((Long) service.getStats().get("deferred") >= 1L);
+
+            // Повторный обход не ставит в очередь уже принятые попытки
+            service.sweep();
+
+            release.countDown();
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(2L, null, null)));
+            // Отложенная попытка проверяется при следующем обходе
+            service.sweep();
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(3L, null, null)));
+            verify(testService, timeout(2000).times(1)).gradeGroup(List.of(new GradingRequest(1L, null, null)));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testRetriedSubmitWithSameKeyIsNotGradedAgain() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(testService.gradeGroup(anyList())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return outcomes(invocation.getArgument(0));
+        });
+        SubmissionGradingService service = service(false, 1, 10, 0, 50);
+        ExecutorService client = Executors.newFixedThreadPool(2);
+        try {
+            TestSubmissionRequest request = new TestSubmissionRequest(7L, new ArrayList<>(), "key-1");
+            // Повтор приходит, пока первая отправка еще проверяется, и ждет ее
+            Future<TestResultDto> first = client.submit(() -> service.submit(request, 2L));
+            verify(testService, timeout(2000)).gradeGroup(List.of(new GradingRequest(7L, 2L, List.of(), "key-1")));
+            Future<TestResultDto> retry = client.submit(() -> service.submit(request, 2L));
+            release.countDown();
+
+            assertSame(first.get(5, TimeUnit.SECONDS), retry.get(5, TimeUnit.SECONDS));
+            // Повтор после завершения - из кэша
+            assertFalse(service.submit(request, 2L).isPending());
+            verify(testService, times(1)).gradeGroup(anyList());
+            verify(answerAutosaveService, times(1)).flush(7L);
+        } finally {
+            client.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testKeyUnknownToCacheIsFoundInDatabase() {
+        when(testService.findSubmission(7L, 2L, "key-1")).thenReturn(Optional.of(result(7L, false)));
+        SubmissionGradingService service = service(true, 1, 10, 5, 50);
+        try {
+            TestResultDto result = service.submit(new TestSubmissionRequest(7L, new ArrayList<>(), "key-1"), 2L);
+
+            assertTrue(result.isCompleted());
+            verify(testService, never()).acceptSubmission(any(), anyLong());
+            verify(testService, never()).acceptGroup(anyList());
+            verify(answerAutosaveService, never()).flush(anyLong());
+            assertEquals(1L, service.getStats().get("replayedFromDatabase"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedSubmitCanBeRetriedWithSameKey() {
+        TestSubmissionRequest request = new TestSubmissionRequest(7L, new ArrayList<>(), "key-1");
+        when(testService.acceptGroup(anyList()))
+                .thenThrow(new RuntimeException("сбой записи"))
+                .thenAnswer(invocation -> accepted(invocation.getArgument(0)));
+        gradeAll();
+        SubmissionGradingService service = service(true, 1, 10, 5, 50);
+        try {
+            // Сбой приема группы из одной отправки получает сам ученик
+            assertThrows(RuntimeException.class, () -> service.submit(request, 2L));
+            assertTrue(service.submit(request, 2L).isPending());
+            verify(testService, times(2)).acceptGroup(List.of(new GradingRequest(7L, 2L, List.of(), "key-1")));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private SubmissionGradingService service(boolean async, int threads, int queueCapacity,
+                                             long windowMillis, int maxGroupSize) {
+        return new SubmissionGradingService(testService, answerAutosaveService, testResultRepository,
+                new SubmissionReplayCache(100, 600, 5000), async, threads, queueCapacity, 1000, windowMillis, maxGroupSize, 5000, 3);
+    }
+
+    private static void awaitStat(SubmissionGradingService service, String name, long expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (((Number) service.getStats().get(name)).longValue() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void acceptAll() {
+        when(testService.acceptGroup(anyList())).thenAnswer(invocation -> accepted(invocation.getArgument(0)));
+    }
+
+    private static List<GradingOutcome> accepted(List<GradingRequest> requests) {
+        return requests.stream()
+                .map(request -> new GradingOutcome(result(request.testResultId(), true), null))
+                .toList();
+    }
+
+    private void gradeAll() {
+        when(testService.gradeGroup(anyList())).thenAnswer(invocation -> outcomes(invocation.getArgument(0)));
+    }
+
+    private static List<GradingOutcome> outcomes(List<GradingRequest> requests) {
+        return requests.stream()
+                .map(request -> new GradingOutcome(result(request.testResultId(), false), null))
+                .toList();
+    }
+
+    private static TestResultDto result(Long id, boolean pending) {
+        return TestResultDto.builder().id(id).pending(pending).completed(!pending).build();
+    }
+}
@@ -0,0 +1,87 @@
+package org.ineydlis.schooltest;
+
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.service.SubmissionReplayCache;
+import org.ineydlis.schooltest.util.ServiceUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubmissionReplayCacheTests {
+
+    private final SubmissionReplayCache cache = new SubmissionReplayCache(100, 600, 100);
+
+    @Test
+    public void testRepeatedKeyReturnsFirstResult() {
+        AtomicInteger calls = new AtomicInteger();
+
+        TestResultDto first = cache.submit(2L, 7L, "key", () -> result(7L, calls.incrementAndGet()));
+        TestResultDto repeated = cache.submit(2L, 7L, "key", () -> result(7L, calls.incrementAndGet()));
+
+        assertSame(first, repeated);
+        assertEquals(1, calls.get());
+        assertEquals(1L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    public void testSameKeyForOtherAttemptIsNewSubmission() {
+        TestResultDto first = cache.submit(2L, 7L, "key", () -> result(7L, 1));
+        TestResultDto other = cache.submit(2L, 8L, "key", () -> result(8L, 2));
+
+        assertEquals(7L, first.getId());
+        assertEquals(8L, other.getId());
+    }
+
+    @Test
+    public void testErrorInSubmissionReleasesKey() {
+        assertThrows(StackOverflowError.class, () -> cache.submit(2L, 7L, "key", () -> {
+            throw new StackOverflowError();
+        }));
+
+        // Повтор не ждет незавершенную отправку, а выполняется заново
+        TestResultDto retried = cache.submit(2L, 7L, "key", () -> result(7L, 1));
+        assertEquals(7L, retried.getId());
+    }
+
+    @Test
+    public void testStalledFirstSubmissionReleasesRetryWith503() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<TestResultDto> first = CompletableFuture.supplyAsync(() ->
+                cache.submit(2L, 7L, "key", () -> {
+                    started.countDown();
+                    await(release);
+                    return result(7L, 1);
+                }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ServiceUnavailableException error = assertThrows(ServiceUnavailableException.class,
+                () -> cache.submit(2L, 7L, "key", () -> result(7L, 2)));
+        assertTrue(error.getRetryAfterSeconds() > 0);
+        assertEquals(1L, cache.getStats().get("timedOut"));
+
+        release.countDown();
+        assertEquals(7L, first.get(5, TimeUnit.SECONDS).getId());
+        assertSame(first.get(), cache.submit(2L, 7L, "key", () -> result(7L, 3)));
+    }
+
+    private static TestResultDto result(Long id, int score) {
+        TestResultDto result = new TestResultDto();
+        result.setId(id);
+        result.setScore(score);
+        return result;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
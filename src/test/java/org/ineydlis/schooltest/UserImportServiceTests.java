@@ -0,0 +1,128 @@
+package org.ineydlis.schooltest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.UserImportReport;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.service.UserImportService;
+import org.ineydlis.schooltest.util.BadRequestException;
+import org.ineydlis.schooltest.util.GlobalExceptionHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class UserImportServiceTests {
+
+    private JdbcTemplate jdbcTemplate;
+    private UserImportService importService;
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        GradeRepository gradeRepository = mock(GradeRepository.class);
+        SubjectRepository subjectRepository = mock(SubjectRepository.class);
+
+        when(gradeRepository.findAll()).thenReturn(List.of(
+                new Grade(1L, 5, "А", "5А"), new Grade(2L, 5, "Б", "5Б")));
+        when(subjectRepository.findAll()).thenReturn(List.of(new Subject(10L, "Математика")));
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class))).thenReturn(List.of("admin"));
+
+        // Имитируем сгенерированные базой идентификаторы: 100, 101, ...
+        when(jdbcTemplate.batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class))).thenAnswer(invocation -> {
+            BatchPreparedStatementSetter setter = invocation.getArgument(1);
+            KeyHolder keyHolder = invocation.getArgument(2);
+            for (int i = 0; i < setter.getBatchSize(); i++) {
+                keyHolder.getKeyList().add(Map.of("id", 100L + i));
+            }
+            return new int[setter.getBatchSize()];
+        });
+
+        importService = new UserImportService(jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new BCryptPasswordEncoder(4), gradeRepository, subjectRepository, new ObjectMapper(), 2, 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCsvImportReportsBadRowsAndBatchesTheRest() throws Exception {
+        String csv = String.join("\n",
+                "username,password,fullName,role,gradeName,subjectNames,teachingGradeNames",
+                "ivanov,pass1,Иванов Иван,student,5А,,",
+                "admin,pass2,Дубликат,ADMIN,,,",
+                "petrov,pass3,Петров Петр,STUDENT,9Я,,",
+                "\"smirnova\",pass4,\"Смирнова, Анна\",TEACHER,,Математика,5А;5Б",
+                "sidorov,,Сидоров,STUDENT,5Б,,",
+                "kuznetsov,pass6,Кузнецов,DIRECTOR,,,");
+
+        UserImportReport report = importService.importUsers(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), UserImportService.Format.CSV);
+
+        assertEquals(6, report.getTotal());
+        assertEquals(2, report.getImported());
+        assertEquals(List.of(3, 4, 6, 7), report.getErrors().stream().map(UserImportReport.RowError::getLine).toList());
+        assertTrue(report.getErrors().get(1).getMessage().contains("9Я"));
+
+        // Одна пакетная вставка пользователей на порцию из двух строк
+        verify(jdbcTemplate, times(1)).batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+
+        ArgumentCaptor<List<Object[]>> gradeLinks = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(contains("teacher_teaching_grade"), gradeLinks.capture());
+        assertEquals(2, gradeLinks.getValue().size());
+        assertEquals(101L, gradeLinks.getValue().get(0)[0]);
+        verify(jdbcTemplate).batchUpdate(contains("teacher_subjects"), anyList());
+    }
+
+    @Test
+    public void testNdjsonImport() throws Exception {
+        String ndjson = String.join("\n",
+                "{\"username\":\"a1\",\"password\":\"p\",\"fullName\":\"А\",\"role\":\"STUDENT\",\"gradeName\":\"5А\"}",
+                "",
+                "{\"username\":\"a2\",\"password\":\"p\",\"fullName\":\"Б\",\"role\":\"STUDENT\",\"active\":false}",
+                "{\"username\":\"a3\",\"password\":\"p\",\"fullName\":\"В\",\"role\":\"STUDENT\"}",
+                "не json");
+
+        UserImportReport report = importService.importUsers(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), UserImportService.Format.NDJSON);
+
+        assertEquals(4, report.getTotal());
+        assertEquals(3, report.getImported());
+        assertEquals(1, report.getErrors().size());
+        assertEquals(5, report.getErrors().get(0).getLine());
+        // Порции по две строки: две пакетные вставки
+        verify(jdbcTemplate, times(2)).batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+    }
+
+    @Test
+    public void testCsvWithoutRequiredColumnsIsBadRequest() {
+        String csv = String.join("\n", "login,fullName", "ivanov,Иванов Иван");
+
+        BadRequestException error = assertThrows(BadRequestException.class, () -> importService.importUsers(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), UserImportService.Format.CSV));
+
+        // Ошибка во входных данных, а не в правах доступа
+        assertEquals(400, new GlobalExceptionHandler().handleBadRequest(error).getStatusCode().value());
+        verify(jdbcTemplate, never()).batchUpdate(any(PreparedStatementCreator.class),
+                any(BatchPreparedStatementSetter.class), any(KeyHolder.class));
+    }
+}